@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A local stand-in for the Dropbox API v2, answering the endpoints used by the benchmarks with canned responses so
+ * that the benchmarks measure the connector rather than the network or Dropbox.
+ * <p>
+ * Uploads read and discard the request body and answer with file metadata of the received size. Downloads of a path
+ * of the form /bytes/&lt;n&gt; return n bytes, honouring a Range header. The revisions reported by the stub encode
+ * the file size, so that downloads pinned to a revision return the same content. search returns 20 matches and
+ * list_folder returns a page of 100 entries. The stub can also be started on its own, for manual tests of a connector
+ * deployed on an ESB, with
+ * {@code java -cp benchmarks.jar org.wso2.carbon.connector.dropbox.benchmark.DropboxStub [port]}.
+ * <p>
+ * Each endpoint answers its exact path only, other paths such as /2/files/search_v2 are answered with HTTP 404, so
+ * that an operation calling the wrong endpoint fails its benchmark instead of being measured against another one.
+ */
+public final class DropboxStub {
+
+    public static final String ACCESS_TOKEN = "benchmark-token";
+
+    private static final int SEARCH_MATCHES = 20;
+
+    private static final int LIST_FOLDER_ENTRIES = 100;
+
+    private static final Pattern PATH_ARGUMENT = Pattern.compile("\"path\"\\s*:\\s*\"([^\"]*)\"");
+
+    private static final Pattern BYTES_PATH = Pattern.compile("/bytes/(\\d+)");
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    private static final Pattern OFFSET_ARGUMENT = Pattern.compile("\"offset\"\\s*:\\s*(\\d+)");
+
+    private static final byte[] CONTENT = new byte[64 * 1024];
+
+    static {
+        // Without TCP_NODELAY the server holds back the body of a response until the headers are acknowledged, which
+        // adds the delayed acknowledgement of the client, about 40 ms, to every call.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private final AtomicLong sessions = new AtomicLong();
+
+    private final byte[] searchResponse;
+
+    private final byte[] listFolderResponse;
+
+    public DropboxStub(int port, int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        searchResponse = utf8(buildSearchResponse());
+        listFolderResponse = utf8(buildListFolderResponse());
+
+        createContext("/2/files/get_metadata", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = getPath(readBody(exchange));
+                sendJson(exchange, 200, fileMetadata(path, 1024));
+            }
+        });
+        createContext("/2/files/search", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                readBody(exchange);
+                sendJson(exchange, 200, searchResponse);
+            }
+        });
+        createContext("/2/files/list_folder", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                readBody(exchange);
+                sendJson(exchange, 200, listFolderResponse);
+            }
+        });
+        createContext("/2/files/upload", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                long size = discardBody(exchange);
+                sendJson(exchange, 200, fileMetadata(getPath(getArgument(exchange)), size));
+            }
+        });
+        createContext("/2/files/upload_session/start", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                discardBody(exchange);
+                sendJson(exchange, 200, utf8("{\"session_id\":\"session-" + sessions.incrementAndGet() + "\"}"));
+            }
+        });
+        createContext("/2/files/upload_session/append_v2", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                discardBody(exchange);
+                sendJson(exchange, 200, utf8("null"));
+            }
+        });
+        createContext("/2/files/upload_session/finish", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String argument = getArgument(exchange);
+                long size = discardBody(exchange) + getOffset(argument);
+                sendJson(exchange, 200, fileMetadata(getPath(argument), size));
+            }
+        });
+        createContext("/2/files/download", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                discardBody(exchange);
+                String path = getPath(getArgument(exchange));
+                long size;
+                if (path.startsWith("rev:")) {
+                    size = Long.parseLong(path.substring(4), 16);
+                } else {
+                    Matcher matcher = BYTES_PATH.matcher(path);
+                    size = matcher.find() ? Long.parseLong(matcher.group(1)) : 0;
+                }
+                exchange.getResponseHeaders().set("Dropbox-API-Result", new String(fileMetadata(path, size),
+                        StandardCharsets.UTF_8));
+                sendContent(exchange, size);
+            }
+        });
+    }
+
+    public static void main(String[] args) throws IOException {
+        DropboxStub stub = new DropboxStub(args.length > 0 ? Integer.parseInt(args[0]) : 8089, 32);
+        stub.start();
+        System.out.println("Dropbox stub listening on " + stub.getApiUrl());
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the base URL to pass as the apiUrl of init, without the API version.
+     */
+    public String getApiUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Registers a handler for exactly the given path. The contexts of {@link HttpServer} match by prefix, which would
+     * for instance answer /2/files/search_v2 with the handler of /2/files/search.
+     */
+    private void createContext(final String path, final HttpHandler handler) {
+        server.createContext(path, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if (path.equals(exchange.getRequestURI().getPath())) {
+                    handler.handle(exchange);
+                } else {
+                    discardBody(exchange);
+                    sendJson(exchange, 404, utf8("{\"error_summary\":\"not_found/\"}"));
+                }
+            }
+        });
+    }
+
+    private static void sendContent(HttpExchange exchange, long size) throws IOException {
+        long first = 0;
+        long last = size - 1;
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        Matcher matcher = range == null ? null : RANGE.matcher(range);
+        if (matcher != null && matcher.matches()) {
+            first = Long.parseLong(matcher.group(1));
+            if (!matcher.group(2).isEmpty()) {
+                last = Math.min(last, Long.parseLong(matcher.group(2)));
+            }
+            if (first > last) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+                exchange.sendResponseHeaders(416, -1);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + first + "-" + last + "/" + size);
+            status = 206;
+        }
+        long length = last - first + 1;
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            for (long remaining = length; remaining > 0; remaining -= CONTENT.length) {
+                out.write(CONTENT, 0, (int) Math.min(CONTENT.length, remaining));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, byte[] json) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, json.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(json);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        StringBuilder body = new StringBuilder();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.append(new String(buffer, 0, read, StandardCharsets.UTF_8));
+        }
+        return body.toString();
+    }
+
+    private static long discardBody(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        byte[] buffer = new byte[CONTENT.length];
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            total += read;
+        }
+        return total;
+    }
+
+    private static String getArgument(HttpExchange exchange) {
+        String argument = exchange.getRequestHeaders().getFirst("Dropbox-API-Arg");
+        return argument == null ? "{}" : argument;
+    }
+
+    private static String getPath(String argument) {
+        Matcher matcher = PATH_ARGUMENT.matcher(argument);
+        return matcher.find() ? matcher.group(1) : "/file";
+    }
+
+    private static long getOffset(String argument) {
+        Matcher matcher = OFFSET_ARGUMENT.matcher(argument);
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : 0;
+    }
+
+    private static byte[] fileMetadata(String path, long size) {
+        return utf8(fileMetadataJson(path, size));
+    }
+
+    private static String fileMetadataJson(String path, long size) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        return "{\".tag\":\"file\",\"name\":\"" + name + "\",\"path_lower\":\"" + path.toLowerCase() + "\","
+                + "\"path_display\":\"" + path + "\",\"id\":\"id:a4ayc_80_OEAAAAAAAAAXw\","
+                + "\"client_modified\":\"2017-01-01T00:00:00Z\",\"server_modified\":\"2017-01-01T00:00:00Z\","
+                + "\"rev\":\"" + String.format("%012x", size) + "\",\"size\":" + size + ","
+                + "\"content_hash\":\"e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855\"}";
+    }
+
+    private static String buildSearchResponse() {
+        StringBuilder json = new StringBuilder("{\"matches\":[");
+        for (int i = 0; i < SEARCH_MATCHES; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"match_type\":{\".tag\":\"filename\"},\"metadata\":")
+                    .append(fileMetadataJson("/benchmark/match-" + i + ".txt", 1024 + i)).append('}');
+        }
+        return json.append("],\"more\":false,\"start\":").append(SEARCH_MATCHES).append('}').toString();
+    }
+
+    private static String buildListFolderResponse() {
+        StringBuilder json = new StringBuilder("{\"entries\":[");
+        for (int i = 0; i < LIST_FOLDER_ENTRIES; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(fileMetadataJson("/benchmark/entry-" + i + ".txt", 1024 + i));
+        }
+        return json.append("],\"cursor\":\"AAGvR5p2bhYx\",\"has_more\":false}").toString();
+    }
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.benchmark;
+
+import org.apache.axiom.attachments.ByteArrayDataSource;
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMNode;
+import org.apache.axiom.om.OMText;
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.engine.AxisConfiguration;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.config.SynapseConfiguration;
+import org.apache.synapse.core.axis2.Axis2MessageContext;
+import org.apache.synapse.core.axis2.Axis2SynapseEnvironment;
+import org.wso2.carbon.connector.dropbox.DropboxConstants;
+import org.wso2.carbon.connector.dropbox.util.DropboxUtils;
+
+import javax.activation.DataHandler;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Creates Synapse messages in the state the init operation leaves them in, without an ESB.
+ */
+final class Messages {
+
+    private static final ConfigurationContext CONFIGURATION_CONTEXT =
+            new ConfigurationContext(new AxisConfiguration());
+
+    private static final SynapseConfiguration SYNAPSE_CONFIGURATION = new SynapseConfiguration();
+
+    private static final Axis2SynapseEnvironment SYNAPSE_ENVIRONMENT =
+            new Axis2SynapseEnvironment(CONFIGURATION_CONTEXT, SYNAPSE_CONFIGURATION);
+
+    private Messages() {
+    }
+
+    /**
+     * Creates a message initialized for blocking calls to the given API URL.
+     *
+     * @param apiUrl the API URL without the version, e.g. that of {@link DropboxStub#getApiUrl()}.
+     * @return the message.
+     * @throws AxisFault if the message cannot be created.
+     */
+    static MessageContext create(String apiUrl) throws AxisFault {
+        MessageContext messageContext = create(SYNAPSE_ENVIRONMENT);
+        messageContext.setProperty(DropboxConstants.API_URL, apiUrl + "/2");
+        messageContext.setProperty(DropboxConstants.ACCESS_TOKEN, DropboxStub.ACCESS_TOKEN);
+        messageContext.setProperty(DropboxConstants.BLOCKING, "true");
+        DropboxUtils.getTransportHeaders(messageContext).put("Authorization", "Bearer " + DropboxStub.ACCESS_TOKEN);
+        return messageContext;
+    }
+
+    /**
+     * Creates a message with an empty SOAP envelope in the given environment, as a proxy service receives it before
+     * the init operation.
+     *
+     * @param environment the environment holding the Synapse configuration, e.g. the templates to invoke.
+     * @return the message.
+     * @throws AxisFault if the message cannot be created.
+     */
+    static MessageContext create(Axis2SynapseEnvironment environment) throws AxisFault {
+        org.apache.axis2.context.MessageContext axis2MessageContext = new org.apache.axis2.context.MessageContext();
+        axis2MessageContext.setConfigurationContext(environment.getAxis2ConfigurationContext());
+        axis2MessageContext.setEnvelope(OMAbstractFactory.getSOAP11Factory().getDefaultEnvelope());
+        return new Axis2MessageContext(axis2MessageContext, environment.getSynapseConfiguration(), environment);
+    }
+
+    /**
+     * Sets the body of the message to binary content, as the binary relay builder does for octet-stream requests.
+     */
+    static void setBinaryPayload(MessageContext messageContext, byte[] content) {
+        DropboxUtils.setBinaryResponse(messageContext, new ByteArrayDataSource(content, "application/octet-stream"));
+        DropboxUtils.getTransportHeaders(messageContext).put("Content-Length", String.valueOf(content.length));
+    }
+
+    /**
+     * Fails unless the last call of the message was answered with HTTP 200, so that a broken setup is not measured.
+     */
+    static void checkStatus(MessageContext messageContext) throws IOException {
+        Object status = ((Axis2MessageContext) messageContext).getAxis2MessageContext()
+                .getProperty(DropboxConstants.HTTP_SC);
+        if (status == null || !"200".equals(status.toString())) {
+            throw new IOException("The call failed with HTTP " + status);
+        }
+    }
+
+    /**
+     * Reads the binary body of the message to the end, as the message formatter would when sending it on.
+     *
+     * @return the number of bytes read.
+     */
+    static long drainBinaryPayload(MessageContext messageContext) throws IOException {
+        OMElement element = messageContext.getEnvelope().getBody().getFirstElement();
+        OMNode node = element == null ? null : element.getFirstOMChild();
+        if (!(node instanceof OMText) || !((OMText) node).isBinary()) {
+            throw new IOException("The message has no binary payload");
+        }
+        InputStream in = ((DataHandler) ((OMText) node).getDataHandler()).getInputStream();
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+            }
+            return total;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.benchmark;
+
+import org.apache.synapse.MessageContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.carbon.connector.dropbox.DropboxConstants;
+import org.wso2.carbon.connector.dropbox.DropboxInvoker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the mediation of the RPC operations in blocking mode against the {@link DropboxStub}: building the
+ * argument, the rate limiter, the pooled HTTP call, setting the JSON response and {@code AfterCallHandler}.
+ * <p>
+ * {@link #newMessage()} measures creating the message alone, to be subtracted from the operation results. Run with
+ * {@code -prof gc} for the allocations per message and with {@code -t} for the throughput of concurrent flows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class OperationBenchmark {
+
+    @Param({"getMetadata", "search", "listFolder"})
+    public String operation;
+
+    private DropboxStub stub;
+
+    private DropboxInvoker invoker;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        stub = new DropboxStub(0, 32);
+        stub.start();
+        invoker = new DropboxInvoker();
+        invoker.setOperation(operation);
+        if ("getMetadata".equals(operation)) {
+            invoker.setEndpoint("{+uri.var.apiUrl}/files/get_metadata");
+        } else if ("search".equals(operation)) {
+            invoker.setEndpoint("{+uri.var.apiUrl}/files/search");
+        } else {
+            invoker.setEndpoint("{+uri.var.apiUrl}/files/list_folder");
+        }
+        Messages.checkStatus(invoke());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        stub.stop();
+    }
+
+    @Benchmark
+    public MessageContext newMessage() throws Exception {
+        return Messages.create(stub.getApiUrl());
+    }
+
+    @Benchmark
+    public MessageContext invoke() throws Exception {
+        MessageContext messageContext = Messages.create(stub.getApiUrl());
+        messageContext.setProperty(DropboxConstants.PATH, "/benchmark/report.txt");
+        messageContext.setProperty(DropboxConstants.QUERY, "report");
+        messageContext.setProperty(DropboxConstants.MAX_RESULTS, "20");
+        invoker.connect(messageContext);
+        return messageContext;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.benchmark;
+
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.impl.builder.StAXOMBuilder;
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.context.ConfigurationContextFactory;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.config.SynapseConfiguration;
+import org.apache.synapse.config.xml.TemplateMediatorFactory;
+import org.apache.synapse.core.axis2.Axis2SynapseEnvironment;
+import org.apache.synapse.mediators.Value;
+import org.apache.synapse.mediators.base.SequenceMediator;
+import org.apache.synapse.mediators.template.InvokeMediator;
+import org.apache.synapse.mediators.template.TemplateMediator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the mediation of the RPC operations through their Synapse templates in blocking mode against the
+ * {@link DropboxStub}, as a proxy service calling init and the operation would: the template parameters, the
+ * mediators of the templates and the call to the stub.
+ * <p>
+ * The current templates are those of the connector on the class path. The baseline templates are those of the
+ * connector before its class mediators, which build the payload with the payloadFactory and script mediators and
+ * call Dropbox with the call mediator, and are kept under baseline/ in the benchmark resources. The baseline needs the
+ * call mediator and the JSON support of the WSO2 Synapse runtime the connector is deployed on. Building an earlier
+ * version of the connector and running the benchmark with it gives the current results of that version.
+ * <p>
+ * {@link #newMessage()} measures creating the message alone, to be subtracted from the operation results. Run with
+ * {@code -prof gc} for the allocations per message and with {@code -t} for the throughput of concurrent flows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TemplateBenchmark {
+
+    @Param({"current", "baseline"})
+    public String templates;
+
+    @Param({"getMetadata", "search"})
+    public String operation;
+
+    private DropboxStub stub;
+
+    private Axis2SynapseEnvironment environment;
+
+    private SequenceMediator sequence;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        stub = new DropboxStub(0, 32);
+        stub.start();
+        ConfigurationContext configurationContext = ConfigurationContextFactory.createConfigurationContextFromURIs(
+                TemplateBenchmark.class.getResource("/axis2.xml"), null);
+        SynapseConfiguration configuration = new SynapseConfiguration();
+        environment = new Axis2SynapseEnvironment(configurationContext, configuration);
+        String prefix = "baseline".equals(templates) ? "baseline/" : "";
+        addTemplate(configuration, prefix + "config/init.xml");
+        addTemplate(configuration, prefix + "metadata/" + operation + ".xml");
+
+        sequence = new SequenceMediator();
+        sequence.addChild(invoke("init", "apiUrl", stub.getApiUrl(), "apiVersion", "2",
+                "accessToken", DropboxStub.ACCESS_TOKEN, "path", "/benchmark/report.txt", "blocking", "true"));
+        if ("search".equals(operation)) {
+            sequence.addChild(invoke(operation, "query", "report", "maxResults", "20"));
+        } else {
+            sequence.addChild(invoke(operation));
+        }
+        sequence.init(environment);
+        Messages.checkStatus(mediate());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sequence.destroy();
+        stub.stop();
+    }
+
+    @Benchmark
+    public MessageContext newMessage() throws Exception {
+        return Messages.create(environment);
+    }
+
+    @Benchmark
+    public MessageContext mediate() throws Exception {
+        MessageContext messageContext = Messages.create(environment);
+        sequence.mediate(messageContext);
+        return messageContext;
+    }
+
+    /**
+     * Defines the template in the given resource and initializes it, as deploying the connector would.
+     */
+    private void addTemplate(SynapseConfiguration configuration, String resource) throws IOException {
+        InputStream in = TemplateBenchmark.class.getClassLoader().getResourceAsStream(resource);
+        if (in == null) {
+            throw new FileNotFoundException("The template " + resource + " is not on the class path");
+        }
+        try {
+            OMElement element = new StAXOMBuilder(in).getDocumentElement();
+            element.build();
+            TemplateMediator template = (TemplateMediator) new TemplateMediatorFactory().createMediator(element,
+                    new Properties());
+            template.init(environment);
+            configuration.addSequenceTemplate(template.getName(), template);
+        } catch (XMLStreamException e) {
+            throw new IOException("The template " + resource + " cannot be parsed", e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Creates an invoke of the named template with the given parameter names and values.
+     */
+    private static InvokeMediator invoke(String template, String... parameters) {
+        InvokeMediator invoke = new InvokeMediator();
+        invoke.setTargetTemplate(template);
+        for (int i = 0; i < parameters.length; i += 2) {
+            invoke.addExpressionForParamName(parameters[i], new Value(parameters[i + 1]));
+        }
+        return invoke;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.benchmark;
+
+import org.apache.synapse.MessageContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.carbon.connector.dropbox.DropboxConstants;
+import org.wso2.carbon.connector.dropbox.DropboxInvoker;
+import org.wso2.carbon.connector.dropbox.FileUploader;
+import org.wso2.carbon.connector.dropbox.StreamingDownloader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures uploads and downloads of small and large payloads against the {@link DropboxStub}, through the message
+ * body in blocking mode and through local files with the connector managed transfers.
+ * <p>
+ * The file transfers are run with one and with several concurrent chunks or parts, see {@link Parallelism}. The
+ * payload rate is the payload
+ * size times the reported operations per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class TransferBenchmark {
+
+    private static final int CHUNK_SIZE = 8 * 1024 * 1024;
+
+    @Param({"4096", "67108864"})
+    public int payloadSize;
+
+    private DropboxStub stub;
+
+    private byte[] payload;
+
+    private Path directory;
+
+    private Path source;
+
+    private DropboxInvoker uploadInvoker;
+
+    private DropboxInvoker downloadInvoker;
+
+    private FileUploader fileUploader;
+
+    private StreamingDownloader fileDownloader;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        stub = new DropboxStub(0, 32);
+        stub.start();
+        payload = new byte[payloadSize];
+        new Random(payloadSize).nextBytes(payload);
+        directory = Files.createTempDirectory("dropbox-benchmark");
+        source = Files.write(directory.resolve("source.bin"), payload);
+
+        uploadInvoker = new DropboxInvoker();
+        uploadInvoker.setOperation("uploadFile");
+        uploadInvoker.setEndpoint("{+uri.var.apiUrl}/files/upload");
+        downloadInvoker = new DropboxInvoker();
+        downloadInvoker.setOperation("download");
+        downloadInvoker.setEndpoint("{+uri.var.apiUrl}/files/download");
+        fileUploader = new FileUploader();
+        fileDownloader = new StreamingDownloader();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        stub.stop();
+        Files.deleteIfExists(directory.resolve("target.bin"));
+        Files.deleteIfExists(source);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public MessageContext uploadPayload() throws Exception {
+        MessageContext messageContext = Messages.create(stub.getApiUrl());
+        messageContext.setProperty(DropboxConstants.PATH, "/benchmark/payload.bin");
+        messageContext.setProperty(DropboxConstants.MODE, "overwrite");
+        Messages.setBinaryPayload(messageContext, payload);
+        uploadInvoker.connect(messageContext);
+        Messages.checkStatus(messageContext);
+        return messageContext;
+    }
+
+    @Benchmark
+    public MessageContext uploadFile(Parallelism parallelism) throws Exception {
+        MessageContext messageContext = Messages.create(stub.getApiUrl());
+        messageContext.setProperty(DropboxConstants.PATH, "/benchmark/file.bin");
+        messageContext.setProperty(DropboxConstants.MODE, "overwrite");
+        messageContext.setProperty(DropboxConstants.SOURCE_PATH, source.toString());
+        messageContext.setProperty(DropboxConstants.CHUNK_SIZE, String.valueOf(CHUNK_SIZE));
+        messageContext.setProperty(DropboxConstants.PARALLELISM, String.valueOf(parallelism.value));
+        fileUploader.connect(messageContext);
+        Messages.checkStatus(messageContext);
+        return messageContext;
+    }
+
+    @Benchmark
+    public long downloadPayload() throws Exception {
+        MessageContext messageContext = Messages.create(stub.getApiUrl());
+        messageContext.setProperty(DropboxConstants.PATH, "/bytes/" + payloadSize);
+        downloadInvoker.connect(messageContext);
+        Messages.checkStatus(messageContext);
+        return Messages.drainBinaryPayload(messageContext);
+    }
+
+    @Benchmark
+    public MessageContext downloadFile(Parallelism parallelism) throws Exception {
+        MessageContext messageContext = Messages.create(stub.getApiUrl());
+        messageContext.setProperty(DropboxConstants.PATH, "/bytes/" + payloadSize);
+        messageContext.setProperty(DropboxConstants.DESTINATION_PATH, directory.resolve("target.bin").toString());
+        messageContext.setProperty(DropboxConstants.PARALLELISM, String.valueOf(parallelism.value));
+        messageContext.setProperty(DropboxConstants.PART_SIZE, String.valueOf(CHUNK_SIZE));
+        fileDownloader.connect(messageContext);
+        Messages.checkStatus(messageContext);
+        return messageContext;
+    }
+
+    /**
+     * The number of concurrent chunks or parts of the file transfers.
+     */
+    @State(Scope.Benchmark)
+    public static class Parallelism {
+
+        @Param({"1", "4"})
+        public int value;
+    }
+}
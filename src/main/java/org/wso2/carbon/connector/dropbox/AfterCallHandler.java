@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox;
+
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.commons.json.JsonUtil;
+import org.apache.synapse.core.axis2.Axis2MessageContext;
+import org.apache.synapse.transport.passthru.util.RelayUtils;
+import org.wso2.carbon.connector.core.AbstractConnector;
+import org.wso2.carbon.connector.core.ConnectException;
+import org.wso2.carbon.connector.dropbox.client.DropboxApiException;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+import org.wso2.carbon.connector.dropbox.client.RequestStatistics;
+import org.wso2.carbon.connector.dropbox.metrics.CallSample;
+import org.wso2.carbon.connector.dropbox.metrics.ConnectorMetrics;
+import org.wso2.carbon.connector.dropbox.util.DropboxUtils;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs right after the call of an operation template, either from the template or from {@link DropboxInvoker} in
+ * blocking mode.
+ * <p>
+ * The call is recorded in the {@link ConnectorMetrics} of the operation together with the server response time and
+ * request id reported by Dropbox, and the request id is kept in the dropbox.requestId property for logging. An
+ * endpoint specific error (HTTP 409) is recorded under its error tag, e.g. path/not_found, and logged at debug level
+ * only, as it is an expected outcome of many operations rather than a failure of the connector. When
+ * Dropbox rate limits the request and asks for a Retry-After delay, the other requests of the account are paused for
+ * that long, so that concurrent flows back off together instead of running into the limit again. When Dropbox rejects
+ * an access token obtained with a refresh token, the token is dropped from the token cache so that the next message
+ * refreshes it.
+ * <p>
+ * The Dropbox specific response headers are then removed, so that they are not passed on to the client.
+ */
+public class AfterCallHandler extends AbstractConnector {
+
+    public static final String REQUEST_ID_PROPERTY = "dropbox.requestId";
+
+    private static final String RETRY_AFTER_HEADER = "Retry-After";
+
+    private static final String REQUEST_ID_HEADER = "x-dropbox-request-id";
+
+    private static final String SERVER_RESPONSE_TIME_HEADER = "x-server-response-time";
+
+    private static final String CONTENT_TYPE_HEADER = "Content-Type";
+
+    private static final String[] RESPONSE_HEADERS = {SERVER_RESPONSE_TIME_HEADER, "x-frame-options",
+            "x-dropbox-http-protocol", REQUEST_ID_HEADER, "set-cookie", "x-content-type-options", "cache-control",
+            "pragma"};
+
+    @Override
+    public void connect(MessageContext messageContext) throws ConnectException {
+        org.apache.axis2.context.MessageContext axis2MessageContext =
+                ((Axis2MessageContext) messageContext).getAxis2MessageContext();
+        int statusCode = toInt(axis2MessageContext.getProperty(DropboxConstants.HTTP_SC), 0);
+        Map<String, Object> headers = DropboxUtils.getTransportHeaders(messageContext);
+        Object requestId = headers.get(REQUEST_ID_HEADER);
+        if (requestId != null) {
+            messageContext.setProperty(REQUEST_ID_PROPERTY, requestId.toString());
+        }
+        recordCall(messageContext, axis2MessageContext, statusCode, headers, requestId);
+        if (statusCode != 0 && statusCode / 100 != 2) {
+            handleFailure(messageContext, statusCode, headers);
+        }
+        for (String name : RESPONSE_HEADERS) {
+            headers.remove(name);
+        }
+    }
+
+    private void handleFailure(MessageContext messageContext, int statusCode, Map<String, Object> headers)
+            throws ConnectException {
+        RequestStatistics.getInstance().failedResponse(statusCode);
+        if (statusCode == 401) {
+            TokenRefreshHandler.invalidate(messageContext);
+        }
+        Object retryAfter = headers.get(RETRY_AFTER_HEADER);
+        String account = DropboxUtils.getAccount(messageContext);
+        if (retryAfter == null || account == null || (statusCode != 429 && statusCode != 503)) {
+            return;
+        }
+        long seconds = toInt(retryAfter, -1);
+        if (seconds >= 0) {
+            DropboxClient.getRateLimiter(messageContext, account).pause(seconds * 1000);
+            log.warn("Dropbox rate limited the account, pausing its requests for " + seconds + " s");
+        }
+    }
+
+    private void recordCall(MessageContext messageContext, org.apache.axis2.context.MessageContext axis2MessageContext,
+                            int statusCode, Map<String, Object> headers, Object requestId) {
+        Object operation = messageContext.getProperty(DropboxInvoker.OPERATION_PROPERTY);
+        Object start = messageContext.getProperty(DropboxInvoker.CALL_START_PROPERTY);
+        if (operation == null || !(start instanceof Long)) {
+            return;
+        }
+        long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - (Long) start);
+        Object bytesSent = messageContext.getProperty(DropboxInvoker.BYTES_SENT_PROPERTY);
+        String errorTag = statusCode == 409 ? getErrorTag(axis2MessageContext, headers) : null;
+        CallSample sample = new CallSample(operation.toString(), statusCode, errorTag, latency,
+                toInt(headers.get(SERVER_RESPONSE_TIME_HEADER), -1),
+                bytesSent instanceof Long ? (Long) bytesSent : -1, toInt(headers.get("Content-Length"), -1),
+                requestId == null ? null : requestId.toString());
+        ConnectorMetrics.record(sample);
+        if (!sample.isSuccess()) {
+            String message = "Dropbox " + sample.getOperation() + " call failed with HTTP " + statusCode + " ("
+                    + sample.getErrorTag() + "), request id " + requestId;
+            if (statusCode != 409) {
+                log.warn(message);
+            } else if (log.isDebugEnabled()) {
+                log.debug(message);
+            }
+        }
+    }
+
+    /**
+     * Reads the tag of an endpoint specific error, e.g. path/not_found. The response of a call mediator has not been
+     * built yet, so a JSON error response, which is small, is built here. It is passed on to the client unchanged.
+     */
+    private String getErrorTag(org.apache.axis2.context.MessageContext axis2MessageContext,
+                               Map<String, Object> headers) {
+        if (!JsonUtil.hasAJsonPayload(axis2MessageContext)) {
+            Object contentType = headers.get(CONTENT_TYPE_HEADER);
+            if (contentType == null
+                    || !contentType.toString().toLowerCase(Locale.ROOT).startsWith("application/json")) {
+                return null;
+            }
+            try {
+                RelayUtils.buildMessage(axis2MessageContext);
+            } catch (Exception e) {
+                // A malformed body is passed on as is.
+                log.debug("Could not read the Dropbox error response: " + e.getMessage());
+                return null;
+            }
+            if (!JsonUtil.hasAJsonPayload(axis2MessageContext)) {
+                return null;
+            }
+        }
+        return DropboxApiException.getErrorTagPath(JsonUtil.jsonPayloadToString(axis2MessageContext));
+    }
+
+    private static int toInt(Object value, int defaultValue) {
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.toString().trim());
+            } catch (NumberFormatException ignored) {
+                // Falls back to the default.
+            }
+        }
+        return defaultValue;
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox;
+
+import org.apache.synapse.MessageContext;
+import org.wso2.carbon.connector.core.ConnectException;
+import org.wso2.carbon.connector.dropbox.util.DropboxUtils;
+import org.wso2.carbon.connector.dropbox.util.JsonWriter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Argument documents of the Dropbox API operations, built from the uri.var.* properties set by the templates.
+ * <p>
+ * Content endpoints receive their argument in the Dropbox-API-Arg header while RPC endpoints receive it as the JSON
+ * request body.
+ */
+public enum ApiArgument {
+
+    UPLOAD_FILE("uploadFile", Target.HEADER) {
+        @Override
+        void write(JsonWriter writer, MessageContext messageContext) throws ConnectException {
+            writer.beginObject();
+            writeCommitInfo(writer, messageContext);
+            writer.endObject();
+        }
+    },
+
+    START_UPLOAD_SESSION("startUploadSession", Target.OPTIONAL_HEADER) {
+        @Override
+        void write(JsonWriter writer, MessageContext messageContext) throws ConnectException {
+            writer.beginObject();
+            writeBoolean(writer, "close", messageContext, DropboxConstants.CLOSE);
+            writer.endObject();
+        }
+    },
+
+    APPEND_TO_UPLOAD_SESSION("appendToUploadSession", Target.HEADER) {
+        @Override
+        void write(JsonWriter writer, MessageContext messageContext) throws ConnectException {
+            writer.beginObject();
+            writeCursor(writer, messageContext);
+            writeBoolean(writer, "close", messageContext, DropboxConstants.CLOSE);
+            writer.endObject();
+        }
+    },
+
+    FINISH_UPLOAD_SESSION("finishUploadSession", Target.HEADER) {
+        @Override
+        void write(JsonWriter writer, MessageContext messageContext) throws ConnectException {
+            writer.beginObject();
+            writeCursor(writer, messageContext);
+            writer.name("commit").beginObject();
+            writeCommitInfo(writer, messageContext);
+            writer.endObject();
+            writer.endObject();
+        }
+    },
+
+    DOWNLOAD("download", Target.HEADER) {
+        @Override
+        void write(JsonWriter writer, MessageContext messageContext) {
+            writer.beginObject();
+            writeRequired(writer, "path", messageContext, DropboxConstants.PATH);
+            writer.endObject();
+        }
+    },
+
+    COPY("copy", Target.PAYLOAD) {
+        @Override
+        void write(JsonWriter writer, MessageContext messageContext) {
+            writeRelocation(writer, messageContext);
+        }
+    },
+
+    MOVE("move", Target.PAYLOAD) {
+        @Override
+        void write(JsonWriter writer, MessageContext messageContext) {
+            writeRelocation(writer, messageContext);
+        }
+    },
+
+    CREATE_FOLDER("createFolder", Target.PAYLOAD) {
+        @Override
+        void write(JsonWriter writer, MessageContext messageContext) {
+            writer.beginObject();
+            writeRequired(writer, "path", messageContext, DropboxConstants.PATH);
+            writeBoolean(writer, "autorename", messageContext, DropboxConstants.AUTO_RENAME);
+            writer.endObject();
+        }
+    },
+
+    DELETE("delete", Target.PAYLOAD) {
+        @Override
+        void write(JsonWriter writer, MessageContext messageContext) {
+            writePathOnly(writer, messageContext);
+        }
+    },
+
+    RESTORE_FILE("restoreFile", Target.PAYLOAD) {
+        @Override
+        void write(JsonWriter writer, MessageContext messageContext) {
+            writer.beginObject();
+            writeRequired(writer, "path", messageContext, DropboxConstants.PATH);
+            writeRequired(writer, "rev", messageContext, DropboxConstants.REV);
+            writer.endObject();
+        }
+    },
+
+    GET_TEMPORARY_LINK("getTemporaryLink", Target.PAYLOAD) {
+        @Override
+        void write(JsonWriter writer, MessageContext messageContext) {
+            writePathOnly(writer, messageContext);
+        }
+    },
+
+    CREATE_SHARED_LINK_WITH_SETTINGS("createSharedLinkWithSettings", Target.PAYLOAD) {
+        @Override
+        void write(JsonWriter writer, MessageContext messageContext) {
+            writer.beginObject();
+            writeRequired(writer, "path", messageContext, DropboxConstants.PATH);
+            writer.name("settings").beginObject();
+            writeString(writer, "requested_visibility", messageContext, DropboxConstants.REQUESTED_VISIBILITY);
+            writeString(writer, "link_password", messageContext, DropboxConstants.LINK_PASSWORD);
+            writeString(writer, "expires", messageContext, DropboxConstants.EXPIRES);
+            writer.endObject();
+            writer.endObject();
+        }
+    },
+
+    GET_METADATA("getMetadata", Target.PAYLOAD) {
+        @Override
+        void write(JsonWriter writer, MessageContext messageContext) {
+            writer.beginObject();
+            writeRequired(writer, "path", messageContext, DropboxConstants.PATH);
+            writeBoolean(writer, "include_deleted", messageContext, DropboxConstants.INCLUDE_DELETED);
+            writeBoolean(writer, "include_media_info", messageContext, DropboxConstants.INCLUDE_MEDIA_INFO);
+            writeBoolean(writer, "include_has_explicit_shared_members", messageContext,
+                    DropboxConstants.INCLUDE_HAS_EXPLICIT_SHARED_MEMBERS);
+            writer.endObject();
+        }
+    },
+
+    LIST_REVISIONS("listRevisions", Target.PAYLOAD) {
+        @Override
+        void write(JsonWriter writer, MessageContext messageContext) throws ConnectException {
+            writer.beginObject();
+            writeRequired(writer, "path", messageContext, DropboxConstants.PATH);
+            writeNumber(writer, "limit", messageContext, DropboxConstants.LIMIT);
+            writer.endObject();
+        }
+    },
+
+    LIST_FOLDER("listFolder", Target.PAYLOAD) {
+        @Override
+        void write(JsonWriter writer, MessageContext messageContext) throws ConnectException {
+            writeFolderListing(writer, messageContext);
+        }
+    },
+
+    GET_LATEST_CURSOR("getLatestCursor", Target.PAYLOAD) {
+        @Override
+        void write(JsonWriter writer, MessageContext messageContext) throws ConnectException {
+            writeFolderListing(writer, messageContext);
+        }
+    },
+
+    LIST_FOLDER_CONTINUE("listFolderContinue", Target.PAYLOAD) {
+        @Override
+        void write(JsonWriter writer, MessageContext messageContext) {
+            writer.beginObject();
+            writeRequired(writer, "cursor", messageContext, DropboxConstants.CURSOR);
+            writer.endObject();
+        }
+    },
+
+    LIST_FOLDER_LONGPOLL("listFolderLongpoll", Target.PAYLOAD) {
+        @Override
+        void write(JsonWriter writer, MessageContext messageContext) throws ConnectException {
+            writer.beginObject();
+            writeRequired(writer, "cursor", messageContext, DropboxConstants.CURSOR);
+            writeNumber(writer, "timeout", messageContext, DropboxConstants.TIMEOUT);
+            writer.endObject();
+        }
+    },
+
+    SEARCH("search", Target.PAYLOAD) {
+        @Override
+        void write(JsonWriter writer, MessageContext messageContext) throws ConnectException {
+            writer.beginObject();
+            writeRequired(writer, "query", messageContext, DropboxConstants.QUERY);
+            writeString(writer, "path", messageContext, DropboxConstants.PATH);
+            writeNumber(writer, "start", messageContext, DropboxConstants.START);
+            writeNumber(writer, "max_results", messageContext, DropboxConstants.MAX_RESULTS);
+            writeString(writer, "mode", messageContext, DropboxConstants.MODE);
+            writer.endObject();
+        }
+    },
+
+    SEARCH_V2("searchV2", Target.PAYLOAD) {
+        @Override
+        void write(JsonWriter writer, MessageContext messageContext) throws ConnectException {
+            writer.beginObject();
+            writeRequired(writer, "query", messageContext, DropboxConstants.QUERY);
+            writer.name("options").beginObject();
+            writeString(writer, "path", messageContext, DropboxConstants.PATH);
+            writeNumber(writer, "max_results", messageContext, DropboxConstants.MAX_RESULTS);
+            writeString(writer, "order_by", messageContext, DropboxConstants.ORDER_BY);
+            writeString(writer, "file_status", messageContext, DropboxConstants.FILE_STATUS);
+            writeBoolean(writer, "filename_only", messageContext, DropboxConstants.FILENAME_ONLY);
+            writeList(writer, "file_extensions", messageContext, DropboxConstants.FILE_EXTENSIONS);
+            writeList(writer, "file_categories", messageContext, DropboxConstants.FILE_CATEGORIES);
+            writer.endObject();
+            String includeHighlights = DropboxUtils.getTrimmedText(messageContext, DropboxConstants.INCLUDE_HIGHLIGHTS);
+            if (includeHighlights != null) {
+                writer.name("match_field_options").beginObject()
+                        .name("include_highlights").value(Boolean.parseBoolean(includeHighlights))
+                        .endObject();
+            }
+            writer.endObject();
+        }
+    },
+
+    SEARCH_CONTINUE_V2("searchContinueV2", Target.PAYLOAD) {
+        @Override
+        void write(JsonWriter writer, MessageContext messageContext) {
+            writer.beginObject();
+            writeRequired(writer, "cursor", messageContext, DropboxConstants.CURSOR);
+            writer.endObject();
+        }
+    },
+
+    SAVE_URL("saveUrl", Target.PAYLOAD) {
+        @Override
+        void write(JsonWriter writer, MessageContext messageContext) {
+            writer.beginObject();
+            writeRequired(writer, "path", messageContext, DropboxConstants.PATH);
+            writeRequired(writer, "url", messageContext, DropboxConstants.URL);
+            writer.endObject();
+        }
+    };
+
+    /**
+     * Where the argument document is placed on the outgoing request.
+     */
+    public enum Target {
+        /** The Dropbox-API-Arg header. */
+        HEADER,
+        /** The Dropbox-API-Arg header, omitted when the argument has no members. */
+        OPTIONAL_HEADER,
+        /** The JSON request body. */
+        PAYLOAD
+    }
+
+    private static final Map<String, ApiArgument> BY_OPERATION = new HashMap<String, ApiArgument>();
+
+    static {
+        for (ApiArgument argument : values()) {
+            BY_OPERATION.put(argument.operation, argument);
+        }
+    }
+
+    private final String operation;
+
+    private final Target target;
+
+    ApiArgument(String operation, Target target) {
+        this.operation = operation;
+        this.target = target;
+    }
+
+    /**
+     * Looks up the argument of a connector operation.
+     *
+     * @param operation the operation name as used in the template names, e.g. uploadFile.
+     * @return the argument definition.
+     * @throws IllegalArgumentException if the operation is unknown.
+     */
+    public static ApiArgument forOperation(String operation) {
+        ApiArgument argument = BY_OPERATION.get(operation);
+        if (argument == null) {
+            throw new IllegalArgumentException("Unknown Dropbox operation: " + operation);
+        }
+        return argument;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public Target getTarget() {
+        return target;
+    }
+
+    /**
+     * Writes the argument document of this operation.
+     *
+     * @param writer         the writer to write to.
+     * @param messageContext the message context holding the operation parameters.
+     * @throws ConnectException if a parameter value is invalid.
+     */
+    abstract void write(JsonWriter writer, MessageContext messageContext) throws ConnectException;
+
+    private static void writeFolderListing(JsonWriter writer, MessageContext messageContext)
+            throws ConnectException {
+        writer.beginObject();
+        // The root folder is listed with an empty path.
+        String path = DropboxUtils.getText(messageContext, DropboxConstants.PATH);
+        writer.name("path").value(path == null ? "" : path);
+        writeBoolean(writer, "recursive", messageContext, DropboxConstants.RECURSIVE);
+        writeBoolean(writer, "include_media_info", messageContext, DropboxConstants.INCLUDE_MEDIA_INFO);
+        writeBoolean(writer, "include_deleted", messageContext, DropboxConstants.INCLUDE_DELETED);
+        writeBoolean(writer, "include_has_explicit_shared_members", messageContext,
+                DropboxConstants.INCLUDE_HAS_EXPLICIT_SHARED_MEMBERS);
+        writeBoolean(writer, "include_mounted_folders", messageContext, DropboxConstants.INCLUDE_MOUNTED_FOLDERS);
+        writeNumber(writer, "limit", messageContext, DropboxConstants.LIMIT);
+        writer.endObject();
+    }
+
+    private static void writePathOnly(JsonWriter writer, MessageContext messageContext) {
+        writer.beginObject();
+        writeRequired(writer, "path", messageContext, DropboxConstants.PATH);
+        writer.endObject();
+    }
+
+    private static void writeRelocation(JsonWriter writer, MessageContext messageContext) {
+        writer.beginObject();
+        writeRequired(writer, "to_path", messageContext, DropboxConstants.TO_PATH);
+        writeRequired(writer, "from_path", messageContext, DropboxConstants.FROM_PATH);
+        writeBoolean(writer, "allow_shared_folder", messageContext, DropboxConstants.ALLOW_SHARED_FOLDER);
+        writeBoolean(writer, "autorename", messageContext, DropboxConstants.AUTO_RENAME);
+        writer.endObject();
+    }
+
+    private static void writeCursor(JsonWriter writer, MessageContext messageContext) throws ConnectException {
+        writer.name("cursor").beginObject();
+        writeRequired(writer, "session_id", messageContext, DropboxConstants.SESSION_ID);
+        writeNumber(writer, "offset", messageContext, DropboxConstants.OFFSET);
+        writer.endObject();
+    }
+
+    private static void writeCommitInfo(JsonWriter writer, MessageContext messageContext) {
+        writeRequired(writer, "path", messageContext, DropboxConstants.PATH);
+        writeString(writer, "mode", messageContext, DropboxConstants.MODE);
+        writeBoolean(writer, "autorename", messageContext, DropboxConstants.AUTO_RENAME);
+        writeString(writer, "client_modified", messageContext, DropboxConstants.CLIENT_MODIFIED);
+        writeBoolean(writer, "mute", messageContext, DropboxConstants.MUTE);
+    }
+
+    /**
+     * Writes a member that is always sent. A missing value is written as null and left to Dropbox to reject.
+     */
+    static void writeRequired(JsonWriter writer, String name, MessageContext messageContext, String property) {
+        writer.name(name).value(DropboxUtils.getText(messageContext, property));
+    }
+
+    static void writeString(JsonWriter writer, String name, MessageContext messageContext, String property) {
+        String value = DropboxUtils.getText(messageContext, property);
+        if (value != null) {
+            writer.name(name).value(value);
+        }
+    }
+
+    /**
+     * Writes a comma separated parameter as an array of strings.
+     */
+    static void writeList(JsonWriter writer, String name, MessageContext messageContext, String property) {
+        String value = DropboxUtils.getTrimmedText(messageContext, property);
+        if (value != null) {
+            writer.name(name).beginArray();
+            for (String item : value.split(",")) {
+                if (!item.trim().isEmpty()) {
+                    writer.value(item.trim());
+                }
+            }
+            writer.endArray();
+        }
+    }
+
+    static void writeBoolean(JsonWriter writer, String name, MessageContext messageContext, String property) {
+        String value = DropboxUtils.getTrimmedText(messageContext, property);
+        if (value != null) {
+            writer.name(name).value(Boolean.parseBoolean(value));
+        }
+    }
+
+    static void writeNumber(JsonWriter writer, String name, MessageContext messageContext, String property)
+            throws ConnectException {
+        String value = DropboxUtils.getTrimmedText(messageContext, property);
+        if (value != null) {
+            long number;
+            try {
+                number = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new ConnectException(e, "Invalid value '" + value + "' for the Dropbox argument " + name);
+            }
+            writer.name(name).value(number);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.FaultHandler;
+import org.apache.synapse.Mediator;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.mediators.base.SequenceMediator;
+import org.wso2.carbon.connector.core.ConnectException;
+import org.wso2.carbon.connector.dropbox.util.DropboxUtils;
+
+import java.util.Stack;
+
+/**
+ * Resumes a message in the sequence named by the continuationSequence parameter once the asynchronous Dropbox work of
+ * an operation has finished, the way the call mediator resumes a message once the response arrives.
+ * <p>
+ * The operation stops the mediation of the message after starting the work, so that no mediation thread is held while
+ * Dropbox works. When the outcome is known before the operation returns, the continuation sequence runs on the
+ * mediation thread; otherwise the message is injected into it asynchronously. Failures are handed to the fault
+ * handler of the message.
+ */
+final class AsyncContinuation {
+
+    private static final Log log = LogFactory.getLog(AsyncContinuation.class);
+
+    private final MessageContext messageContext;
+
+    private final SequenceMediator sequence;
+
+    private final Thread mediationThread = Thread.currentThread();
+
+    private AsyncContinuation(MessageContext messageContext, SequenceMediator sequence) {
+        this.messageContext = messageContext;
+        this.sequence = sequence;
+    }
+
+    /**
+     * @param messageContext the message context.
+     * @return whether the operation should run asynchronously, i.e. the continuationSequence parameter is set.
+     */
+    static boolean isRequested(MessageContext messageContext) {
+        return DropboxUtils.getTrimmedText(messageContext, DropboxConstants.CONTINUATION_SEQUENCE) != null;
+    }
+
+    /**
+     * @param messageContext the message context.
+     * @return the continuation of the message, or null when the continuationSequence parameter is not set.
+     * @throws ConnectException if the sequence is not defined.
+     */
+    static AsyncContinuation forMessage(MessageContext messageContext) throws ConnectException {
+        String sequenceName = DropboxUtils.getTrimmedText(messageContext, DropboxConstants.CONTINUATION_SEQUENCE);
+        if (sequenceName == null) {
+            return null;
+        }
+        Mediator sequence = messageContext.getSequence(sequenceName);
+        if (!(sequence instanceof SequenceMediator)) {
+            throw new ConnectException("The continuation sequence '" + sequenceName + "' is not defined");
+        }
+        return new AsyncContinuation(messageContext, (SequenceMediator) sequence);
+    }
+
+    /**
+     * Continues the message with a JSON response.
+     *
+     * @param json       the JSON document.
+     * @param statusCode the HTTP status code to respond with.
+     */
+    void resume(String json, int statusCode) {
+        try {
+            DropboxUtils.setJsonResponse(messageContext, json, statusCode);
+        } catch (ConnectException e) {
+            fail(e);
+            return;
+        }
+        if (Thread.currentThread() == mediationThread) {
+            sequence.mediate(messageContext);
+        } else {
+            messageContext.getEnvironment().injectAsync(messageContext, sequence);
+        }
+    }
+
+    /**
+     * Continues the message in its fault handler.
+     *
+     * @param e the error of the operation.
+     */
+    void fail(Exception e) {
+        Stack<FaultHandler> faultStack = messageContext.getFaultStack();
+        if (faultStack.isEmpty()) {
+            log.error("No fault handler for the failed Dropbox operation of message " + messageContext.getMessageID(),
+                    e);
+            return;
+        }
+        faultStack.pop().handleFault(messageContext, e);
+    }
+}
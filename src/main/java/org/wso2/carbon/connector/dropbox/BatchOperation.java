@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox;
+
+import org.apache.synapse.MessageContext;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.wso2.carbon.connector.core.AbstractConnector;
+import org.wso2.carbon.connector.core.ConnectException;
+import org.wso2.carbon.connector.dropbox.batch.AsyncJobManager;
+import org.wso2.carbon.connector.dropbox.batch.AsyncJobPoller;
+import org.wso2.carbon.connector.dropbox.batch.BatchRunner;
+import org.wso2.carbon.connector.dropbox.batch.BatchType;
+import org.wso2.carbon.connector.dropbox.client.DropboxApiException;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+import org.wso2.carbon.connector.dropbox.util.DropboxUtils;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Runs one of the copyBatch, moveBatch, deleteBatch and createFolderBatch operations over the JSON array given in the
+ * entries parameter, waiting for the asynchronous Dropbox jobs to finish. The response lists the result of every
+ * entry in input order.
+ * <p>
+ * When the continuationSequence parameter is set, the jobs are tracked by the {@link AsyncJobManager} instead of
+ * being waited for: the mediation of the message stops here and resumes in the continuation sequence with the result.
+ */
+public class BatchOperation extends AbstractConnector {
+
+    private static final int DEFAULT_TIMEOUT_SECONDS = 300;
+
+    private static final Map<String, String> OPTION_PROPERTIES = new LinkedHashMap<String, String>();
+
+    static {
+        OPTION_PROPERTIES.put("autorename", DropboxConstants.AUTO_RENAME);
+        OPTION_PROPERTIES.put("allow_ownership_transfer", DropboxConstants.ALLOW_OWNERSHIP_TRANSFER);
+    }
+
+    private BatchType type;
+
+    public void setOperation(String operation) {
+        this.type = BatchType.forOperation(operation);
+    }
+
+    public String getOperation() {
+        return type == null ? null : type.getOperation();
+    }
+
+    @Override
+    public boolean mediate(MessageContext messageContext) {
+        boolean async = AsyncContinuation.isRequested(messageContext);
+        return super.mediate(messageContext) && !async;
+    }
+
+    @Override
+    public void connect(MessageContext messageContext) throws ConnectException {
+        if (type == null) {
+            throw new ConnectException("The operation property is not set on " + getClass().getName());
+        }
+        DropboxClient client = DropboxClient.forMessage(messageContext);
+        String entries = DropboxUtils.getText(messageContext, DropboxConstants.ENTRIES);
+        if (entries == null) {
+            throw new ConnectException("The entries parameter is required for " + type.getOperation());
+        }
+        Map<String, Boolean> options = new LinkedHashMap<String, Boolean>();
+        for (String option : type.getOptions()) {
+            String value = DropboxUtils.getTrimmedText(messageContext, OPTION_PROPERTIES.get(option));
+            if (value != null) {
+                options.put(option, Boolean.parseBoolean(value));
+            }
+        }
+        long timeout = DropboxUtils.getInt(messageContext, DropboxConstants.TIMEOUT, DEFAULT_TIMEOUT_SECONDS) * 1000L;
+        AsyncContinuation continuation = AsyncContinuation.forMessage(messageContext);
+        if (continuation != null) {
+            start(client, entries, options, timeout, continuation);
+            return;
+        }
+        AsyncJobPoller poller = new AsyncJobPoller(client, AsyncJobPoller.DEFAULT_INITIAL_INTERVAL,
+                AsyncJobPoller.DEFAULT_MAX_INTERVAL, timeout);
+        try {
+            String result = new BatchRunner(client, type, poller).run(new JSONArray(entries), options);
+            DropboxUtils.setJsonResponse(messageContext, result, 200);
+        } catch (JSONException e) {
+            throw new ConnectException(e, "Invalid entries for " + type.getOperation() + ": " + e.getMessage());
+        } catch (DropboxApiException e) {
+            log.error("Error while running " + type.getOperation() + ": " + e.getMessage());
+            DropboxUtils.setJsonResponse(messageContext, e.getErrorDocument(), e.getStatusCode());
+        } catch (IOException e) {
+            throw new ConnectException(e, "Error while running " + type.getOperation());
+        }
+    }
+
+    private void start(DropboxClient client, String entries, Map<String, Boolean> options, long timeout,
+                       final AsyncContinuation continuation) throws ConnectException {
+        JSONArray entryArray;
+        try {
+            entryArray = new JSONArray(entries);
+        } catch (JSONException e) {
+            throw new ConnectException(e, "Invalid entries for " + type.getOperation() + ": " + e.getMessage());
+        }
+        new BatchRunner(client, type).start(entryArray, options, AsyncJobManager.getInstance(), timeout,
+                new BatchRunner.Callback() {
+                    @Override
+                    public void onComplete(String result) {
+                        continuation.resume(result, 200);
+                    }
+
+                    @Override
+                    public void onError(IOException e) {
+                        log.error("Error while running " + type.getOperation() + ": " + e.getMessage());
+                        continuation.fail(e);
+                    }
+                });
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox;
+
+import org.apache.synapse.MessageContext;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.wso2.carbon.connector.core.AbstractConnector;
+import org.wso2.carbon.connector.core.ConnectException;
+import org.wso2.carbon.connector.dropbox.batch.BulkMetadataReader;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+import org.wso2.carbon.connector.dropbox.util.DropboxUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the getMetadataBulk operation, reading the metadata of every path in the JSON array given in the paths
+ * parameter with a bounded number of concurrent calls. Elements of the array are paths, or objects with a path field
+ * such as the entries of a folder listing. The response lists the result of every path in input order.
+ */
+public class BulkMetadataOperation extends AbstractConnector {
+
+    private static final Map<String, String> OPTION_PROPERTIES = new LinkedHashMap<String, String>();
+
+    static {
+        OPTION_PROPERTIES.put("include_deleted", DropboxConstants.INCLUDE_DELETED);
+        OPTION_PROPERTIES.put("include_media_info", DropboxConstants.INCLUDE_MEDIA_INFO);
+        OPTION_PROPERTIES.put("include_has_explicit_shared_members",
+                DropboxConstants.INCLUDE_HAS_EXPLICIT_SHARED_MEMBERS);
+    }
+
+    @Override
+    public void connect(MessageContext messageContext) throws ConnectException {
+        DropboxClient client = DropboxClient.forMessage(messageContext);
+        String paths = DropboxUtils.getText(messageContext, DropboxConstants.PATHS);
+        if (paths == null) {
+            throw new ConnectException("The paths parameter is required for getMetadataBulk");
+        }
+        Map<String, Boolean> options = new LinkedHashMap<String, Boolean>();
+        for (Map.Entry<String, String> option : OPTION_PROPERTIES.entrySet()) {
+            String value = DropboxUtils.getTrimmedText(messageContext, option.getValue());
+            if (value != null) {
+                options.put(option.getKey(), Boolean.parseBoolean(value));
+            }
+        }
+        int parallelism = DropboxUtils.getInt(messageContext, DropboxConstants.PARALLELISM,
+                BulkMetadataReader.DEFAULT_PARALLELISM);
+        try {
+            String result = new BulkMetadataReader(client, parallelism).read(toPaths(new JSONArray(paths)), options);
+            DropboxUtils.setJsonResponse(messageContext, result, 200);
+        } catch (JSONException e) {
+            throw new ConnectException(e, "Invalid paths for getMetadataBulk: " + e.getMessage());
+        } catch (IOException e) {
+            throw new ConnectException(e, "Error while reading metadata for getMetadataBulk");
+        }
+    }
+
+    private static List<String> toPaths(JSONArray array) throws JSONException {
+        List<String> paths = new ArrayList<String>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            Object element = array.get(i);
+            paths.add(element instanceof JSONObject ? ((JSONObject) element).getString("path") : element.toString());
+        }
+        return paths;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox;
+
+import org.apache.synapse.MessageContext;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.wso2.carbon.connector.core.AbstractConnector;
+import org.wso2.carbon.connector.core.ConnectException;
+import org.wso2.carbon.connector.dropbox.cache.MetadataCache;
+import org.wso2.carbon.connector.dropbox.client.DropboxApiException;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+import org.wso2.carbon.connector.dropbox.util.DropboxUtils;
+import org.wso2.carbon.connector.dropbox.util.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Serves getMetadata from the in-process {@link MetadataCache}, calling /files/get_metadata only on a miss.
+ * <p>
+ * Entries live for cacheTtl seconds. When cacheSyncInterval is set, the changes of the account are also read from a
+ * list_folder cursor at most once per interval and the changed paths are dropped from the cache, so that a longer
+ * TTL can be used without serving stale metadata.
+ */
+public class CachedMetadataReader extends AbstractConnector {
+
+    private static final String GET_METADATA_ENDPOINT = "/files/get_metadata";
+
+    private static final int DEFAULT_TTL_SECONDS = 60;
+
+    @Override
+    public void connect(MessageContext messageContext) throws ConnectException {
+        DropboxClient client = DropboxClient.forMessage(messageContext);
+        JsonWriter writer = JsonWriter.reusable();
+        ApiArgument.GET_METADATA.write(writer, messageContext);
+        String argument = writer.toString();
+
+        MetadataCache cache = MetadataCache.getDefault();
+        String account = MetadataCache.accountKey(DropboxUtils.getAccount(messageContext));
+        String path = DropboxUtils.getText(messageContext, DropboxConstants.PATH);
+        int flags = MetadataCache.flags(isSet(messageContext, DropboxConstants.INCLUDE_DELETED),
+                isSet(messageContext, DropboxConstants.INCLUDE_MEDIA_INFO),
+                isSet(messageContext, DropboxConstants.INCLUDE_HAS_EXPLICIT_SHARED_MEMBERS));
+        long ttl = DropboxUtils.getInt(messageContext, DropboxConstants.CACHE_TTL, DEFAULT_TTL_SECONDS) * 1000L;
+        int syncInterval = DropboxUtils.getInt(messageContext, DropboxConstants.CACHE_SYNC_INTERVAL, -1);
+
+        boolean cacheable = true;
+        if (syncInterval >= 0) {
+            try {
+                cache.getChangeTracker(account).sync(client, syncInterval * 1000L);
+            } catch (IOException e) {
+                log.warn("Could not read the Dropbox changes for the metadata cache, bypassing the cache: "
+                        + e.getMessage());
+                cacheable = false;
+            }
+        }
+        if (cacheable) {
+            String metadata = cache.get(account, path, flags);
+            if (metadata != null) {
+                DropboxUtils.setJsonResponse(messageContext, metadata, 200);
+                return;
+            }
+        }
+        long generation = cache.getGeneration();
+        try {
+            String metadata = client.rpc(GET_METADATA_ENDPOINT, argument);
+            if (cacheable) {
+                cache.put(account, path, flags, getPathLower(metadata), metadata, ttl, generation);
+            }
+            DropboxUtils.setJsonResponse(messageContext, metadata, 200);
+        } catch (DropboxApiException e) {
+            DropboxUtils.setJsonResponse(messageContext, e.getErrorDocument(), e.getStatusCode());
+        } catch (IOException e) {
+            throw new ConnectException(e, "Error while reading the metadata of " + path);
+        }
+    }
+
+    private static boolean isSet(MessageContext messageContext, String name) {
+        return Boolean.parseBoolean(DropboxUtils.getTrimmedText(messageContext, name));
+    }
+
+    private static String getPathLower(String metadata) {
+        try {
+            return new JSONObject(metadata).optString("path_lower", null);
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+}
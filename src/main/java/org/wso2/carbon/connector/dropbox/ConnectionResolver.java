@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox;
+
+import org.apache.synapse.MessageContext;
+import org.wso2.carbon.connector.core.AbstractConnector;
+import org.wso2.carbon.connector.core.ConnectException;
+import org.wso2.carbon.connector.dropbox.client.DropboxConnection;
+import org.wso2.carbon.connector.dropbox.util.DropboxUtils;
+
+import java.io.IOException;
+
+/**
+ * Called by init when a connection name is given. Sets the API URL and version, access token and Authorization
+ * header of the message from the named {@link DropboxConnection}. The other init parameters are only compared to the
+ * settings of the connection, and are set as message properties only when the connection has to be created.
+ */
+public class ConnectionResolver extends AbstractConnector {
+
+    private static final String AUTHORIZATION_HEADER = "Authorization";
+
+    /**
+     * The init parameters a connection is created from, and the message properties they are read from.
+     */
+    private static final String[][] PARAMETERS = {
+            {"apiUrl", DropboxConstants.API_URL},
+            {"apiVersion", DropboxConstants.API_VERSION},
+            {"accessToken", DropboxConstants.ACCESS_TOKEN},
+            {"refreshToken", DropboxConstants.REFRESH_TOKEN},
+            {"appKey", DropboxConstants.APP_KEY},
+            {"appSecret", DropboxConstants.APP_SECRET},
+            {"tokenUrl", DropboxConstants.TOKEN_URL},
+            {"tokenRefreshMargin", DropboxConstants.TOKEN_REFRESH_MARGIN},
+            {"maxRetries", DropboxConstants.MAX_RETRIES},
+            {"rateLimit", DropboxConstants.RATE_LIMIT},
+            {"rateLimitBurst", DropboxConstants.RATE_LIMIT_BURST},
+            {"maxConnections", DropboxConstants.MAX_CONNECTIONS},
+            {"maxConnectionsPerHost", DropboxConstants.MAX_CONNECTIONS_PER_HOST},
+            {"connectTimeout", DropboxConstants.CONNECT_TIMEOUT},
+            {"socketTimeout", DropboxConstants.SOCKET_TIMEOUT}
+    };
+
+    @Override
+    public void connect(MessageContext messageContext) throws ConnectException {
+        String name = DropboxUtils.getTrimmedText(messageContext, DropboxConstants.CONNECTION_NAME);
+        Object[] values = new Object[PARAMETERS.length];
+        StringBuilder settings = new StringBuilder();
+        for (int i = 0; i < PARAMETERS.length; i++) {
+            values[i] = getParameter(messageContext, PARAMETERS[i][0]);
+            settings.append(values[i] == null ? "" : values[i].toString().trim()).append('\n');
+        }
+        DropboxConnection connection = DropboxConnection.get(name);
+        if (connection == null || !connection.hasSettings(settings.toString())) {
+            for (int i = 0; i < PARAMETERS.length; i++) {
+                if (values[i] != null) {
+                    messageContext.setProperty(PARAMETERS[i][1], values[i]);
+                }
+            }
+            connection = DropboxConnection.resolve(name, settings.toString(), messageContext);
+        }
+        String accessToken;
+        try {
+            accessToken = connection.getAccessToken();
+        } catch (IOException e) {
+            throw new ConnectException(e, "Could not obtain a Dropbox access token for the connection " + name + ": "
+                    + e.getMessage());
+        }
+        messageContext.setProperty(DropboxConstants.API_URL, connection.getApiUrl());
+        messageContext.setProperty(DropboxConstants.API_VERSION, connection.getApiVersion());
+        messageContext.setProperty(DropboxConstants.ACCESS_TOKEN, accessToken);
+        DropboxUtils.getTransportHeaders(messageContext).put(AUTHORIZATION_HEADER,
+                connection.getAuthorization(accessToken));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox;
+
+/**
+ * Constants shared by the Dropbox connector mediators.
+ */
+public final class DropboxConstants {
+
+    private DropboxConstants() {
+    }
+
+    // Message context properties populated by the connector templates.
+    public static final String API_URL = "uri.var.apiUrl";
+    public static final String API_VERSION = "uri.var.apiVersion";
+    public static final String ACCESS_TOKEN = "uri.var.accessToken";
+    public static final String PATH = "uri.var.path";
+    public static final String FROM_PATH = "uri.var.fromPath";
+    public static final String TO_PATH = "uri.var.toPath";
+    public static final String MODE = "uri.var.mode";
+    public static final String AUTO_RENAME = "uri.var.autoRename";
+    public static final String CLIENT_MODIFIED = "uri.var.clientModified";
+    public static final String MUTE = "uri.var.mute";
+    public static final String CLOSE = "uri.var.close";
+    public static final String SESSION_ID = "uri.var.sessionId";
+    public static final String OFFSET = "uri.var.offset";
+    public static final String QUERY = "uri.var.query";
+    public static final String START = "uri.var.start";
+    public static final String MAX_RESULTS = "uri.var.maxResults";
+    public static final String ORDER_BY = "uri.var.orderBy";
+    public static final String FILE_STATUS = "uri.var.fileStatus";
+    public static final String FILENAME_ONLY = "uri.var.filenameOnly";
+    public static final String FILE_EXTENSIONS = "uri.var.fileExtensions";
+    public static final String FILE_CATEGORIES = "uri.var.fileCategories";
+    public static final String INCLUDE_HIGHLIGHTS = "uri.var.includeHighlights";
+    public static final String FIELDS = "uri.var.fields";
+    public static final String LIMIT = "uri.var.limit";
+    public static final String REV = "uri.var.rev";
+    public static final String ALLOW_SHARED_FOLDER = "uri.var.allowSharedFolder";
+    public static final String INCLUDE_DELETED = "uri.var.includeDeleted";
+    public static final String INCLUDE_MEDIA_INFO = "uri.var.includeMediaInfo";
+    public static final String INCLUDE_HAS_EXPLICIT_SHARED_MEMBERS = "uri.var.includeHasExplicitSharedMembers";
+    public static final String REQUESTED_VISIBILITY = "uri.var.requestedVisibility";
+    public static final String LINK_PASSWORD = "uri.var.linkPassword";
+    public static final String EXPIRES = "uri.var.expires";
+
+    public static final String ENTRIES = "uri.var.entries";
+    public static final String PATHS = "uri.var.paths";
+    public static final String ALLOW_OWNERSHIP_TRANSFER = "uri.var.allowOwnershipTransfer";
+    public static final String TIMEOUT = "uri.var.timeout";
+    public static final String CONTINUATION_SEQUENCE = "uri.var.continuationSequence";
+    public static final String URL = "uri.var.url";
+    public static final String SOURCE_PATH = "uri.var.sourcePath";
+    public static final String DESTINATION_PATH = "uri.var.destinationPath";
+    public static final String CHUNK_SIZE = "uri.var.chunkSize";
+    public static final String PARALLELISM = "uri.var.parallelism";
+    public static final String PART_SIZE = "uri.var.partSize";
+    public static final String USE_TEMPORARY_LINK = "uri.var.useTemporaryLink";
+    public static final String SKIP_IF_UNCHANGED = "uri.var.skipIfUnchanged";
+    public static final String VERIFY_CONTENT_HASH = "uri.var.verifyContentHash";
+    public static final String UPLOAD_ID = "uri.var.uploadId";
+    public static final String SESSION_STORE = "uri.var.sessionStore";
+    public static final String SESSION_LOCATION = "uri.var.sessionLocation";
+    public static final String CACHE_TTL = "uri.var.cacheTtl";
+    public static final String CACHE_SYNC_INTERVAL = "uri.var.cacheSyncInterval";
+    public static final String RECURSIVE = "uri.var.recursive";
+    public static final String INCLUDE_MOUNTED_FOLDERS = "uri.var.includeMountedFolders";
+    public static final String CURSOR = "uri.var.cursor";
+    public static final String PAGE_SEQUENCE = "uri.var.pageSequence";
+    public static final String MAX_PAGES = "uri.var.maxPages";
+    public static final String NOTIFY_URL = "uri.var.notifyUrl";
+    public static final String SYNC_ID = "uri.var.syncId";
+    public static final String CURSOR_STORE = "uri.var.cursorStore";
+    public static final String CURSOR_LOCATION = "uri.var.cursorLocation";
+    public static final String INITIAL_LISTING = "uri.var.initialListing";
+    public static final String LONGPOLL_TIMEOUT = "uri.var.longpollTimeout";
+    public static final String MAX_RETRIES = "uri.var.maxRetries";
+    public static final String RATE_LIMIT = "uri.var.rateLimit";
+    public static final String RATE_LIMIT_BURST = "uri.var.rateLimitBurst";
+    public static final String MAX_CONNECTIONS = "uri.var.maxConnections";
+    public static final String MAX_CONNECTIONS_PER_HOST = "uri.var.maxConnectionsPerHost";
+    public static final String CONNECT_TIMEOUT = "uri.var.connectTimeout";
+    public static final String SOCKET_TIMEOUT = "uri.var.socketTimeout";
+    public static final String REFRESH_TOKEN = "uri.var.refreshToken";
+    public static final String APP_KEY = "uri.var.appKey";
+    public static final String APP_SECRET = "uri.var.appSecret";
+    public static final String TOKEN_URL = "uri.var.tokenUrl";
+    public static final String TOKEN_REFRESH_MARGIN = "uri.var.tokenRefreshMargin";
+    public static final String CONNECTION_NAME = "uri.var.connectionName";
+    public static final String BLOCKING = "dropboxBlocking";
+
+    // Axis2 message context properties.
+    public static final String HTTP_SC = "HTTP_SC";
+    public static final String NO_ENTITY_BODY = "NO_ENTITY_BODY";
+    public static final String FORCE_POST_PUT_NOBODY = "FORCE_POST_PUT_NOBODY";
+
+    // HTTP headers.
+    public static final String API_ARG_HEADER = "Dropbox-API-Arg";
+    public static final String API_RESULT_HEADER = "Dropbox-API-Result";
+}
@@ -0,0 +1,482 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox;
+
+import org.apache.axiom.om.OMElement;
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.Constants;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.commons.json.JsonUtil;
+import org.apache.synapse.core.axis2.Axis2MessageContext;
+import org.wso2.carbon.connector.core.AbstractConnector;
+import org.wso2.carbon.connector.core.ConnectException;
+import org.wso2.carbon.connector.dropbox.client.DropboxApiException;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+import org.wso2.carbon.connector.dropbox.client.DropboxHttpClient;
+import org.wso2.carbon.connector.dropbox.client.RateLimiter;
+import org.wso2.carbon.connector.dropbox.client.RequestStatistics;
+import org.wso2.carbon.connector.dropbox.client.RetryPolicy;
+import org.wso2.carbon.connector.dropbox.download.ResponseDataSource;
+import org.wso2.carbon.connector.dropbox.listing.FieldProjection;
+import org.wso2.carbon.connector.dropbox.util.DropboxUtils;
+import org.wso2.carbon.connector.dropbox.util.JsonWriter;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Prepares and, in blocking mode, makes the Dropbox call of an operation template in a single mediator.
+ * <pre>
+ * &lt;class name="org.wso2.carbon.connector.dropbox.DropboxInvoker"&gt;
+ *     &lt;property name="operation" value="uploadFile"/&gt;
+ *     &lt;property name="endpoint" value="{+uri.var.apiUrl}/files/upload"/&gt;
+ * &lt;/class&gt;
+ * &lt;filter xpath="get-property('dropboxBlocking') != 'true'"&gt;
+ *     &lt;call&gt;...&lt;/call&gt;
+ *     &lt;class name="org.wso2.carbon.connector.dropbox.AfterCallHandler"/&gt;
+ * &lt;/filter&gt;
+ * </pre>
+ * The argument of the operation is attached either as the JSON payload or as the Dropbox-API-Arg header, the message
+ * type is set for the endpoint style and the request waits for the rate limiter of its account. The start of the call
+ * is recorded for {@link AfterCallHandler}.
+ * <p>
+ * When the init operation sets blocking to true, the call is then made through the connector's pooled HTTP client,
+ * or the pool of the named connection when the message has one, rather than a blocking call mediator, which opens a
+ * new connection to Dropbox for every call, and the response is handled by {@link AfterCallHandler} before this
+ * mediator returns. The response replaces the message payload, status
+ * code and transport headers the same way a call mediator response would. Rate limited and failed calls are retried
+ * as the calls of the connector classes are, see {@link RetryPolicy}, unless the request body cannot be sent again.
+ * Otherwise the template makes the call with the call mediator, through the Synapse HTTP transport rather than the
+ * pool of a named connection.
+ * <p>
+ * A single instance is shared by all messages flowing through a template, so it holds no per message state.
+ */
+public class DropboxInvoker extends AbstractConnector {
+
+    static final String OPERATION_PROPERTY = "dropbox.operation";
+
+    static final String CALL_START_PROPERTY = "dropbox.callStart";
+
+    static final String BYTES_SENT_PROPERTY = "dropbox.bytesSent";
+
+    private static final Pattern URI_VARIABLE = Pattern.compile("\\{\\+?([^}]+)\\}");
+
+    private static final String[] FORWARDED_HEADERS = {"Authorization", DropboxConstants.API_ARG_HEADER};
+
+    private static final String[] HOP_BY_HOP_HEADERS = {"Content-Length", "Transfer-Encoding", "Connection",
+            "Keep-Alive"};
+
+    private final AfterCallHandler responseHandler = new AfterCallHandler();
+
+    private ApiArgument argument;
+
+    private String endpoint;
+
+    private int timeout;
+
+    private boolean throttled = true;
+
+    private boolean projectable;
+
+    public void setOperation(String operation) {
+        this.argument = ApiArgument.forOperation(operation);
+    }
+
+    public String getOperation() {
+        return argument == null ? null : argument.getOperation();
+    }
+
+    /**
+     * @param endpoint the endpoint URL, in which {name} and {+name} are replaced by message context properties.
+     */
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @param timeout the socket timeout of a blocking call in milliseconds, for endpoints that hold the request open
+     *                longer than the default socket timeout.
+     */
+    public void setTimeout(String timeout) {
+        this.timeout = Integer.parseInt(timeout.trim());
+    }
+
+    public String getTimeout() {
+        return Integer.toString(timeout);
+    }
+
+    /**
+     * @param throttled false for endpoints that do not count towards the request rate of the account.
+     */
+    public void setThrottled(String throttled) {
+        this.throttled = Boolean.parseBoolean(throttled.trim());
+    }
+
+    public String getThrottled() {
+        return Boolean.toString(throttled);
+    }
+
+    /**
+     * @param projectable true for operations whose response can be reduced with the fields parameter, see
+     *                    {@link ResponseProjector}.
+     */
+    public void setProjectable(String projectable) {
+        this.projectable = Boolean.parseBoolean(projectable.trim());
+    }
+
+    public String getProjectable() {
+        return Boolean.toString(projectable);
+    }
+
+    @Override
+    public void connect(MessageContext messageContext) throws ConnectException {
+        if (argument == null || endpoint == null) {
+            throw new ConnectException("The operation and endpoint properties must be set on " + getClass().getName());
+        }
+        long requestLength = attachArgument(messageContext);
+        beforeCall(messageContext, requestLength);
+        if ("true".equals(DropboxUtils.getTrimmedText(messageContext, DropboxConstants.BLOCKING))) {
+            call(messageContext);
+            responseHandler.connect(messageContext);
+        }
+    }
+
+    /**
+     * @return the length of the request body the template sends, or -1 when it is not known.
+     */
+    private long attachArgument(MessageContext messageContext) throws ConnectException {
+        org.apache.axis2.context.MessageContext axis2MessageContext =
+                ((Axis2MessageContext) messageContext).getAxis2MessageContext();
+        ApiArgument.Target target = argument.getTarget();
+        JsonWriter writer = JsonWriter.reusable().asciiOnly(target != ApiArgument.Target.PAYLOAD);
+        argument.write(writer, messageContext);
+        String json = writer.toString();
+        Map<String, Object> headers = DropboxUtils.getTransportHeaders(messageContext);
+        headers.remove("Accept-Encoding");
+        if (target == ApiArgument.Target.PAYLOAD) {
+            try {
+                JsonUtil.getNewJsonPayload(axis2MessageContext, json, true, true);
+            } catch (AxisFault e) {
+                throw new ConnectException(e, "Error while setting the JSON payload of " + argument.getOperation());
+            }
+            axis2MessageContext.setProperty(Constants.Configuration.MESSAGE_TYPE, "application/json");
+            return getUtf8Length(json);
+        }
+        if (target == ApiArgument.Target.HEADER || writer.length() > 2) {
+            headers.put(DropboxConstants.API_ARG_HEADER, json);
+        }
+        if (argument == ApiArgument.DOWNLOAD) {
+            // Download requests are sent without a body.
+            OMElement body = messageContext.getEnvelope().getBody().getFirstElement();
+            if (body != null) {
+                body.detach();
+            }
+            axis2MessageContext.setProperty(Constants.Configuration.MESSAGE_TYPE, "");
+            axis2MessageContext.setProperty(DropboxConstants.FORCE_POST_PUT_NOBODY, Boolean.TRUE);
+            return 0;
+        }
+        axis2MessageContext.setProperty(Constants.Configuration.MESSAGE_TYPE,
+                ContentType.APPLICATION_OCTET_STREAM.getMimeType());
+        if (messageContext.getEnvelope().getBody().getFirstElement() == null) {
+            return 0;
+        }
+        // The binary content is relayed as it was received.
+        return getContentLength(headers);
+    }
+
+    /**
+     * Holds the request back until the rate limiter of its account has a permit, so that the template calls share
+     * the request rate with the calls made by the connector classes.
+     */
+    private void beforeCall(MessageContext messageContext, long requestLength) throws ConnectException {
+        String account = DropboxUtils.getAccount(messageContext);
+        if (throttled && account != null) {
+            try {
+                long waited = DropboxClient.getRateLimiter(messageContext, account).acquire();
+                RequestStatistics.getInstance().throttled(waited);
+                if (waited > 0 && log.isDebugEnabled()) {
+                    log.debug("Dropbox request held back for " + waited + " ms by the rate limit");
+                }
+            } catch (InterruptedIOException e) {
+                throw new ConnectException(e, "Interrupted while waiting for the Dropbox request rate limit");
+            }
+        }
+        RequestStatistics.getInstance().attempt();
+        messageContext.setProperty(OPERATION_PROPERTY, argument.getOperation());
+        messageContext.setProperty(BYTES_SENT_PROPERTY, requestLength);
+        messageContext.setProperty(CALL_START_PROPERTY, System.nanoTime());
+    }
+
+    private void call(MessageContext messageContext) throws ConnectException {
+        DropboxHttpClient httpClient = DropboxHttpClient.forMessage(messageContext);
+        String url = resolve(messageContext, endpoint);
+        HttpPost post = new HttpPost(url);
+        if (timeout > 0) {
+            post.setConfig(httpClient.withSocketTimeout(timeout));
+        }
+        Map<String, Object> headers = DropboxUtils.getTransportHeaders(messageContext);
+        for (String name : FORWARDED_HEADERS) {
+            Object value = headers.get(name);
+            if (value != null) {
+                post.setHeader(name, value.toString());
+            }
+        }
+        HttpEntity requestEntity = getRequestEntity(messageContext, headers);
+        CountingEntity countingEntity = requestEntity == null ? null : new CountingEntity(requestEntity);
+        post.setEntity(countingEntity);
+        RetryPolicy retryPolicy = DropboxClient.getRetryPolicy(messageContext);
+        boolean repeatable = requestEntity == null || requestEntity.isRepeatable();
+        int retries = 0;
+        CloseableHttpResponse response;
+        while (true) {
+            try {
+                response = httpClient.execute(post);
+            } catch (IOException e) {
+                RequestStatistics.getInstance().connectionFailure();
+                if (!repeatable || !RetryPolicy.isRetryable(e) || retries >= retryPolicy.getMaxRetries()) {
+                    throw new ConnectException(e, "Error while calling " + url);
+                }
+                retries++;
+                waitToRetry(messageContext, retries, retryPolicy.getDelay(retries, null), false, e.toString());
+                continue;
+            }
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (!repeatable || !RetryPolicy.isRetryable(statusCode) || retries >= retryPolicy.getMaxRetries()) {
+                break;
+            }
+            retries++;
+            long delay = retryPolicy.getDelay(retries, response);
+            boolean retryAfter = RetryPolicy.getRetryAfter(response) >= 0;
+            RequestStatistics.getInstance().failedResponse(statusCode);
+            EntityUtils.consumeQuietly(response.getEntity());
+            DropboxUtils.closeQuietly(response);
+            waitToRetry(messageContext, retries, delay, retryAfter, "HTTP " + statusCode);
+        }
+        messageContext.setProperty(BYTES_SENT_PROPERTY, countingEntity == null ? 0L : countingEntity.getCount());
+        boolean streamed = false;
+        try {
+            int statusCode = response.getStatusLine().getStatusCode();
+            HttpEntity entity = response.getEntity();
+            if (statusCode / 100 == 2 && argument == ApiArgument.DOWNLOAD && entity != null) {
+                Header contentType = entity.getContentType();
+                DropboxUtils.setBinaryResponse(messageContext, new ResponseDataSource(response, contentType == null
+                        ? ContentType.APPLICATION_OCTET_STREAM.getMimeType() : contentType.getValue()));
+                // The data source closes the response once the content has been sent to the client.
+                streamed = true;
+                return;
+            }
+            FieldProjection projection = projectable && statusCode / 100 == 2 && entity != null ?
+                    FieldProjection.parse(DropboxUtils.getTrimmedText(messageContext, DropboxConstants.FIELDS)) : null;
+            if (projection != null) {
+                // The response is projected while it is read, instead of being read into a string first.
+                JsonWriter writer = JsonWriter.reusable();
+                projection.project(new InputStreamReader(entity.getContent(), StandardCharsets.UTF_8), writer);
+                EntityUtils.consume(entity);
+                DropboxUtils.setJsonResponse(messageContext, writer.toString(), statusCode);
+                messageContext.setProperty(ResponseProjector.PROJECTED_PROPERTY, Boolean.TRUE);
+                return;
+            }
+            String body = entity == null ? "" : EntityUtils.toString(entity, "UTF-8");
+            if (statusCode / 100 == 2) {
+                DropboxUtils.setJsonResponse(messageContext, body.isEmpty() ? "null" : body, statusCode);
+            } else {
+                DropboxUtils.setJsonResponse(messageContext,
+                        new DropboxApiException(url, statusCode, body).getErrorDocument(), statusCode);
+            }
+        } catch (IOException e) {
+            throw new ConnectException(e, "Error while reading the response of " + url);
+        } finally {
+            // Set after the payload, which drops the request headers.
+            setTransportHeaders(messageContext, response);
+            if (!streamed) {
+                DropboxUtils.closeQuietly(response);
+            }
+        }
+    }
+
+    /**
+     * Waits before retrying a blocking call and takes a new permit from the rate limiter of the account. A Retry-After
+     * pauses every request of the account, since they would be rate limited as well.
+     */
+    private void waitToRetry(MessageContext messageContext, int retry, long delay, boolean retryAfter, String reason)
+            throws ConnectException {
+        RequestStatistics statistics = RequestStatistics.getInstance();
+        statistics.retry();
+        if (log.isDebugEnabled()) {
+            log.debug("Retrying " + argument.getOperation() + " after " + reason + ", retry " + retry + " in "
+                    + delay + " ms");
+        }
+        String account = DropboxUtils.getAccount(messageContext);
+        RateLimiter limiter = throttled && account != null ? DropboxClient.getRateLimiter(messageContext, account)
+                : null;
+        try {
+            if (limiter != null && retryAfter) {
+                limiter.pause(delay);
+            } else {
+                TimeUnit.MILLISECONDS.sleep(delay);
+            }
+            if (limiter != null) {
+                statistics.throttled(limiter.acquire());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectException(e, "Interrupted while waiting to retry a Dropbox request");
+        } catch (InterruptedIOException e) {
+            throw new ConnectException(e, "Interrupted while waiting for the Dropbox request rate limit");
+        }
+        statistics.attempt();
+    }
+
+    private HttpEntity getRequestEntity(MessageContext messageContext, Map<String, Object> headers)
+            throws ConnectException {
+        if (argument.getTarget() == ApiArgument.Target.PAYLOAD) {
+            org.apache.axis2.context.MessageContext axis2MessageContext =
+                    ((Axis2MessageContext) messageContext).getAxis2MessageContext();
+            return new StringEntity(JsonUtil.jsonPayloadToString(axis2MessageContext), ContentType.APPLICATION_JSON);
+        }
+        if (argument == ApiArgument.DOWNLOAD || messageContext.getEnvelope().getBody().getFirstElement() == null) {
+            // Downloads, and e.g. upload sessions started without content, have no body.
+            return null;
+        }
+        return new InputStreamEntity(DropboxUtils.getBinaryPayload(messageContext), getContentLength(headers),
+                ContentType.APPLICATION_OCTET_STREAM);
+    }
+
+    /**
+     * @return the Content-Length of the message, which is the upload size for content upload operations.
+     */
+    private static long getContentLength(Map<String, Object> headers) {
+        Object length = headers.get("Content-Length");
+        if (length != null) {
+            try {
+                return Long.parseLong(length.toString().trim());
+            } catch (NumberFormatException ignored) {
+                // Treated as unknown.
+            }
+        }
+        return -1;
+    }
+
+    private static long getUtf8Length(String text) {
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Replaces the transport headers of the message with the response headers, leaving out the headers that only
+     * apply to the connection the response was read from.
+     */
+    private static void setTransportHeaders(MessageContext messageContext, CloseableHttpResponse response) {
+        Map<String, Object> headers = new TreeMap<String, Object>(String.CASE_INSENSITIVE_ORDER);
+        for (Header header : response.getAllHeaders()) {
+            headers.put(header.getName(), header.getValue());
+        }
+        for (String name : HOP_BY_HOP_HEADERS) {
+            headers.remove(name);
+        }
+        ((Axis2MessageContext) messageContext).getAxis2MessageContext()
+                .setProperty(org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS, headers);
+    }
+
+    /**
+     * Expands the {name} and {+name} variables of an endpoint template from the message context properties.
+     */
+    private static String resolve(MessageContext messageContext, String template) throws ConnectException {
+        Matcher matcher = URI_VARIABLE.matcher(template);
+        StringBuffer url = new StringBuffer();
+        while (matcher.find()) {
+            String value = DropboxUtils.getText(messageContext, matcher.group(1));
+            if (value == null) {
+                throw new ConnectException("The " + matcher.group(1) + " property is not set for " + template);
+            }
+            matcher.appendReplacement(url, Matcher.quoteReplacement(value));
+        }
+        matcher.appendTail(url);
+        return url.toString();
+    }
+
+    /**
+     * Counts the bytes of a request body as they are written to the connection, including those of attempts that are
+     * retried.
+     */
+    private static final class CountingEntity extends HttpEntityWrapper {
+
+        private long count;
+
+        CountingEntity(HttpEntity entity) {
+            super(entity);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public void writeTo(OutputStream outstream) throws IOException {
+            super.writeTo(new FilterOutputStream(outstream) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    count++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    count += len;
+                }
+            });
+        }
+    }
+}
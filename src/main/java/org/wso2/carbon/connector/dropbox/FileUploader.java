@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox;
+
+import org.apache.synapse.MessageContext;
+import org.wso2.carbon.connector.core.AbstractConnector;
+import org.wso2.carbon.connector.core.ConnectException;
+import org.wso2.carbon.connector.dropbox.client.DropboxApiException;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+import org.wso2.carbon.connector.dropbox.upload.ContentHashVerifier;
+import org.wso2.carbon.connector.dropbox.upload.ContentHasher;
+import org.wso2.carbon.connector.dropbox.upload.ParallelChunkUploader;
+import org.wso2.carbon.connector.dropbox.util.DropboxUtils;
+import org.wso2.carbon.connector.dropbox.util.JsonWriter;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Uploads a local file, given as a path or a file: URI, to the path set by init. The file is streamed from disk and
+ * never loaded into the message. Files larger than one chunk are uploaded through a concurrent upload session.
+ * <p>
+ * With skipIfUnchanged, the Dropbox content hash of the file is compared with the file already stored at the path and
+ * the upload is skipped when they match. The response is then the metadata of the stored file and the
+ * dropbox.uploadSkipped property is set to true. With verifyContentHash, the content hash of the committed file is
+ * checked against the local file.
+ */
+public class FileUploader extends AbstractConnector {
+
+    public static final String UPLOAD_SKIPPED_PROPERTY = "dropbox.uploadSkipped";
+
+    @Override
+    public void connect(MessageContext messageContext) throws ConnectException {
+        DropboxClient client = DropboxClient.forMessage(messageContext);
+        Path source = resolveSource(DropboxUtils.getText(messageContext, DropboxConstants.SOURCE_PATH));
+        int chunkSize = DropboxUtils.getInt(messageContext, DropboxConstants.CHUNK_SIZE,
+                ParallelChunkUploader.DEFAULT_CHUNK_SIZE);
+        int parallelism = DropboxUtils.getInt(messageContext, DropboxConstants.PARALLELISM,
+                ParallelChunkUploader.DEFAULT_PARALLELISM);
+        JsonWriter writer = JsonWriter.reusable().asciiOnly(true);
+        ApiArgument.UPLOAD_FILE.write(writer, messageContext);
+        String commit = writer.toString();
+        boolean skipIfUnchanged = isEnabled(messageContext, DropboxConstants.SKIP_IF_UNCHANGED);
+        boolean verify = isEnabled(messageContext, DropboxConstants.VERIFY_CONTENT_HASH);
+        ContentHashVerifier verifier = new ContentHashVerifier(client,
+                DropboxUtils.getText(messageContext, DropboxConstants.PATH));
+        try {
+            String contentHash = skipIfUnchanged || verify ? ContentHasher.hash(source) : null;
+            if (skipIfUnchanged) {
+                String unchanged = verifier.findUnchanged(contentHash);
+                if (unchanged != null) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Skipped uploading " + source + ", Dropbox already has the same content");
+                    }
+                    messageContext.setProperty(UPLOAD_SKIPPED_PROPERTY, "true");
+                    DropboxUtils.setJsonResponse(messageContext, unchanged, 200);
+                    return;
+                }
+            }
+            String metadata = new ParallelChunkUploader(client, chunkSize, parallelism).upload(source, commit);
+            if (verify) {
+                verifier.verify(metadata, contentHash);
+            }
+            DropboxUtils.setJsonResponse(messageContext, metadata, 200);
+        } catch (DropboxApiException e) {
+            log.error("Error while uploading " + source + " to Dropbox: " + e.getMessage());
+            DropboxUtils.setJsonResponse(messageContext, e.getErrorDocument(), e.getStatusCode());
+        } catch (IOException e) {
+            throw new ConnectException(e, "Error while uploading " + source + " to Dropbox");
+        }
+    }
+
+    static boolean isEnabled(MessageContext messageContext, String name) {
+        return "true".equalsIgnoreCase(DropboxUtils.getTrimmedText(messageContext, name));
+    }
+
+    /**
+     * Resolves the source parameter, which may be a local path or a file: URI.
+     */
+    static Path resolveSource(String sourcePath) throws ConnectException {
+        if (sourcePath == null) {
+            throw new ConnectException("The sourcePath parameter is required to upload a local file");
+        }
+        Path path;
+        try {
+            if (sourcePath.startsWith("file:")) {
+                path = Paths.get(URI.create(sourcePath));
+            } else if (sourcePath.contains("://")) {
+                throw new ConnectException("Unsupported source " + sourcePath + ". Only local paths and file: URIs "
+                        + "can be uploaded");
+            } else {
+                path = Paths.get(sourcePath);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new ConnectException(e, "Invalid source path " + sourcePath);
+        }
+        if (!Files.isRegularFile(path) || !Files.isReadable(path)) {
+            throw new ConnectException("The source " + sourcePath + " is not a readable file");
+        }
+        return path;
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox;
+
+import org.apache.synapse.Mediator;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.registry.Registry;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.wso2.carbon.connector.core.AbstractConnector;
+import org.wso2.carbon.connector.core.ConnectException;
+import org.wso2.carbon.connector.dropbox.client.DropboxApiException;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+import org.wso2.carbon.connector.dropbox.listing.FolderWalker;
+import org.wso2.carbon.connector.dropbox.sync.CursorStore;
+import org.wso2.carbon.connector.dropbox.sync.FileCursorStore;
+import org.wso2.carbon.connector.dropbox.sync.RegistryCursorStore;
+import org.wso2.carbon.connector.dropbox.util.DropboxUtils;
+import org.wso2.carbon.connector.dropbox.util.JsonWriter;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processes only the entries that changed in a folder since the previous run of the same sync.
+ * <p>
+ * The cursor reached by each run is kept in a {@link CursorStore}, either the Synapse registry or a local directory,
+ * under a key derived from the Dropbox account ID and either the syncId parameter or, when it is not set, the folder
+ * path and recursive flag, so that the cursors outlive the access tokens and syncs of different accounts never share
+ * a cursor. A run continues from the stored cursor and
+ * mediates every page of changes through the pageSequence, saving the cursor after each page. A page whose mediation
+ * the sequence stops ends the run and leaves the cursor before that page stored, so that the next run processes the
+ * page again. The first run, and a run whose cursor was reset by Dropbox, lists the whole folder unless
+ * initialListing is false, in which case it only records the current cursor.
+ * <p>
+ * When longpollTimeout is set, a run with a stored cursor first waits up to that many seconds for a change and returns
+ * without listing anything if none happens. When Dropbox asks for a backoff, runs within it list the changes without
+ * waiting on longpoll first.
+ */
+public class FolderSync extends AbstractConnector {
+
+    private static final String REGISTRY_STORE = "registry";
+
+    private static final String DEFAULT_REGISTRY_COLLECTION = "conf:/dropbox/cursors";
+
+    private static final String DEFAULT_CURSOR_DIRECTORY = "repository/data/dropbox-cursors";
+
+    private static final String RESET_ERROR = "reset";
+
+    private static final String CURRENT_ACCOUNT_ENDPOINT = "/users/get_current_account";
+
+    /**
+     * The time until which each sync must not call longpoll, as asked by the backoff of its last longpoll response.
+     */
+    private static final ConcurrentMap<String, Long> LONGPOLL_BACKOFF = new ConcurrentHashMap<String, Long>();
+
+    @Override
+    public void connect(MessageContext messageContext) throws ConnectException {
+        DropboxClient client = DropboxClient.forMessage(messageContext);
+        Mediator sequence = PagedFolderLister.getPageSequence(messageContext);
+        int maxPages = DropboxUtils.getInt(messageContext, DropboxConstants.MAX_PAGES, Integer.MAX_VALUE);
+        int longpollTimeout = DropboxUtils.getInt(messageContext, DropboxConstants.LONGPOLL_TIMEOUT, 0);
+        String initialListing = DropboxUtils.getTrimmedText(messageContext, DropboxConstants.INITIAL_LISTING);
+        CursorStore store = getCursorStore(messageContext);
+
+        JsonWriter writer = JsonWriter.reusable();
+        ApiArgument.LIST_FOLDER.write(writer, messageContext);
+        String listArgument = writer.toString();
+
+        FolderWalker walker = new FolderWalker(client);
+        FolderWalker.Result result = null;
+        String cursor;
+        boolean reset = false;
+        try {
+            String key = getSyncKey(messageContext, client);
+            FolderWalker.PageHandler handler = new CursorSavingHandler(
+                    new PagedFolderLister.PageMediator(messageContext, sequence, null), store, key);
+            cursor = store.load(key);
+            if (cursor != null && longpollTimeout > 0 && !isBackingOff(key)) {
+                try {
+                    if (!hasChanges(client, messageContext, key, cursor, longpollTimeout)) {
+                        respond(messageContext, null, cursor, false);
+                        return;
+                    }
+                } catch (DropboxApiException e) {
+                    cursor = resetCursor(e, store, key);
+                    reset = true;
+                }
+            }
+            if (cursor != null) {
+                try {
+                    result = walker.walkFrom(cursor, maxPages, handler);
+                } catch (DropboxApiException e) {
+                    cursor = resetCursor(e, store, key);
+                    reset = true;
+                }
+            }
+            if (cursor == null) {
+                if (initialListing == null || Boolean.parseBoolean(initialListing)) {
+                    result = walker.walk(FolderWalker.LIST_FOLDER_ENDPOINT, listArgument, maxPages, handler);
+                } else {
+                    cursor = walker.latestCursor(listArgument);
+                    store.save(key, cursor);
+                }
+            }
+            if (result != null && result.isStopped()) {
+                log.warn("The page sequence stopped sync " + key + " after " + result.getPages()
+                        + " pages, the next run continues from the last page processed");
+            }
+        } catch (DropboxApiException e) {
+            log.error("Error while syncing the folder: " + e.getMessage());
+            DropboxUtils.setJsonResponse(messageContext, e.getErrorDocument(), e.getStatusCode());
+            return;
+        } catch (IOException e) {
+            throw new ConnectException(e, "Error while syncing the folder");
+        }
+        respond(messageContext, result, cursor, reset);
+    }
+
+    /**
+     * Drops a stored cursor that Dropbox reset, so that the run lists the folder again.
+     *
+     * @return null, the cursor to continue from.
+     * @throws DropboxApiException the given error, when it is not a reset.
+     */
+    private String resetCursor(DropboxApiException e, CursorStore store, String key) throws IOException {
+        if (!RESET_ERROR.equals(e.getErrorTag())) {
+            throw e;
+        }
+        log.warn("The stored cursor of sync " + key + " was reset by Dropbox, starting over");
+        store.delete(key);
+        return null;
+    }
+
+    private boolean isBackingOff(String key) {
+        Long until = LONGPOLL_BACKOFF.get(key);
+        if (until == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() >= until) {
+            LONGPOLL_BACKOFF.remove(key, until);
+            return false;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Sync " + key + " is backing off from longpoll, listing the changes directly");
+        }
+        return true;
+    }
+
+    private static boolean hasChanges(DropboxClient client, MessageContext messageContext, String key, String cursor,
+                                      int timeout) throws IOException {
+        String notifyUrl = DropboxUtils.getTrimmedText(messageContext, DropboxConstants.NOTIFY_URL);
+        JsonWriter writer = JsonWriter.reusable();
+        writer.beginObject().name("cursor").value(cursor).name("timeout").value(timeout).endObject();
+        String response = client.longpoll(notifyUrl, writer.toString(), timeout);
+        try {
+            JSONObject result = new JSONObject(response);
+            long backoff = result.optLong("backoff", 0);
+            if (backoff > 0) {
+                LONGPOLL_BACKOFF.put(key, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(backoff));
+            } else {
+                LONGPOLL_BACKOFF.remove(key);
+            }
+            return result.getBoolean("changes");
+        } catch (JSONException e) {
+            throw new IOException("Unexpected response from the longpoll endpoint: " + response, e);
+        }
+    }
+
+    private static void respond(MessageContext messageContext, FolderWalker.Result result, String cursor,
+                                boolean reset) throws ConnectException {
+        JsonWriter writer = JsonWriter.reusable();
+        writer.beginObject();
+        if (result != null) {
+            result.writeTo(writer);
+        } else {
+            writer.name("pages").value(0).name("entries").value(0).name("cursor").value(cursor)
+                    .name("has_more").value(false);
+        }
+        writer.name("reset").value(reset).endObject();
+        DropboxUtils.setJsonResponse(messageContext, writer.toString(), 200);
+    }
+
+    private static CursorStore getCursorStore(MessageContext messageContext) throws ConnectException {
+        String location = DropboxUtils.getTrimmedText(messageContext, DropboxConstants.CURSOR_LOCATION);
+        if (REGISTRY_STORE.equals(DropboxUtils.getTrimmedText(messageContext, DropboxConstants.CURSOR_STORE))) {
+            Registry registry = messageContext.getConfiguration().getRegistry();
+            if (registry == null) {
+                throw new ConnectException("No registry is configured to store the sync cursors");
+            }
+            return new RegistryCursorStore(registry, location == null ? DEFAULT_REGISTRY_COLLECTION : location);
+        }
+        if (location == null) {
+            return new FileCursorStore(Paths.get(System.getProperty("carbon.home", "."), DEFAULT_CURSOR_DIRECTORY));
+        }
+        return new FileCursorStore(Paths.get(location));
+    }
+
+    /**
+     * Derives the key of the stored cursor from the account ID and either the syncId parameter or, without one, the
+     * folder. The access token is left out of the key, since a rotated or refreshed token would orphan the cursor.
+     */
+    private static String getSyncKey(MessageContext messageContext, DropboxClient client) throws IOException {
+        String accountId = getAccountId(client);
+        String syncId = DropboxUtils.getText(messageContext, DropboxConstants.SYNC_ID);
+        if (syncId != null) {
+            return DropboxUtils.digestKey(accountId + "\n" + syncId);
+        }
+        String path = DropboxUtils.getText(messageContext, DropboxConstants.PATH);
+        return DropboxUtils.digestKey(accountId + "\n" + (path == null ? "" : path.toLowerCase(Locale.ROOT))
+                + "|" + Boolean.parseBoolean(DropboxUtils.getTrimmedText(messageContext, DropboxConstants.RECURSIVE)));
+    }
+
+    /**
+     * @param client the client of the account.
+     * @return the Dropbox account ID, which stays the same when the access token changes.
+     * @throws IOException if the account cannot be read.
+     */
+    static String getAccountId(DropboxClient client) throws IOException {
+        String response = client.rpc(CURRENT_ACCOUNT_ENDPOINT, "null");
+        try {
+            return new JSONObject(response).getString("account_id");
+        } catch (JSONException e) {
+            throw new IOException("Unexpected response from " + CURRENT_ACCOUNT_ENDPOINT + ": " + response, e);
+        }
+    }
+
+    /**
+     * Saves the cursor once a page has been mediated, so that an interrupted run resumes after the last processed
+     * page. The cursor is not saved when the mediation of the page stopped.
+     */
+    private static class CursorSavingHandler implements FolderWalker.PageHandler {
+
+        private final FolderWalker.PageHandler delegate;
+
+        private final CursorStore store;
+
+        private final String key;
+
+        CursorSavingHandler(FolderWalker.PageHandler delegate, CursorStore store, String key) {
+            this.delegate = delegate;
+            this.store = store;
+            this.key = key;
+        }
+
+        @Override
+        public boolean onPage(String page, int index, String cursor, boolean hasMore) throws ConnectException {
+            if (!delegate.onPage(page, index, cursor, hasMore)) {
+                return false;
+            }
+            try {
+                store.save(key, cursor);
+            } catch (IOException e) {
+                throw new ConnectException(e, "Error while saving the cursor of sync " + key);
+            }
+            return true;
+        }
+    }
+}
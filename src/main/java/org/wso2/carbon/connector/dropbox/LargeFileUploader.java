@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox;
+
+import org.apache.synapse.MessageContext;
+import org.wso2.carbon.connector.core.AbstractConnector;
+import org.wso2.carbon.connector.core.ConnectException;
+import org.wso2.carbon.connector.dropbox.client.DropboxApiException;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+import org.wso2.carbon.connector.dropbox.upload.ContentHashVerifier;
+import org.wso2.carbon.connector.dropbox.upload.ContentHasher;
+import org.wso2.carbon.connector.dropbox.upload.ParallelChunkUploader;
+import org.wso2.carbon.connector.dropbox.util.DropboxUtils;
+import org.wso2.carbon.connector.dropbox.util.JsonWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Uploads the binary message content to the path set by init, splitting it into chunks that are appended to a
+ * concurrent upload session in parallel. The response is the metadata of the committed file.
+ * <p>
+ * The Dropbox content hash is computed while the content is read when skipIfUnchanged or verifyContentHash is set.
+ * Content that fits in a single chunk is not uploaded when the file stored at the path has the same hash, in which
+ * case the response is the metadata of the stored file and the dropbox.uploadSkipped property is set to true. Larger
+ * content is always uploaded, since its hash is only known once it has been sent.
+ */
+public class LargeFileUploader extends AbstractConnector {
+
+    @Override
+    public void connect(MessageContext messageContext) throws ConnectException {
+        DropboxClient client = DropboxClient.forMessage(messageContext);
+        int chunkSize = DropboxUtils.getInt(messageContext, DropboxConstants.CHUNK_SIZE,
+                ParallelChunkUploader.DEFAULT_CHUNK_SIZE);
+        int parallelism = DropboxUtils.getInt(messageContext, DropboxConstants.PARALLELISM,
+                ParallelChunkUploader.DEFAULT_PARALLELISM);
+        JsonWriter writer = JsonWriter.reusable().asciiOnly(true);
+        ApiArgument.UPLOAD_FILE.write(writer, messageContext);
+        String commit = writer.toString();
+
+        boolean skipIfUnchanged = FileUploader.isEnabled(messageContext, DropboxConstants.SKIP_IF_UNCHANGED);
+        boolean verify = FileUploader.isEnabled(messageContext, DropboxConstants.VERIFY_CONTENT_HASH);
+        ContentHasher hasher = skipIfUnchanged || verify ? new ContentHasher() : null;
+        ContentHashVerifier verifier = new ContentHashVerifier(client,
+                DropboxUtils.getText(messageContext, DropboxConstants.PATH));
+
+        InputStream content = DropboxUtils.getBinaryPayload(messageContext);
+        try {
+            String unchanged = null;
+            String unchangedHash = null;
+            if (skipIfUnchanged) {
+                unchanged = verifier.getMetadata();
+                unchangedHash = ContentHashVerifier.getContentHash(unchanged);
+            }
+            String metadata = new ParallelChunkUploader(client, chunkSize, parallelism).upload(content, commit,
+                    hasher, unchangedHash);
+            if (metadata == null) {
+                messageContext.setProperty(FileUploader.UPLOAD_SKIPPED_PROPERTY, "true");
+                DropboxUtils.setJsonResponse(messageContext, unchanged, 200);
+                return;
+            }
+            if (verify) {
+                verifier.verify(metadata, hasher.getContentHash());
+            }
+            DropboxUtils.setJsonResponse(messageContext, metadata, 200);
+        } catch (DropboxApiException e) {
+            log.error("Error while uploading to Dropbox: " + e.getMessage());
+            DropboxUtils.setJsonResponse(messageContext, e.getErrorDocument(), e.getStatusCode());
+        } catch (IOException e) {
+            throw new ConnectException(e, "Error while uploading the message content to Dropbox");
+        } finally {
+            DropboxUtils.closeQuietly(content);
+        }
+    }
+}
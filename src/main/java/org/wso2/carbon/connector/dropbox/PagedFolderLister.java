@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox;
+
+import org.apache.axis2.AxisFault;
+import org.apache.synapse.Mediator;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.util.MessageHelper;
+import org.wso2.carbon.connector.core.AbstractConnector;
+import org.wso2.carbon.connector.core.ConnectException;
+import org.wso2.carbon.connector.dropbox.client.DropboxApiException;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+import org.wso2.carbon.connector.dropbox.listing.FieldProjection;
+import org.wso2.carbon.connector.dropbox.listing.FolderWalker;
+import org.wso2.carbon.connector.dropbox.util.DropboxUtils;
+import org.wso2.carbon.connector.dropbox.util.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Walks every page of a folder listing and hands each page to the sequence named by the pageSequence parameter, so
+ * that a large folder is processed one page at a time instead of being collected into a single payload.
+ * <p>
+ * Each page is mediated on a copy of the message whose payload is the list_folder response, with the
+ * dropbox.page.index, dropbox.page.cursor and dropbox.page.hasMore properties set. The listing starts from the
+ * cursor parameter when it is given and from list_folder otherwise, and stops after maxPages pages when that is set,
+ * or at a page whose mediation the sequence stops, e.g. with a drop mediator, which is then not counted. The response of the operation summarizes the walk and carries the last cursor, which can be used to continue it.
+ * With the fields parameter, the entries of every page are reduced to the listed fields, see {@link FieldProjection}.
+ */
+public class PagedFolderLister extends AbstractConnector {
+
+    public static final String PAGE_INDEX_PROPERTY = "dropbox.page.index";
+
+    public static final String PAGE_CURSOR_PROPERTY = "dropbox.page.cursor";
+
+    public static final String PAGE_HAS_MORE_PROPERTY = "dropbox.page.hasMore";
+
+    @Override
+    public void connect(MessageContext messageContext) throws ConnectException {
+        DropboxClient client = DropboxClient.forMessage(messageContext);
+        Mediator sequence = getPageSequence(messageContext);
+        int maxPages = DropboxUtils.getInt(messageContext, DropboxConstants.MAX_PAGES, Integer.MAX_VALUE);
+        String cursor = DropboxUtils.getText(messageContext, DropboxConstants.CURSOR);
+        PageMediator pageMediator = new PageMediator(messageContext, sequence,
+                FieldProjection.parse(DropboxUtils.getTrimmedText(messageContext, DropboxConstants.FIELDS)));
+
+        FolderWalker walker = new FolderWalker(client);
+        FolderWalker.Result result;
+        try {
+            if (cursor == null) {
+                JsonWriter writer = JsonWriter.reusable();
+                ApiArgument.LIST_FOLDER.write(writer, messageContext);
+                result = walker.walk(FolderWalker.LIST_FOLDER_ENDPOINT, writer.toString(), maxPages, pageMediator);
+            } else {
+                result = walker.walkFrom(cursor, maxPages, pageMediator);
+            }
+        } catch (DropboxApiException e) {
+            log.error("Error while listing the folder: " + e.getMessage());
+            DropboxUtils.setJsonResponse(messageContext, e.getErrorDocument(), e.getStatusCode());
+            return;
+        } catch (IOException e) {
+            throw new ConnectException(e, "Error while listing the folder");
+        }
+
+        JsonWriter writer = JsonWriter.reusable();
+        writer.beginObject();
+        result.writeTo(writer);
+        writer.endObject();
+        DropboxUtils.setJsonResponse(messageContext, writer.toString(), 200);
+    }
+
+    /**
+     * Looks up the sequence named by the pageSequence parameter.
+     *
+     * @param messageContext the message context.
+     * @return the sequence.
+     * @throws ConnectException if the sequence is not defined.
+     */
+    static Mediator getPageSequence(MessageContext messageContext) throws ConnectException {
+        String sequenceName = DropboxUtils.getTrimmedText(messageContext, DropboxConstants.PAGE_SEQUENCE);
+        Mediator sequence = sequenceName == null ? null : messageContext.getSequence(sequenceName);
+        if (sequence == null) {
+            throw new ConnectException("The page sequence '" + sequenceName + "' is not defined");
+        }
+        return sequence;
+    }
+
+    /**
+     * Mediates each page through the page sequence, on a copy of the original message.
+     */
+    static class PageMediator implements FolderWalker.PageHandler {
+
+        private final MessageContext messageContext;
+
+        private final Mediator sequence;
+
+        private final FieldProjection projection;
+
+        /**
+         * @param projection the projection applied to every page, or null to mediate the pages as returned.
+         */
+        PageMediator(MessageContext messageContext, Mediator sequence, FieldProjection projection) {
+            this.messageContext = messageContext;
+            this.sequence = sequence;
+            this.projection = projection;
+        }
+
+        @Override
+        public boolean onPage(String page, int index, String cursor, boolean hasMore) throws ConnectException {
+            if (projection != null) {
+                try {
+                    page = projection.project(page);
+                } catch (IOException e) {
+                    throw new ConnectException(e, "Error while projecting page " + index);
+                }
+            }
+            MessageContext pageContext;
+            try {
+                pageContext = MessageHelper.cloneMessageContext(messageContext);
+            } catch (AxisFault e) {
+                throw new ConnectException(e, "Error while copying the message for page " + index);
+            }
+            DropboxUtils.setJsonResponse(pageContext, page, 200);
+            pageContext.setProperty(PAGE_INDEX_PROPERTY, index);
+            pageContext.setProperty(PAGE_CURSOR_PROPERTY, cursor);
+            pageContext.setProperty(PAGE_HAS_MORE_PROPERTY, hasMore);
+            return sequence.mediate(pageContext);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox;
+
+import org.apache.synapse.Mediator;
+import org.apache.synapse.MessageContext;
+import org.wso2.carbon.connector.core.AbstractConnector;
+import org.wso2.carbon.connector.core.ConnectException;
+import org.wso2.carbon.connector.dropbox.client.DropboxApiException;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+import org.wso2.carbon.connector.dropbox.listing.FieldProjection;
+import org.wso2.carbon.connector.dropbox.listing.FolderWalker;
+import org.wso2.carbon.connector.dropbox.util.DropboxUtils;
+import org.wso2.carbon.connector.dropbox.util.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Runs searchV2 when its results are projected to selected fields or walked page by page.
+ * <p>
+ * With the fields parameter, every match is reduced to the listed fields of its metadata, see
+ * {@link FieldProjection}. With the pageSequence parameter, every page of the search is mediated through that
+ * sequence as {@link PagedFolderLister} does for folder listings, and the operation returns a summary with the last
+ * cursor. Otherwise the response is the first page. The search starts from the cursor parameter when it is given.
+ */
+public class PagedSearcher extends AbstractConnector {
+
+    @Override
+    public void connect(MessageContext messageContext) throws ConnectException {
+        DropboxClient client = DropboxClient.forMessage(messageContext);
+        FieldProjection projection = FieldProjection.parse(
+                DropboxUtils.getTrimmedText(messageContext, DropboxConstants.FIELDS));
+        String endpoint;
+        JsonWriter writer = JsonWriter.reusable();
+        if (DropboxUtils.getText(messageContext, DropboxConstants.CURSOR) == null) {
+            endpoint = FolderWalker.SEARCH_V2_ENDPOINT;
+            ApiArgument.SEARCH_V2.write(writer, messageContext);
+        } else {
+            endpoint = FolderWalker.SEARCH_CONTINUE_ENDPOINT;
+            ApiArgument.SEARCH_CONTINUE_V2.write(writer, messageContext);
+        }
+        String argument = writer.toString();
+
+        try {
+            if (DropboxUtils.getTrimmedText(messageContext, DropboxConstants.PAGE_SEQUENCE) == null) {
+                String page = client.rpc(endpoint, argument);
+                DropboxUtils.setJsonResponse(messageContext,
+                        projection == null ? page : projection.project(page), 200);
+                return;
+            }
+            Mediator sequence = PagedFolderLister.getPageSequence(messageContext);
+            int maxPages = DropboxUtils.getInt(messageContext, DropboxConstants.MAX_PAGES, Integer.MAX_VALUE);
+            FolderWalker.Result result = FolderWalker.forSearch(client).walk(endpoint, argument, maxPages,
+                    new PagedFolderLister.PageMediator(messageContext, sequence, projection));
+            writer = JsonWriter.reusable();
+            writer.beginObject();
+            result.writeTo(writer);
+            writer.endObject();
+            DropboxUtils.setJsonResponse(messageContext, writer.toString(), 200);
+        } catch (DropboxApiException e) {
+            log.error("Error while searching Dropbox: " + e.getMessage());
+            DropboxUtils.setJsonResponse(messageContext, e.getErrorDocument(), e.getStatusCode());
+        } catch (IOException e) {
+            throw new ConnectException(e, "Error while searching Dropbox");
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox;
+
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.commons.json.JsonUtil;
+import org.apache.synapse.core.axis2.Axis2MessageContext;
+import org.wso2.carbon.connector.core.AbstractConnector;
+import org.wso2.carbon.connector.core.ConnectException;
+import org.wso2.carbon.connector.dropbox.listing.FieldProjection;
+import org.wso2.carbon.connector.dropbox.util.DropboxUtils;
+import org.wso2.carbon.connector.dropbox.util.JsonWriter;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reduces the response of a metadata operation to the fields listed in the fields parameter, see
+ * {@link FieldProjection}. Runs at the end of the templates of the operations that return metadata.
+ * <p>
+ * The JSON payload is streamed through the projection, so that the full response is never built into an XML object
+ * model by the mediators that follow. Error responses, and responses of operations called without fields, are left
+ * as they are. In blocking mode {@link DropboxInvoker} already projects the response while reading it from the
+ * connection, and this mediator has nothing left to do.
+ */
+public class ResponseProjector extends AbstractConnector {
+
+    static final String PROJECTED_PROPERTY = "dropbox.projected";
+
+    @Override
+    public void connect(MessageContext messageContext) throws ConnectException {
+        if (messageContext.getProperty(PROJECTED_PROPERTY) != null) {
+            messageContext.getPropertyKeySet().remove(PROJECTED_PROPERTY);
+            return;
+        }
+        String fields = DropboxUtils.getTrimmedText(messageContext, DropboxConstants.FIELDS);
+        FieldProjection projection = FieldProjection.parse(fields);
+        if (projection == null) {
+            return;
+        }
+        org.apache.axis2.context.MessageContext axis2MessageContext =
+                ((Axis2MessageContext) messageContext).getAxis2MessageContext();
+        int statusCode = getStatusCode(axis2MessageContext);
+        if ((statusCode != 0 && statusCode / 100 != 2) || !JsonUtil.hasAJsonPayload(axis2MessageContext)) {
+            return;
+        }
+        JsonWriter writer = JsonWriter.reusable();
+        try {
+            projection.project(new InputStreamReader(JsonUtil.getJsonPayload(axis2MessageContext),
+                    StandardCharsets.UTF_8), writer);
+        } catch (IOException e) {
+            throw new ConnectException(e, "Error while projecting the response to the fields " + fields);
+        }
+        DropboxUtils.setJsonResponse(messageContext, writer.toString(), statusCode == 0 ? 200 : statusCode);
+    }
+
+    private static int getStatusCode(org.apache.axis2.context.MessageContext axis2MessageContext) {
+        Object statusCode = axis2MessageContext.getProperty(DropboxConstants.HTTP_SC);
+        if (statusCode != null) {
+            try {
+                return Integer.parseInt(statusCode.toString().trim());
+            } catch (NumberFormatException ignored) {
+                // Treated as unknown.
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox;
+
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.registry.Registry;
+import org.wso2.carbon.connector.core.AbstractConnector;
+import org.wso2.carbon.connector.core.ConnectException;
+import org.wso2.carbon.connector.dropbox.client.DropboxApiException;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+import org.wso2.carbon.connector.dropbox.sync.CursorStore;
+import org.wso2.carbon.connector.dropbox.sync.FileCursorStore;
+import org.wso2.carbon.connector.dropbox.sync.RegistryCursorStore;
+import org.wso2.carbon.connector.dropbox.upload.ParallelChunkUploader;
+import org.wso2.carbon.connector.dropbox.upload.ResumableUpload;
+import org.wso2.carbon.connector.dropbox.util.DropboxUtils;
+import org.wso2.carbon.connector.dropbox.util.JsonWriter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Uploads a local file through an upload session that survives restarts of the ESB. The progress of the upload is
+ * kept in a local directory, or in the Synapse registry when sessionStore is registry, under a key derived from the
+ * Dropbox account ID and the uploadId parameter (the Dropbox path and the source file by default), so that the upload
+ * can be resumed after the access token changes. Running the operation again
+ * with the same parameters after a failure continues the upload from the offset Dropbox holds for the session.
+ * <p>
+ * The response is the metadata of the committed file, and the dropbox.resumedFrom property is set to the offset the
+ * upload continued from when it was resumed.
+ */
+public class ResumableUploader extends AbstractConnector {
+
+    public static final String RESUMED_FROM_PROPERTY = "dropbox.resumedFrom";
+
+    private static final String REGISTRY_STORE = "registry";
+
+    private static final String DEFAULT_REGISTRY_COLLECTION = "conf:/dropbox/uploads";
+
+    private static final String DEFAULT_SESSION_DIRECTORY = "repository/data/dropbox-uploads";
+
+    private static final String SESSION_EXTENSION = ".upload";
+
+    @Override
+    public void connect(MessageContext messageContext) throws ConnectException {
+        DropboxClient client = DropboxClient.forMessage(messageContext);
+        Path source = FileUploader.resolveSource(DropboxUtils.getText(messageContext, DropboxConstants.SOURCE_PATH));
+        int chunkSize = DropboxUtils.getInt(messageContext, DropboxConstants.CHUNK_SIZE,
+                ParallelChunkUploader.DEFAULT_CHUNK_SIZE);
+        JsonWriter writer = JsonWriter.reusable().asciiOnly(true);
+        ApiArgument.UPLOAD_FILE.write(writer, messageContext);
+        String commit = writer.toString();
+
+        CursorStore store = getSessionStore(messageContext);
+        try {
+            ResumableUpload upload = new ResumableUpload(client, store, getUploadKey(messageContext, client, source),
+                    chunkSize);
+            String metadata = upload.upload(source, commit);
+            if (upload.getResumedFrom() >= 0) {
+                messageContext.setProperty(RESUMED_FROM_PROPERTY, upload.getResumedFrom());
+            }
+            DropboxUtils.setJsonResponse(messageContext, metadata, 200);
+        } catch (DropboxApiException e) {
+            log.error("Error while uploading " + source + " to Dropbox: " + e.getMessage());
+            DropboxUtils.setJsonResponse(messageContext, e.getErrorDocument(), e.getStatusCode());
+        } catch (IOException e) {
+            throw new ConnectException(e, "Error while uploading " + source + " to Dropbox, run the operation again "
+                    + "to resume the upload");
+        }
+    }
+
+    private static CursorStore getSessionStore(MessageContext messageContext) throws ConnectException {
+        String location = DropboxUtils.getTrimmedText(messageContext, DropboxConstants.SESSION_LOCATION);
+        if (REGISTRY_STORE.equals(DropboxUtils.getTrimmedText(messageContext, DropboxConstants.SESSION_STORE))) {
+            Registry registry = messageContext.getConfiguration().getRegistry();
+            if (registry == null) {
+                throw new ConnectException("No registry is configured to store the upload sessions");
+            }
+            return new RegistryCursorStore(registry, location == null ? DEFAULT_REGISTRY_COLLECTION : location);
+        }
+        Path directory = location == null
+                ? Paths.get(System.getProperty("carbon.home", "."), DEFAULT_SESSION_DIRECTORY) : Paths.get(location);
+        return new FileCursorStore(directory, SESSION_EXTENSION);
+    }
+
+    private static String getUploadKey(MessageContext messageContext, DropboxClient client, Path source)
+            throws IOException {
+        String uploadId = DropboxUtils.getText(messageContext, DropboxConstants.UPLOAD_ID);
+        if (uploadId == null) {
+            uploadId = DropboxUtils.getText(messageContext, DropboxConstants.PATH) + "|" + source.toAbsolutePath();
+        }
+        return DropboxUtils.digestKey(FolderSync.getAccountId(client) + "\n" + uploadId);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox;
+
+import org.apache.synapse.MessageContext;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.wso2.carbon.connector.core.AbstractConnector;
+import org.wso2.carbon.connector.core.ConnectException;
+import org.wso2.carbon.connector.dropbox.batch.AsyncJobManager;
+import org.wso2.carbon.connector.dropbox.batch.AsyncJobPoller;
+import org.wso2.carbon.connector.dropbox.client.DropboxApiException;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+import org.wso2.carbon.connector.dropbox.util.DropboxUtils;
+import org.wso2.carbon.connector.dropbox.util.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Saves the content of a URL to a file in Dropbox. Dropbox downloads the URL in an asynchronous job, which this
+ * operation waits for; the response is the final status of the job, tagged complete with the metadata of the file or
+ * failed with the reason.
+ * <p>
+ * When the continuationSequence parameter is set, the job is tracked by the {@link AsyncJobManager} instead: the
+ * mediation of the message stops here and resumes in the continuation sequence with the status.
+ */
+public class SaveUrlOperation extends AbstractConnector {
+
+    static final String SAVE_URL_ENDPOINT = "/files/save_url";
+
+    static final String CHECK_ENDPOINT = "/files/save_url/check_job_status";
+
+    private static final int DEFAULT_TIMEOUT_SECONDS = 300;
+
+    @Override
+    public boolean mediate(MessageContext messageContext) {
+        boolean async = AsyncContinuation.isRequested(messageContext);
+        return super.mediate(messageContext) && !async;
+    }
+
+    @Override
+    public void connect(MessageContext messageContext) throws ConnectException {
+        DropboxClient client = DropboxClient.forMessage(messageContext);
+        if (DropboxUtils.getText(messageContext, DropboxConstants.URL) == null) {
+            throw new ConnectException("The url parameter is required for saveUrl");
+        }
+        long timeout = DropboxUtils.getInt(messageContext, DropboxConstants.TIMEOUT, DEFAULT_TIMEOUT_SECONDS) * 1000L;
+        AsyncContinuation continuation = AsyncContinuation.forMessage(messageContext);
+        JsonWriter writer = JsonWriter.reusable();
+        ApiArgument.SAVE_URL.write(writer, messageContext);
+        String argument = writer.toString();
+        try {
+            JSONObject status = AsyncJobPoller.parse(SAVE_URL_ENDPOINT, client.rpc(SAVE_URL_ENDPOINT, argument));
+            boolean pending = "async_job_id".equals(AsyncJobPoller.getTag(status));
+            if (continuation != null) {
+                if (pending) {
+                    AsyncJobManager.getInstance().submit(client, CHECK_ENDPOINT, status.getString("async_job_id"),
+                            timeout, new ContinuationListener(continuation));
+                } else {
+                    continuation.resume(status.toString(), 200);
+                }
+                return;
+            }
+            if (pending) {
+                AsyncJobPoller poller = new AsyncJobPoller(client, AsyncJobPoller.DEFAULT_INITIAL_INTERVAL,
+                        AsyncJobPoller.DEFAULT_MAX_INTERVAL, timeout);
+                status = poller.await(CHECK_ENDPOINT, status.getString("async_job_id"));
+            }
+            DropboxUtils.setJsonResponse(messageContext, status.toString(), 200);
+        } catch (DropboxApiException e) {
+            log.error("Error while saving the URL: " + e.getMessage());
+            if (continuation != null) {
+                continuation.resume(e.getErrorDocument(), e.getStatusCode());
+            } else {
+                DropboxUtils.setJsonResponse(messageContext, e.getErrorDocument(), e.getStatusCode());
+            }
+        } catch (JSONException e) {
+            throw new ConnectException(e, "Unexpected response from " + SAVE_URL_ENDPOINT + ": " + e.getMessage());
+        } catch (IOException e) {
+            throw new ConnectException(e, "Error while saving the URL");
+        }
+    }
+
+    /**
+     * Resumes the message with the final status of the job, or with the error of a failed status check.
+     */
+    private class ContinuationListener implements AsyncJobManager.Listener {
+
+        private final AsyncContinuation continuation;
+
+        ContinuationListener(AsyncContinuation continuation) {
+            this.continuation = continuation;
+        }
+
+        @Override
+        public void onComplete(JSONObject status) {
+            continuation.resume(status.toString(), 200);
+        }
+
+        @Override
+        public void onError(IOException e) {
+            log.error("Error while saving the URL: " + e.getMessage());
+            if (e instanceof DropboxApiException) {
+                DropboxApiException apiException = (DropboxApiException) e;
+                continuation.resume(apiException.getErrorDocument(), apiException.getStatusCode());
+            } else {
+                continuation.fail(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox;
+
+import org.apache.http.Header;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.entity.ContentType;
+import org.apache.synapse.MessageContext;
+import org.wso2.carbon.connector.core.AbstractConnector;
+import org.wso2.carbon.connector.core.ConnectException;
+import org.wso2.carbon.connector.dropbox.client.DropboxApiException;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+import org.wso2.carbon.connector.dropbox.download.FileDownloader;
+import org.wso2.carbon.connector.dropbox.download.ParallelRangeDownloader;
+import org.wso2.carbon.connector.dropbox.download.ResponseDataSource;
+import org.wso2.carbon.connector.dropbox.util.DropboxUtils;
+import org.wso2.carbon.connector.dropbox.util.JsonWriter;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Map;
+
+/**
+ * Downloads a file without building its content into the message envelope.
+ * <p>
+ * When a destination path is given the content is written to that local file and the response is the file metadata.
+ * Otherwise the content becomes the message payload as a stream that is read from Dropbox only while the message is
+ * written to the client, see {@link ResponseDataSource}, with the metadata in the Dropbox-API-Result header as the
+ * only transport header of the response.
+ * <p>
+ * When parallelism is greater than one, a download to a destination path fetches parts of partSize bytes
+ * concurrently with Range requests, from /files/download or, with useTemporaryLink, from a temporary link.
+ */
+public class StreamingDownloader extends AbstractConnector {
+
+    private static final String DOWNLOAD_ENDPOINT = "/files/download";
+
+    @Override
+    public void connect(MessageContext messageContext) throws ConnectException {
+        DropboxClient client = DropboxClient.forMessage(messageContext);
+        JsonWriter writer = JsonWriter.reusable().asciiOnly(true);
+        ApiArgument.DOWNLOAD.write(writer, messageContext);
+        String destination = DropboxUtils.getText(messageContext, DropboxConstants.DESTINATION_PATH);
+        int parallelism = DropboxUtils.getInt(messageContext, DropboxConstants.PARALLELISM, 1);
+        try {
+            if (destination != null && parallelism > 1) {
+                int partSize = DropboxUtils.getInt(messageContext, DropboxConstants.PART_SIZE,
+                        ParallelRangeDownloader.DEFAULT_PART_SIZE);
+                boolean useTemporaryLink = Boolean.parseBoolean(DropboxUtils.getTrimmedText(messageContext,
+                        DropboxConstants.USE_TEMPORARY_LINK));
+                ParallelRangeDownloader downloader = new ParallelRangeDownloader(client, partSize, parallelism,
+                        useTemporaryLink);
+                String metadata = downloader.download(DropboxUtils.getText(messageContext, DropboxConstants.PATH),
+                        Paths.get(destination));
+                DropboxUtils.setJsonResponse(messageContext, metadata, 200);
+                return;
+            }
+            CloseableHttpResponse response = client.download(DOWNLOAD_ENDPOINT, writer.toString());
+            String metadata = getHeader(response, DropboxConstants.API_RESULT_HEADER);
+            if (destination != null) {
+                long written = FileDownloader.write(response, Paths.get(destination));
+                if (log.isDebugEnabled()) {
+                    log.debug("Downloaded " + written + " bytes from Dropbox to " + destination);
+                }
+                DropboxUtils.setJsonResponse(messageContext, metadata == null ? "{}" : metadata, 200);
+            } else {
+                String contentType = getHeader(response, "Content-Type");
+                DropboxUtils.setBinaryResponse(messageContext, new ResponseDataSource(response,
+                        contentType == null ? ContentType.APPLICATION_OCTET_STREAM.getMimeType() : contentType));
+                Map<String, Object> headers = DropboxUtils.resetTransportHeaders(messageContext);
+                if (metadata != null) {
+                    headers.put(DropboxConstants.API_RESULT_HEADER, metadata);
+                }
+            }
+        } catch (DropboxApiException e) {
+            log.error("Error while downloading from Dropbox: " + e.getMessage());
+            DropboxUtils.setJsonResponse(messageContext, e.getErrorDocument(), e.getStatusCode());
+        } catch (IOException e) {
+            throw new ConnectException(e, "Error while downloading the file from Dropbox");
+        }
+    }
+
+    private static String getHeader(CloseableHttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+}
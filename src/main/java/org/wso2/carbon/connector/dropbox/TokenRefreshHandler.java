@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox;
+
+import org.apache.synapse.MessageContext;
+import org.wso2.carbon.connector.core.AbstractConnector;
+import org.wso2.carbon.connector.core.ConnectException;
+import org.wso2.carbon.connector.dropbox.auth.AccessTokenManager;
+import org.wso2.carbon.connector.dropbox.client.DropboxConnection;
+import org.wso2.carbon.connector.dropbox.client.DropboxHttpClient;
+import org.wso2.carbon.connector.dropbox.util.DropboxUtils;
+
+import java.io.IOException;
+
+/**
+ * Called by init when a refresh token is given. Sets the access token of the message to the one cached for the
+ * refresh token by its {@link AccessTokenManager}, which calls the OAuth token endpoint only when the cached token is
+ * about to expire, and once for any number of concurrent messages.
+ */
+public class TokenRefreshHandler extends AbstractConnector {
+
+    @Override
+    public void connect(MessageContext messageContext) throws ConnectException {
+        AccessTokenManager manager = getManager(messageContext);
+        try {
+            messageContext.setProperty(DropboxConstants.ACCESS_TOKEN, manager.getAccessToken(
+                    AccessTokenManager.getRefreshMargin(messageContext)));
+        } catch (IOException e) {
+            throw new ConnectException(e, "Could not obtain a Dropbox access token with the refresh token: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Drops the access token of the message from the token cache when the message was initialized with a refresh
+     * token, so that the next message gets a new one. For a message initialized with a named connection, the
+     * connection drops the token, see {@link DropboxConnection#invalidate(String)}.
+     *
+     * @param messageContext the message whose access token Dropbox rejected.
+     * @throws ConnectException if the connection parameters of the message are not valid.
+     */
+    static void invalidate(MessageContext messageContext) throws ConnectException {
+        String accessToken = DropboxUtils.getTrimmedText(messageContext, DropboxConstants.ACCESS_TOKEN);
+        if (accessToken == null) {
+            return;
+        }
+        DropboxConnection connection = DropboxConnection.forMessage(messageContext);
+        if (connection != null) {
+            connection.invalidate(accessToken);
+        } else if (DropboxUtils.getTrimmedText(messageContext, DropboxConstants.REFRESH_TOKEN) != null) {
+            getManager(messageContext).invalidate(accessToken);
+        }
+    }
+
+    private static AccessTokenManager getManager(MessageContext messageContext) throws ConnectException {
+        return AccessTokenManager.forMessage(messageContext, DropboxHttpClient.forMessage(messageContext));
+    }
+}
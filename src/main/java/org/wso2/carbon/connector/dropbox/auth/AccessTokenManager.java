@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.auth;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpEntity;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.apache.synapse.MessageContext;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.wso2.carbon.connector.core.ConnectException;
+import org.wso2.carbon.connector.dropbox.DropboxConstants;
+import org.wso2.carbon.connector.dropbox.client.DropboxApiException;
+import org.wso2.carbon.connector.dropbox.client.DropboxHttpClient;
+import org.wso2.carbon.connector.dropbox.util.ConnectorExecutors;
+import org.wso2.carbon.connector.dropbox.util.DropboxUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Keeps the short-lived access token of a refresh token, shared by every message using the same app key and refresh
+ * token.
+ * <p>
+ * A cached token is served until it is within the refresh margin of its expiry. Inside the margin the token is
+ * refreshed in the background while the current one is still served, and once it has expired callers wait for the
+ * new one. Only one refresh per refresh token is in flight at any time: concurrent callers join the running refresh
+ * instead of calling the token endpoint themselves. After a failed background refresh no new one is started for
+ * {@link #FAILURE_BACKOFF} ms, so that an unavailable token endpoint is not called by every message in the margin.
+ */
+public final class AccessTokenManager {
+
+    private static final Log log = LogFactory.getLog(AccessTokenManager.class);
+
+    public static final String DEFAULT_TOKEN_URL = "https://api.dropboxapi.com/oauth2/token";
+
+    public static final long DEFAULT_REFRESH_MARGIN = 300000;
+
+    static final long FAILURE_BACKOFF = 10000;
+
+    private static final ConcurrentMap<String, AccessTokenManager> MANAGERS =
+            new ConcurrentHashMap<String, AccessTokenManager>();
+
+    private final DropboxHttpClient httpClient;
+
+    private final String tokenUrl;
+
+    private final String appKey;
+
+    private final String appSecret;
+
+    private final String refreshToken;
+
+    private volatile AccessToken current;
+
+    private volatile long lastFailure;
+
+    private FutureTask<AccessToken> refresh;
+
+    AccessTokenManager(DropboxHttpClient httpClient, String tokenUrl, String appKey, String appSecret,
+                       String refreshToken) {
+        this.httpClient = httpClient;
+        this.tokenUrl = tokenUrl;
+        this.appKey = appKey;
+        this.appSecret = appSecret;
+        this.refreshToken = refreshToken;
+    }
+
+    /**
+     * Returns the manager of a refresh token, creating it on first use.
+     *
+     * @param httpClient   the client used for the token calls of a new manager.
+     * @param tokenUrl     the OAuth token endpoint.
+     * @param appKey       the app key the refresh token was issued to.
+     * @param appSecret    the app secret, or null for apps using PKCE.
+     * @param refreshToken the refresh token.
+     * @return the shared manager.
+     */
+    public static AccessTokenManager forRefreshToken(DropboxHttpClient httpClient, String tokenUrl, String appKey,
+                                                     String appSecret, String refreshToken) {
+        String key = DropboxUtils.digestKey(tokenUrl + "\n" + appKey + "\n" + appSecret + "\n" + refreshToken);
+        AccessTokenManager manager = MANAGERS.get(key);
+        if (manager == null) {
+            AccessTokenManager created = new AccessTokenManager(httpClient, tokenUrl, appKey, appSecret,
+                    refreshToken);
+            manager = MANAGERS.putIfAbsent(key, created);
+            if (manager == null) {
+                manager = created;
+            }
+        }
+        return manager;
+    }
+
+    /**
+     * Returns the manager of the refresh token given to the init operation.
+     *
+     * @param messageContext the message context.
+     * @param httpClient     the client used for the token calls of a new manager.
+     * @return the shared manager.
+     * @throws ConnectException if the refresh token or app key is missing.
+     */
+    public static AccessTokenManager forMessage(MessageContext messageContext, DropboxHttpClient httpClient)
+            throws ConnectException {
+        String refreshToken = DropboxUtils.getTrimmedText(messageContext, DropboxConstants.REFRESH_TOKEN);
+        String appKey = DropboxUtils.getTrimmedText(messageContext, DropboxConstants.APP_KEY);
+        if (refreshToken == null || appKey == null) {
+            throw new ConnectException("The refreshToken and appKey parameters of init are required to refresh the "
+                    + "Dropbox access token");
+        }
+        String tokenUrl = DropboxUtils.getTrimmedText(messageContext, DropboxConstants.TOKEN_URL);
+        return forRefreshToken(httpClient, tokenUrl == null ? DEFAULT_TOKEN_URL : tokenUrl, appKey,
+                DropboxUtils.getTrimmedText(messageContext, DropboxConstants.APP_SECRET), refreshToken);
+    }
+
+    /**
+     * Reads the tokenRefreshMargin init parameter, given in seconds.
+     *
+     * @param messageContext the message context.
+     * @return the refresh margin, in milliseconds.
+     * @throws ConnectException if the margin is not a valid integer.
+     */
+    public static long getRefreshMargin(MessageContext messageContext) throws ConnectException {
+        long margin = DropboxUtils.getInt(messageContext, DropboxConstants.TOKEN_REFRESH_MARGIN, -1);
+        return margin < 0 ? DEFAULT_REFRESH_MARGIN : margin * 1000;
+    }
+
+    /**
+     * Returns an access token that is valid for at least the refresh margin, or, while a background refresh is
+     * running, the current token until it expires.
+     *
+     * @param refreshMargin how long before its expiry a token is refreshed, in milliseconds.
+     * @return the access token.
+     * @throws IOException if no valid token is cached and the token endpoint cannot issue one.
+     */
+    public String getAccessToken(long refreshMargin) throws IOException {
+        AccessToken token = current;
+        long now = System.currentTimeMillis();
+        if (token != null && now < token.expiresAt - refreshMargin) {
+            return token.value;
+        }
+        if (token != null && now < token.expiresAt) {
+            if (now - lastFailure >= FAILURE_BACKOFF) {
+                FutureTask<AccessToken> task = startRefresh();
+                if (task != null) {
+                    ConnectorExecutors.transfers().execute(task);
+                }
+            }
+            return token.value;
+        }
+        FutureTask<AccessToken> task = startRefresh();
+        if (task != null) {
+            task.run();
+        } else {
+            task = getRefresh();
+            if (task == null) {
+                // The refresh finished between the two checks.
+                return getAccessToken(refreshMargin);
+            }
+        }
+        try {
+            return task.get().value;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the Dropbox access token");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Could not refresh the Dropbox access token", cause);
+        }
+    }
+
+    /**
+     * Drops the cached token, e.g. after Dropbox rejected it, so that the next call refreshes it.
+     *
+     * @param accessToken the rejected token. A newer token is kept.
+     */
+    public void invalidate(String accessToken) {
+        AccessToken token = current;
+        if (token != null && token.value.equals(accessToken)) {
+            current = null;
+        }
+    }
+
+    /**
+     * Creates the refresh task when none is in flight. The caller that gets the task runs it; other callers get null.
+     */
+    private synchronized FutureTask<AccessToken> startRefresh() {
+        if (refresh != null) {
+            return null;
+        }
+        refresh = new FutureTask<AccessToken>(new Callable<AccessToken>() {
+            @Override
+            public AccessToken call() throws IOException {
+                try {
+                    AccessToken token = requestToken();
+                    current = token;
+                    return token;
+                } catch (IOException e) {
+                    lastFailure = System.currentTimeMillis();
+                    log.warn("Could not refresh the Dropbox access token: " + e.getMessage());
+                    throw e;
+                } finally {
+                    finishRefresh();
+                }
+            }
+        });
+        return refresh;
+    }
+
+    private synchronized FutureTask<AccessToken> getRefresh() {
+        return refresh;
+    }
+
+    private synchronized void finishRefresh() {
+        refresh = null;
+    }
+
+    private AccessToken requestToken() throws IOException {
+        List<NameValuePair> form = new ArrayList<NameValuePair>();
+        form.add(new BasicNameValuePair("grant_type", "refresh_token"));
+        form.add(new BasicNameValuePair("refresh_token", refreshToken));
+        form.add(new BasicNameValuePair("client_id", appKey));
+        if (appSecret != null) {
+            form.add(new BasicNameValuePair("client_secret", appSecret));
+        }
+        HttpPost post = new HttpPost(tokenUrl);
+        post.setEntity(new UrlEncodedFormEntity(form, StandardCharsets.UTF_8));
+        long requested = System.currentTimeMillis();
+        CloseableHttpResponse response = httpClient.execute(post);
+        try {
+            HttpEntity entity = response.getEntity();
+            String body = entity == null ? "" : EntityUtils.toString(entity, StandardCharsets.UTF_8);
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode != 200) {
+                throw new DropboxApiException(tokenUrl, statusCode, body);
+            }
+            JSONObject json = new JSONObject(body);
+            // Measured from the request so that the time spent on the call is not counted as validity.
+            return new AccessToken(json.getString("access_token"), requested + json.getLong("expires_in") * 1000);
+        } catch (JSONException e) {
+            throw new IOException("Unexpected response from the Dropbox token endpoint", e);
+        } finally {
+            response.close();
+        }
+    }
+
+    private static final class AccessToken {
+
+        final String value;
+
+        final long expiresAt;
+
+        AccessToken(String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
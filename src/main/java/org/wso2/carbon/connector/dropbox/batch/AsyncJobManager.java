@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.batch;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.json.JSONObject;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+import org.wso2.carbon.connector.dropbox.util.ConnectorExecutors;
+import org.wso2.carbon.connector.dropbox.util.JsonWriter;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Tracks Dropbox asynchronous jobs without holding a thread per job. Registered jobs are checked on the shared
+ * connector scheduler and the listener of a job is notified once it is no longer in progress.
+ * <p>
+ * The checks of a job back off exponentially like those of {@link AsyncJobPoller}. The first check is adaptive: it is
+ * delayed by half the average time recent jobs of the same kind took to finish, so that long-running job types are
+ * not checked needlessly early. The checks themselves run on the transfer executor; the scheduler only times them.
+ */
+public final class AsyncJobManager {
+
+    private static final Log log = LogFactory.getLog(AsyncJobManager.class);
+
+    /**
+     * Folds a job duration into the average of its kind. The average is exponentially weighted, so that a change in
+     * the typical job length is picked up after a few jobs.
+     */
+    private static final BiFunction<Long, Long, Long> WEIGHTED_AVERAGE = new BiFunction<Long, Long, Long>() {
+        @Override
+        public Long apply(Long average, Long duration) {
+            return (average * 3 + duration) / 4;
+        }
+    };
+
+    private static final AsyncJobManager INSTANCE = new AsyncJobManager(ConnectorExecutors.scheduler(),
+            ConnectorExecutors.transfers(), AsyncJobPoller.DEFAULT_INITIAL_INTERVAL,
+            AsyncJobPoller.DEFAULT_MAX_INTERVAL);
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Executor workers;
+
+    private final long initialInterval;
+
+    private final long maxInterval;
+
+    private final ConcurrentMap<String, Job> jobs = new ConcurrentHashMap<String, Job>();
+
+    /**
+     * The average duration of the finished jobs of each check endpoint, in milliseconds.
+     */
+    private final ConcurrentMap<String, Long> averageDurations = new ConcurrentHashMap<String, Long>();
+
+    AsyncJobManager(ScheduledExecutorService scheduler, Executor workers, long initialInterval, long maxInterval) {
+        this.scheduler = scheduler;
+        this.workers = workers;
+        this.initialInterval = initialInterval;
+        this.maxInterval = maxInterval;
+    }
+
+    public static AsyncJobManager getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Receives the outcome of a job. The listener is called on a connector thread, never on the registering one.
+     */
+    public interface Listener {
+
+        /**
+         * @param status the final status of the job, tagged complete or failed.
+         */
+        void onComplete(JSONObject status);
+
+        /**
+         * @param e the error of a status check, or an {@link AsyncJobTimeoutException}.
+         */
+        void onError(IOException e);
+    }
+
+    /**
+     * Registers a job and schedules its first status check.
+     *
+     * @param client        the client of the account that owns the job.
+     * @param checkEndpoint the status endpoint of the job type, e.g. /files/copy_batch/check_v2.
+     * @param asyncJobId    the job id returned by the launch of the job.
+     * @param timeout       the maximum time to wait for the job, in milliseconds.
+     * @param listener      the listener to notify when the job has finished.
+     * @throws IllegalStateException if the job is already registered.
+     */
+    public void submit(DropboxClient client, String checkEndpoint, String asyncJobId, long timeout,
+                       Listener listener) {
+        JsonWriter writer = JsonWriter.reusable();
+        writer.beginObject().name("async_job_id").value(asyncJobId).endObject();
+        Job job = new Job(client, checkEndpoint, asyncJobId, writer.toString(), timeout, listener);
+        if (jobs.putIfAbsent(asyncJobId, job) != null) {
+            throw new IllegalStateException("The Dropbox job " + asyncJobId + " is already registered");
+        }
+        job.schedule(Math.min(job.interval, timeout));
+    }
+
+    /**
+     * Stops tracking a job. Its listener is not notified.
+     *
+     * @param asyncJobId the job id.
+     * @return whether the job was registered.
+     */
+    public boolean cancel(String asyncJobId) {
+        Job job = jobs.remove(asyncJobId);
+        if (job == null) {
+            return false;
+        }
+        job.cancel();
+        return true;
+    }
+
+    /**
+     * @return the number of registered jobs that have not finished yet.
+     */
+    public int getPendingJobs() {
+        return jobs.size();
+    }
+
+    long getFirstInterval(String checkEndpoint) {
+        Long average = averageDurations.get(checkEndpoint);
+        if (average == null) {
+            return initialInterval;
+        }
+        return Math.max(initialInterval, Math.min(maxInterval, average / 2));
+    }
+
+    private void recordDuration(String checkEndpoint, long duration) {
+        averageDurations.merge(checkEndpoint, duration, WEIGHTED_AVERAGE);
+    }
+
+    private final class Job implements Runnable {
+
+        private final DropboxClient client;
+
+        private final String checkEndpoint;
+
+        private final String asyncJobId;
+
+        private final String argument;
+
+        private final Listener listener;
+
+        private final long started = System.currentTimeMillis();
+
+        private final long deadline;
+
+        private long interval;
+
+        private volatile Future<?> scheduled;
+
+        private volatile boolean cancelled;
+
+        Job(DropboxClient client, String checkEndpoint, String asyncJobId, String argument, long timeout,
+            Listener listener) {
+            this.client = client;
+            this.checkEndpoint = checkEndpoint;
+            this.asyncJobId = asyncJobId;
+            this.argument = argument;
+            this.listener = listener;
+            this.deadline = started + timeout;
+            this.interval = getFirstInterval(checkEndpoint);
+        }
+
+        void schedule(long delay) {
+            scheduled = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    workers.execute(Job.this);
+                }
+            }, Math.max(0, delay), TimeUnit.MILLISECONDS);
+        }
+
+        void cancel() {
+            cancelled = true;
+            Future<?> future = scheduled;
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+
+        /**
+         * Checks the status of the job once.
+         */
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            JSONObject status;
+            try {
+                status = AsyncJobPoller.parse(checkEndpoint, client.rpc(checkEndpoint, argument));
+            } catch (IOException e) {
+                if (finish()) {
+                    notifyError(e);
+                }
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if (!AsyncJobPoller.isInProgress(status)) {
+                recordDuration(checkEndpoint, now - started);
+                if (finish()) {
+                    notifyComplete(status);
+                }
+            } else if (now >= deadline) {
+                if (finish()) {
+                    notifyError(new AsyncJobTimeoutException(asyncJobId, deadline - started));
+                }
+            } else {
+                interval = Math.min(maxInterval, (long) (interval * AsyncJobPoller.BACKOFF_MULTIPLIER));
+                schedule(Math.min(interval, deadline - now));
+            }
+        }
+
+        /**
+         * @return false if the job was cancelled in the meantime, in which case the listener is not notified.
+         */
+        private boolean finish() {
+            return jobs.remove(asyncJobId, this);
+        }
+
+        private void notifyComplete(JSONObject status) {
+            try {
+                listener.onComplete(status);
+            } catch (RuntimeException e) {
+                log.error("Error while handling the completion of the Dropbox job " + asyncJobId, e);
+            }
+        }
+
+        private void notifyError(IOException e) {
+            try {
+                listener.onError(e);
+            } catch (RuntimeException re) {
+                log.error("Error while handling the failure of the Dropbox job " + asyncJobId, re);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.batch;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+import org.wso2.carbon.connector.dropbox.util.JsonWriter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Polls the status of a Dropbox asynchronous job until it is no longer in progress. The polling interval starts
+ * short and grows exponentially, so quick jobs return fast while long jobs do not flood the API with checks.
+ */
+public class AsyncJobPoller {
+
+    public static final long DEFAULT_INITIAL_INTERVAL = 500;
+
+    public static final long DEFAULT_MAX_INTERVAL = 5000;
+
+    static final double BACKOFF_MULTIPLIER = 1.5;
+
+    private final DropboxClient client;
+
+    private final long initialInterval;
+
+    private final long maxInterval;
+
+    private final long timeout;
+
+    /**
+     * @param client          the client of the account that owns the job.
+     * @param initialInterval the delay before the first check, in milliseconds.
+     * @param maxInterval     the maximum delay between checks, in milliseconds.
+     * @param timeout         the maximum time to wait for the job, in milliseconds.
+     */
+    public AsyncJobPoller(DropboxClient client, long initialInterval, long maxInterval, long timeout) {
+        this.client = client;
+        this.initialInterval = initialInterval;
+        this.maxInterval = maxInterval;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Waits for a job to finish.
+     *
+     * @param checkEndpoint the status endpoint of the job type, e.g. /files/copy_batch/check_v2.
+     * @param asyncJobId    the job id.
+     * @return the final status, tagged complete or failed.
+     * @throws AsyncJobTimeoutException if the job does not finish within the timeout.
+     * @throws IOException              if a check fails.
+     */
+    public JSONObject await(String checkEndpoint, String asyncJobId) throws IOException {
+        JsonWriter writer = JsonWriter.reusable();
+        writer.beginObject().name("async_job_id").value(asyncJobId).endObject();
+        String argument = writer.toString();
+        long deadline = System.currentTimeMillis() + timeout;
+        long interval = initialInterval;
+        while (true) {
+            sleep(Math.min(interval, Math.max(0, deadline - System.currentTimeMillis())));
+            JSONObject status = parse(checkEndpoint, client.rpc(checkEndpoint, argument));
+            if (!isInProgress(status)) {
+                return status;
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                throw new AsyncJobTimeoutException(asyncJobId, timeout);
+            }
+            interval = Math.min(maxInterval, (long) (interval * BACKOFF_MULTIPLIER));
+        }
+    }
+
+    /**
+     * @param status a job launch or status response.
+     * @return the tag of the response, e.g. complete, in_progress or async_job_id.
+     */
+    public static String getTag(JSONObject status) {
+        return status.optString(".tag");
+    }
+
+    static boolean isInProgress(JSONObject status) {
+        return "in_progress".equals(getTag(status));
+    }
+
+    /**
+     * @param endpoint the endpoint that returned the response, for the error message.
+     * @param response a job launch or status response.
+     * @return the parsed response.
+     * @throws IOException if the response is not a JSON object.
+     */
+    public static JSONObject parse(String endpoint, String response) throws IOException {
+        try {
+            return new JSONObject(response);
+        } catch (JSONException e) {
+            throw new IOException("Unexpected response from " + endpoint + ": " + response, e);
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a Dropbox job");
+        }
+    }
+}
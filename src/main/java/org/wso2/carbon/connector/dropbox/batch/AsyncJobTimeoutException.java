@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.batch;
+
+import java.io.IOException;
+
+/**
+ * Signals that a Dropbox asynchronous job did not finish within the time allowed for it. The job itself may still
+ * complete, and its status can be checked with its id.
+ */
+public class AsyncJobTimeoutException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String asyncJobId;
+
+    public AsyncJobTimeoutException(String asyncJobId, long timeout) {
+        super("Dropbox job " + asyncJobId + " did not complete within " + timeout + " ms");
+        this.asyncJobId = asyncJobId;
+    }
+
+    public String getAsyncJobId() {
+        return asyncJobId;
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.batch;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.wso2.carbon.connector.dropbox.client.DropboxApiException;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+import org.wso2.carbon.connector.dropbox.util.JsonWriter;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Runs a batch operation over any number of entries.
+ * <p>
+ * The entries are split into slices of the largest size the endpoint accepts. Slices are submitted one after the
+ * other, since Dropbox serializes batch jobs on the same namespace anyway, and each asynchronous job is polled until it
+ * finishes. The result has one element per entry, in the order of the input. A slice that fails as a whole reports
+ * the failure on each of its entries instead of failing the entire batch.
+ * <p>
+ * When the job of a slice does not finish in time, or a slice fails for a reason other than an API error, the batch
+ * stops there but the results of the slices already finished are kept. The entries of the unfinished slice report
+ * the id of its pending job, tagged in_progress, or the error, tagged failure, and the entries of the slices not
+ * launched are tagged not_started. The id of a pending job is also returned as the async_job_id of the result. Only
+ * an error of the first slice fails the batch, as there is nothing to keep then.
+ * <p>
+ * A batch is either run on the calling thread, which waits for the jobs with an {@link AsyncJobPoller}, or started
+ * with its jobs tracked by the {@link AsyncJobManager}, in which case no thread waits for Dropbox.
+ */
+public class BatchRunner {
+
+    private final DropboxClient client;
+
+    private final BatchType type;
+
+    private final AsyncJobPoller poller;
+
+    /**
+     * Creates a runner for batches started with {@link #start}, which do not wait on a poller.
+     */
+    public BatchRunner(DropboxClient client, BatchType type) {
+        this(client, type, null);
+    }
+
+    public BatchRunner(DropboxClient client, BatchType type, AsyncJobPoller poller) {
+        this.client = client;
+        this.type = type;
+        this.poller = poller;
+    }
+
+    /**
+     * @param entries the entries to process.
+     * @param options the boolean arguments to send with every slice, keyed by their Dropbox name.
+     * @return the {"entries": [...]} result document.
+     * @throws IOException   if the first slice fails for a reason other than an API error.
+     * @throws JSONException if an entry is not valid for the endpoint.
+     */
+    public String run(JSONArray entries, Map<String, Boolean> options) throws IOException, JSONException {
+        StringBuilder results = new StringBuilder(entries.length() * 64);
+        int succeeded = 0;
+        for (int start = 0; start < entries.length(); start += type.getMaxEntries()) {
+            int end = Math.min(entries.length(), start + type.getMaxEntries());
+            String argument = buildArgument(entries, start, end, options);
+            try {
+                JSONObject status = launch(argument);
+                if ("async_job_id".equals(AsyncJobPoller.getTag(status))) {
+                    status = poller.await(type.getCheckEndpoint(), status.getString("async_job_id"));
+                }
+                succeeded += appendResults(results, status, end - start);
+            } catch (DropboxApiException e) {
+                appendFailures(results, end - start, e.getErrorDocument());
+            } catch (IOException e) {
+                if (start == 0 && !(e instanceof AsyncJobTimeoutException)) {
+                    throw e;
+                }
+                appendUnfinished(results, end - start, entries.length() - end, e);
+                return buildResult(entries.length(), succeeded, results, e);
+            }
+        }
+        return buildResult(entries.length(), succeeded, results, null);
+    }
+
+    /**
+     * Runs the batch without waiting for it: the asynchronous jobs of the slices are registered with the job manager
+     * and the next slice is launched from the completion of the previous one.
+     *
+     * @param entries  the entries to process.
+     * @param options  the boolean arguments to send with every slice, keyed by their Dropbox name.
+     * @param manager  the manager tracking the jobs.
+     * @param timeout  the maximum time to wait for each job, in milliseconds.
+     * @param callback the callback receiving the {"entries": [...]} result document.
+     */
+    public void start(JSONArray entries, Map<String, Boolean> options, AsyncJobManager manager, long timeout,
+                      Callback callback) {
+        new AsyncRun(entries, options, manager, timeout, callback).next();
+    }
+
+    /**
+     * Receives the outcome of a batch started with {@link #start}.
+     */
+    public interface Callback {
+
+        void onComplete(String result);
+
+        void onError(IOException e);
+    }
+
+    private JSONObject launch(String argument) throws IOException {
+        return AsyncJobPoller.parse(type.getLaunchEndpoint(), client.rpc(type.getLaunchEndpoint(), argument));
+    }
+
+    /**
+     * Appends the results of a finished slice.
+     *
+     * @return the number of entries that succeeded.
+     */
+    private static int appendResults(StringBuilder results, JSONObject status, int count) throws JSONException {
+        JSONArray sliceResults = "complete".equals(AsyncJobPoller.getTag(status)) ?
+                status.optJSONArray("entries") : null;
+        if (sliceResults == null) {
+            appendFailures(results, count, status.toString());
+            return 0;
+        }
+        int succeeded = 0;
+        for (int i = 0; i < sliceResults.length(); i++) {
+            appendResult(results, sliceResults.get(i).toString());
+            if ("success".equals(sliceResults.getJSONObject(i).optString(".tag"))) {
+                succeeded++;
+            }
+        }
+        return succeeded;
+    }
+
+    /**
+     * @param unfinished the error that stopped the batch, or null when every slice finished.
+     */
+    private static String buildResult(int total, int succeeded, StringBuilder results, IOException unfinished) {
+        JsonWriter writer = JsonWriter.reusable();
+        writer.beginObject()
+                .name("total").value(total)
+                .name("succeeded").value(succeeded)
+                .name("entries").rawValue("[" + results + "]");
+        if (unfinished instanceof AsyncJobTimeoutException) {
+            writer.name("async_job_id").value(((AsyncJobTimeoutException) unfinished).getAsyncJobId());
+        }
+        writer.endObject();
+        return writer.toString();
+    }
+
+    private String buildArgument(JSONArray entries, int start, int end, Map<String, Boolean> options)
+            throws JSONException {
+        JsonWriter writer = JsonWriter.reusable();
+        writer.beginObject().name(type.getEntriesField()).beginArray();
+        for (int i = start; i < end; i++) {
+            Object entry = type.toEntry(entries.get(i));
+            if (entry instanceof String) {
+                writer.value((String) entry);
+            } else {
+                writer.rawValue(entry.toString());
+            }
+        }
+        writer.endArray();
+        for (Map.Entry<String, Boolean> option : options.entrySet()) {
+            writer.name(option.getKey()).value(option.getValue());
+        }
+        writer.endObject();
+        return writer.toString();
+    }
+
+    private static void appendFailures(StringBuilder results, int count, String failure) {
+        String entry = "{\".tag\":\"failure\",\"failure\":" + failure + "}";
+        for (int i = 0; i < count; i++) {
+            appendResult(results, entry);
+        }
+    }
+
+    /**
+     * Appends the results of the slice that stopped the batch and of the slices that were not launched.
+     *
+     * @param count      the number of entries of the slice.
+     * @param notStarted the number of entries after the slice.
+     * @param e          the timeout of the job of the slice, or the error it failed with.
+     */
+    private static void appendUnfinished(StringBuilder results, int count, int notStarted, IOException e) {
+        JsonWriter writer = JsonWriter.reusable();
+        if (e instanceof AsyncJobTimeoutException) {
+            writer.beginObject()
+                    .name(".tag").value("in_progress")
+                    .name("async_job_id").value(((AsyncJobTimeoutException) e).getAsyncJobId())
+                    .endObject();
+            String entry = writer.toString();
+            for (int i = 0; i < count; i++) {
+                appendResult(results, entry);
+            }
+        } else {
+            writer.beginObject().name("error_summary").value(String.valueOf(e.getMessage())).endObject();
+            appendFailures(results, count, writer.toString());
+        }
+        for (int i = 0; i < notStarted; i++) {
+            appendResult(results, "{\".tag\":\"not_started\"}");
+        }
+    }
+
+    private static void appendResult(StringBuilder results, String entry) {
+        if (results.length() > 0) {
+            results.append(',');
+        }
+        results.append(entry);
+    }
+
+    /**
+     * The state of a batch started with {@link #start}. Slices still run one after the other.
+     */
+    private final class AsyncRun implements AsyncJobManager.Listener {
+
+        private final JSONArray entries;
+
+        private final Map<String, Boolean> options;
+
+        private final AsyncJobManager manager;
+
+        private final long timeout;
+
+        private final Callback callback;
+
+        private final StringBuilder results;
+
+        private int succeeded;
+
+        private int start;
+
+        private int sliceSize;
+
+        AsyncRun(JSONArray entries, Map<String, Boolean> options, AsyncJobManager manager, long timeout,
+                 Callback callback) {
+            this.entries = entries;
+            this.options = options;
+            this.manager = manager;
+            this.timeout = timeout;
+            this.callback = callback;
+            this.results = new StringBuilder(entries.length() * 64);
+        }
+
+        /**
+         * Launches slices until one of them runs as an asynchronous job, or completes the batch.
+         */
+        void next() {
+            try {
+                while (start < entries.length()) {
+                    int end = Math.min(entries.length(), start + type.getMaxEntries());
+                    String argument = buildArgument(entries, start, end, options);
+                    sliceSize = end - start;
+                    start = end;
+                    JSONObject status;
+                    try {
+                        status = launch(argument);
+                    } catch (DropboxApiException e) {
+                        appendFailures(results, sliceSize, e.getErrorDocument());
+                        continue;
+                    }
+                    if ("async_job_id".equals(AsyncJobPoller.getTag(status))) {
+                        manager.submit(client, type.getCheckEndpoint(), status.getString("async_job_id"), timeout,
+                                this);
+                        return;
+                    }
+                    succeeded += appendResults(results, status, sliceSize);
+                }
+            } catch (IOException e) {
+                stop(e);
+                return;
+            } catch (JSONException e) {
+                callback.onError(new IOException("Invalid entries for " + type.getOperation() + ": "
+                        + e.getMessage(), e));
+                return;
+            }
+            callback.onComplete(buildResult(entries.length(), succeeded, results, null));
+        }
+
+        /**
+         * Ends the batch at the current slice, keeping the results of the slices before it.
+         */
+        void stop(IOException e) {
+            if (start == sliceSize && !(e instanceof AsyncJobTimeoutException)) {
+                callback.onError(e);
+                return;
+            }
+            appendUnfinished(results, sliceSize, entries.length() - start, e);
+            callback.onComplete(buildResult(entries.length(), succeeded, results, e));
+        }
+
+        @Override
+        public void onComplete(JSONObject status) {
+            try {
+                succeeded += appendResults(results, status, sliceSize);
+            } catch (JSONException e) {
+                callback.onError(new IOException("Unexpected response from " + type.getCheckEndpoint() + ": "
+                        + status, e));
+                return;
+            }
+            next();
+        }
+
+        @Override
+        public void onError(IOException e) {
+            if (!(e instanceof DropboxApiException)) {
+                stop(e);
+                return;
+            }
+            appendFailures(results, sliceSize, ((DropboxApiException) e).getErrorDocument());
+            next();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.batch;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The Dropbox batch endpoints supported by the connector.
+ */
+public enum BatchType {
+
+    COPY("copyBatch", "/files/copy_batch_v2", "/files/copy_batch/check_v2", "entries", 1000,
+            "autorename") {
+        @Override
+        Object toEntry(Object entry) throws JSONException {
+            return requireRelocation(entry);
+        }
+    },
+
+    MOVE("moveBatch", "/files/move_batch_v2", "/files/move_batch/check_v2", "entries", 1000,
+            "autorename", "allow_ownership_transfer") {
+        @Override
+        Object toEntry(Object entry) throws JSONException {
+            return requireRelocation(entry);
+        }
+    },
+
+    DELETE("deleteBatch", "/files/delete_batch", "/files/delete_batch/check", "entries", 1000) {
+        @Override
+        Object toEntry(Object entry) throws JSONException {
+            if (entry instanceof JSONObject) {
+                return entry;
+            }
+            return new JSONObject().put("path", entry.toString());
+        }
+    },
+
+    CREATE_FOLDER("createFolderBatch", "/files/create_folder_batch", "/files/create_folder_batch/check", "paths",
+            10000, "autorename") {
+        @Override
+        Object toEntry(Object entry) throws JSONException {
+            if (entry instanceof JSONObject) {
+                return ((JSONObject) entry).getString("path");
+            }
+            return entry.toString();
+        }
+    },
+
+    FINISH_UPLOAD_SESSION("finishUploadSessionBatch", "/files/upload_session/finish_batch",
+            "/files/upload_session/finish_batch/check", "entries", 1000) {
+        @Override
+        Object toEntry(Object entry) throws JSONException {
+            if (!(entry instanceof JSONObject)) {
+                throw new JSONException("Expected an object with the session and commit of a file but found " + entry);
+            }
+            JSONObject finish = (JSONObject) entry;
+            if (finish.has("cursor")) {
+                finish.getJSONObject("cursor").getString("session_id");
+                finish.getJSONObject("commit").getString("path");
+                return finish;
+            }
+            // The flat form {"session_id", "offset", "path", ...} is accepted for convenience.
+            JSONObject cursor = new JSONObject()
+                    .put("session_id", finish.getString("session_id"))
+                    .put("offset", finish.getLong("offset"));
+            JSONObject commit = new JSONObject().put("path", finish.getString("path"));
+            for (String member : COMMIT_OPTIONS) {
+                if (finish.has(member)) {
+                    commit.put(member, finish.get(member));
+                }
+            }
+            return new JSONObject().put("cursor", cursor).put("commit", commit);
+        }
+    };
+
+    private static final String[] COMMIT_OPTIONS = {"mode", "autorename", "client_modified", "mute"};
+
+    private final String operation;
+
+    private final String launchEndpoint;
+
+    private final String checkEndpoint;
+
+    private final String entriesField;
+
+    private final int maxEntries;
+
+    private final String[] options;
+
+    BatchType(String operation, String launchEndpoint, String checkEndpoint, String entriesField, int maxEntries,
+              String... options) {
+        this.operation = operation;
+        this.launchEndpoint = launchEndpoint;
+        this.checkEndpoint = checkEndpoint;
+        this.entriesField = entriesField;
+        this.maxEntries = maxEntries;
+        this.options = options;
+    }
+
+    public static BatchType forOperation(String operation) {
+        for (BatchType type : values()) {
+            if (type.operation.equals(operation)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown Dropbox batch operation: " + operation);
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public String getLaunchEndpoint() {
+        return launchEndpoint;
+    }
+
+    public String getCheckEndpoint() {
+        return checkEndpoint;
+    }
+
+    /**
+     * @return the name of the argument member holding the entries.
+     */
+    public String getEntriesField() {
+        return entriesField;
+    }
+
+    /**
+     * @return the maximum number of entries Dropbox accepts in one call.
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return the names of the boolean arguments the endpoint accepts besides the entries.
+     */
+    public String[] getOptions() {
+        return options.clone();
+    }
+
+    /**
+     * Converts an entry given by the caller into the form the endpoint expects. Delete entries may be given as plain
+     * paths, folder entries as {"path": ...} objects and upload session entries as flat objects for convenience.
+     *
+     * @param entry an element of the entries array.
+     * @return the entry to send.
+     * @throws JSONException if the entry is not valid for this endpoint.
+     */
+    abstract Object toEntry(Object entry) throws JSONException;
+
+    private static Object requireRelocation(Object entry) throws JSONException {
+        if (!(entry instanceof JSONObject)) {
+            throw new JSONException("Expected an object with from_path and to_path but found " + entry);
+        }
+        JSONObject relocation = (JSONObject) entry;
+        relocation.getString("from_path");
+        relocation.getString("to_path");
+        return relocation;
+    }
+}
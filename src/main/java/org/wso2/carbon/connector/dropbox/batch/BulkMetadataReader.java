@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.batch;
+
+import org.wso2.carbon.connector.dropbox.client.DropboxApiException;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+import org.wso2.carbon.connector.dropbox.util.ConnectorExecutors;
+import org.wso2.carbon.connector.dropbox.util.JsonWriter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reads the metadata of many paths with /files/get_metadata, keeping at most parallelism calls in flight on the
+ * connector transfer pool.
+ * <p>
+ * The result has one element per path, in the order of the input, tagged success with the metadata or failure with
+ * the Dropbox error of that path. An API error only fails its own path; any other error, such as a lost connection
+ * that survived the retries of the client, cancels the remaining calls and fails the whole read.
+ */
+public class BulkMetadataReader {
+
+    public static final int DEFAULT_PARALLELISM = 8;
+
+    public static final int MAX_PARALLELISM = 32;
+
+    private static final String GET_METADATA_ENDPOINT = "/files/get_metadata";
+
+    private final DropboxClient client;
+
+    private final int parallelism;
+
+    public BulkMetadataReader(DropboxClient client, int parallelism) {
+        this.client = client;
+        this.parallelism = Math.max(1, Math.min(MAX_PARALLELISM, parallelism));
+    }
+
+    /**
+     * @param paths   the paths to read, or ids and revisions in any form get_metadata accepts.
+     * @param options the boolean arguments to send with every path, keyed by their Dropbox name.
+     * @return the {"total": n, "succeeded": n, "entries": [...]} result document.
+     * @throws IOException if a call fails for a reason other than an API error.
+     */
+    public String read(List<String> paths, final Map<String, Boolean> options) throws IOException {
+        final String[] results = new String[paths.size()];
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+        final Semaphore permits = new Semaphore(parallelism);
+        List<Future<?>> calls = new ArrayList<Future<?>>(paths.size());
+        try {
+            for (int i = 0; i < paths.size(); i++) {
+                acquire(permits);
+                rethrow(failure);
+                final int index = i;
+                final String path = paths.get(i);
+                calls.add(ConnectorExecutors.transfers().submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (failure.get() == null) {
+                                results[index] = readOne(path, options, succeeded);
+                            }
+                        } catch (IOException e) {
+                            failure.compareAndSet(null, e);
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> call : calls) {
+                call.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelAll(calls);
+            throw new InterruptedIOException("Interrupted while reading metadata");
+        } catch (ExecutionException e) {
+            cancelAll(calls);
+            throw new IOException("Metadata read failed", e.getCause());
+        } catch (IOException e) {
+            cancelAll(calls);
+            throw e;
+        }
+        rethrow(failure);
+
+        StringBuilder entries = new StringBuilder(results.length * 256).append('[');
+        for (int i = 0; i < results.length; i++) {
+            if (i > 0) {
+                entries.append(',');
+            }
+            entries.append(results[i]);
+        }
+        JsonWriter writer = JsonWriter.reusable();
+        writer.beginObject()
+                .name("total").value(results.length)
+                .name("succeeded").value(succeeded.get())
+                .name("entries").rawValue(entries.append(']').toString())
+                .endObject();
+        return writer.toString();
+    }
+
+    private String readOne(String path, Map<String, Boolean> options, AtomicInteger succeeded) throws IOException {
+        JsonWriter writer = JsonWriter.reusable();
+        writer.beginObject().name("path").value(path);
+        for (Map.Entry<String, Boolean> option : options.entrySet()) {
+            writer.name(option.getKey()).value(option.getValue());
+        }
+        String argument = writer.endObject().toString();
+
+        String tag;
+        String result;
+        try {
+            result = client.rpc(GET_METADATA_ENDPOINT, argument);
+            tag = "success";
+            succeeded.incrementAndGet();
+        } catch (DropboxApiException e) {
+            result = e.getErrorDocument();
+            tag = "failure";
+        }
+        writer = JsonWriter.reusable();
+        writer.beginObject().name(".tag").value(tag).name("path").value(path)
+                .name("success".equals(tag) ? "metadata" : "failure").rawValue(result);
+        return writer.endObject().toString();
+    }
+
+    private static void acquire(Semaphore permits) throws IOException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to read metadata");
+        }
+    }
+
+    private static void rethrow(AtomicReference<IOException> failure) throws IOException {
+        IOException e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    private static void cancelAll(List<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.cache;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.wso2.carbon.connector.dropbox.client.DropboxApiException;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+import org.wso2.carbon.connector.dropbox.util.JsonWriter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Follows the changes of an account through a recursive list_folder cursor and invalidates the cached metadata of
+ * every changed path. The cursor is checked at most once per refresh interval. A check is made by one caller at a
+ * time, outside the lock of the tracker, and callers arriving while it runs wait for its outcome instead of starting
+ * another one.
+ */
+public class ChangeTracker {
+
+    private static final String RESET_ERROR = "reset";
+
+    private final MetadataCache cache;
+
+    private final String account;
+
+    private String cursor;
+
+    private long nextCheck;
+
+    private FutureTask<Void> running;
+
+    ChangeTracker(MetadataCache cache, String account) {
+        this.cache = cache;
+        this.account = account;
+    }
+
+    /**
+     * Brings the cached entries of the account in line with Dropbox, unless they were checked within the interval.
+     * Entries stored before the account was first tracked are dropped, since changes made before the cursor was
+     * taken are not reported by it.
+     *
+     * @param client   the client of the account.
+     * @param interval the minimum time between checks, in milliseconds.
+     * @throws IOException if the changes cannot be read. The cached entries must not be trusted in that case.
+     */
+    public void sync(final DropboxClient client, final long interval) throws IOException {
+        FutureTask<Void> check;
+        boolean owner = false;
+        synchronized (this) {
+            if (cursor != null && System.currentTimeMillis() < nextCheck) {
+                return;
+            }
+            check = running;
+            if (check == null) {
+                check = new FutureTask<Void>(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        check(client, interval);
+                        return null;
+                    }
+                });
+                running = check;
+                owner = true;
+            }
+        }
+        if (owner) {
+            try {
+                check.run();
+            } finally {
+                synchronized (this) {
+                    running = null;
+                }
+            }
+        }
+        try {
+            check.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the Dropbox changes");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Error while reading the Dropbox changes", cause);
+        }
+    }
+
+    private void check(DropboxClient client, long interval) throws IOException {
+        String current;
+        synchronized (this) {
+            current = cursor;
+        }
+        if (current == null) {
+            cache.invalidateAll(account);
+            current = latestCursor(client);
+        } else {
+            try {
+                current = readChanges(client, current);
+            } catch (DropboxApiException e) {
+                if (!RESET_ERROR.equals(e.getErrorTag())) {
+                    throw e;
+                }
+                cache.invalidateAll(account);
+                current = latestCursor(client);
+            }
+        }
+        synchronized (this) {
+            cursor = current;
+            nextCheck = System.currentTimeMillis() + interval;
+        }
+    }
+
+    private synchronized void advance(String next) {
+        cursor = next;
+    }
+
+    private String latestCursor(DropboxClient client) throws IOException {
+        JsonWriter writer = JsonWriter.reusable();
+        writer.beginObject().name("path").value("").name("recursive").value(true)
+                .name("include_deleted").value(true).endObject();
+        String response = client.rpc("/files/list_folder/get_latest_cursor", writer.toString());
+        try {
+            return new JSONObject(response).getString("cursor");
+        } catch (JSONException e) {
+            throw new IOException("Unexpected response from /files/list_folder/get_latest_cursor: " + response, e);
+        }
+    }
+
+    /**
+     * Reads the pending changes page by page. Each page is applied before the cursor moves past it, so a failure
+     * part way through does not lose changes.
+     *
+     * @return the cursor after the last page.
+     */
+    private String readChanges(DropboxClient client, String from) throws IOException {
+        String next = from;
+        boolean hasMore = true;
+        while (hasMore) {
+            JsonWriter writer = JsonWriter.reusable();
+            writer.beginObject().name("cursor").value(next).endObject();
+            String response = client.rpc("/files/list_folder/continue", writer.toString());
+            try {
+                JSONObject page = new JSONObject(response);
+                JSONArray entries = page.getJSONArray("entries");
+                Set<String> changed = new HashSet<String>();
+                for (int i = 0; i < entries.length(); i++) {
+                    String pathLower = entries.getJSONObject(i).optString("path_lower", null);
+                    if (pathLower != null) {
+                        changed.add(pathLower);
+                    }
+                }
+                cache.invalidate(account, changed);
+                next = page.getString("cursor");
+                advance(next);
+                hasMore = page.optBoolean("has_more");
+            } catch (JSONException e) {
+                throw new IOException("Unexpected response from /files/list_folder/continue: " + response, e);
+            }
+        }
+        return next;
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.commons.jmx.MBeanRegistrar;
+import org.wso2.carbon.connector.dropbox.util.DropboxUtils;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process cache of file and folder metadata returned by /files/get_metadata. Entries expire after the TTL given
+ * when they are stored, and the least recently used entries are evicted once the cache holds its capacity. Entries
+ * of an account can also be invalidated by path, as done by {@link ChangeTracker} when the account changes.
+ * <p>
+ * Every invalidation moves the cache to a new generation. Callers read the generation before they fetch the metadata
+ * they store, and an entry is not stored if the cache was invalidated in the meantime, since the fetched metadata may
+ * predate the change that caused the invalidation.
+ * <p>
+ * The capacity is read from the dropbox.metadataCache.maxEntries system property, 10000 by default.
+ */
+public class MetadataCache implements MetadataCacheMBean {
+
+    private static final Log log = LogFactory.getLog(MetadataCache.class);
+
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    private static final String CAPACITY_PROPERTY = "dropbox.metadataCache.maxEntries";
+
+    private static final MetadataCache DEFAULT = createDefault();
+
+    private final int capacity;
+
+    private final LinkedHashMap<Key, CachedEntry> entries;
+
+    private final Map<String, ChangeTracker> trackers = new ConcurrentHashMap<String, ChangeTracker>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong expirations = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private long generation;
+
+    public MetadataCache(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The cache capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<Key, CachedEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedEntry> eldest) {
+                if (size() > capacity) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the cache shared by all getMetadata calls, which is registered as a JMX MBean.
+     */
+    public static MetadataCache getDefault() {
+        return DEFAULT;
+    }
+
+    private static MetadataCache createDefault() {
+        int capacity = DEFAULT_CAPACITY;
+        String value = System.getProperty(CAPACITY_PROPERTY);
+        if (value != null) {
+            try {
+                capacity = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Invalid " + CAPACITY_PROPERTY + " value '" + value + "', using " + DEFAULT_CAPACITY);
+            }
+        }
+        MetadataCache cache = new MetadataCache(capacity > 0 ? capacity : DEFAULT_CAPACITY);
+        MBeanRegistrar.getInstance().registerMBean(cache, "DropboxConnector", "MetadataCache");
+        return cache;
+    }
+
+    /**
+     * Derives the key under which the entries of an account are stored, so that credentials are not kept as keys.
+     *
+     * @param account the account credential, see {@link DropboxUtils#getAccount}.
+     * @return the account key.
+     */
+    public static String accountKey(String account) {
+        return DropboxUtils.digestKey(account);
+    }
+
+    /**
+     * Normalizes a path the way Dropbox compares them. Paths are case insensitive, while ids and revisions are not.
+     *
+     * @param path the path, id or revision.
+     * @return the normalized path.
+     */
+    static String normalize(String path) {
+        if (path.isEmpty() || path.charAt(0) == '/') {
+            return path.toLowerCase(Locale.ROOT);
+        }
+        return path;
+    }
+
+    /**
+     * Looks up a metadata entry.
+     *
+     * @param account the account key.
+     * @param path    the requested path, id or revision.
+     * @param flags   the request flags that shape the response, see {@link #flags(boolean, boolean, boolean)}.
+     * @return the cached metadata, or null when it is not cached or has expired.
+     */
+    public String get(String account, String path, int flags) {
+        Key key = new Key(account, normalize(path), flags);
+        CachedEntry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.expiresAt - System.nanoTime() <= 0) {
+                entries.remove(key);
+                expirations.incrementAndGet();
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.metadata;
+    }
+
+    /**
+     * @return the current generation, to be read before fetching metadata that is then stored with
+     * {@link #put(String, String, int, String, String, long, long)}.
+     */
+    public long getGeneration() {
+        synchronized (entries) {
+            return generation;
+        }
+    }
+
+    /**
+     * Stores a metadata entry, unless the cache was invalidated since the given generation.
+     *
+     * @param account    the account key.
+     * @param path       the requested path, id or revision.
+     * @param flags      the request flags that shape the response.
+     * @param pathLower  the lower case path of the entry as returned by Dropbox, used for invalidation.
+     * @param metadata   the metadata document.
+     * @param ttl        the time to live, in milliseconds.
+     * @param generation the generation read before the metadata was fetched, see {@link #getGeneration()}.
+     * @return true if the entry was stored.
+     */
+    public boolean put(String account, String path, int flags, String pathLower, String metadata, long ttl,
+                       long generation) {
+        if (ttl <= 0) {
+            return false;
+        }
+        Key key = new Key(account, normalize(path), flags);
+        CachedEntry entry = new CachedEntry(pathLower == null ? key.path : pathLower, metadata,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttl));
+        synchronized (entries) {
+            if (generation != this.generation) {
+                return false;
+            }
+            entries.put(key, entry);
+            return true;
+        }
+    }
+
+    /**
+     * Removes the entries of an account at, or below, any of the given paths.
+     *
+     * @param account    the account key.
+     * @param pathsLower the lower case paths that changed.
+     */
+    public void invalidate(String account, Collection<String> pathsLower) {
+        if (pathsLower.isEmpty()) {
+            return;
+        }
+        synchronized (entries) {
+            generation++;
+            Iterator<Map.Entry<Key, CachedEntry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Key, CachedEntry> mapEntry = iterator.next();
+                if (mapEntry.getKey().account.equals(account)
+                        && isAffected(mapEntry.getValue().pathLower, pathsLower)) {
+                    iterator.remove();
+                    invalidations.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all entries of an account.
+     *
+     * @param account the account key.
+     */
+    public void invalidateAll(String account) {
+        synchronized (entries) {
+            generation++;
+            Iterator<Key> iterator = entries.keySet().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().account.equals(account)) {
+                    iterator.remove();
+                    invalidations.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the change tracker of an account, which keeps its entries in line with the changes reported by Dropbox.
+     *
+     * @param account the account key.
+     * @return the change tracker.
+     */
+    public ChangeTracker getChangeTracker(String account) {
+        ChangeTracker tracker = trackers.get(account);
+        if (tracker == null) {
+            ChangeTracker created = new ChangeTracker(this, account);
+            tracker = trackers.putIfAbsent(account, created);
+            if (tracker == null) {
+                tracker = created;
+            }
+        }
+        return tracker;
+    }
+
+    /**
+     * Combines the getMetadata request flags into the part of the cache key that distinguishes response shapes.
+     *
+     * @param includeDeleted                  the include_deleted flag.
+     * @param includeMediaInfo                the include_media_info flag.
+     * @param includeHasExplicitSharedMembers the include_has_explicit_shared_members flag.
+     * @return the flags.
+     */
+    public static int flags(boolean includeDeleted, boolean includeMediaInfo, boolean includeHasExplicitSharedMembers) {
+        return (includeDeleted ? 1 : 0) | (includeMediaInfo ? 2 : 0) | (includeHasExplicitSharedMembers ? 4 : 0);
+    }
+
+    private static boolean isAffected(String pathLower, Collection<String> changedPaths) {
+        for (String changed : changedPaths) {
+            if (pathLower.equals(changed)
+                    || (pathLower.startsWith(changed) && pathLower.charAt(changed.length()) == '/')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    @Override
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    @Override
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public void clear() {
+        synchronized (entries) {
+            generation++;
+            entries.clear();
+        }
+        trackers.clear();
+    }
+
+    @Override
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+        expirations.set(0);
+        invalidations.set(0);
+    }
+
+    private static final class Key {
+
+        final String account;
+
+        final String path;
+
+        final int flags;
+
+        Key(String account, String path, int flags) {
+            this.account = account;
+            this.path = path;
+            this.flags = flags;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return flags == key.flags && path.equals(key.path) && account.equals(key.account);
+        }
+
+        @Override
+        public int hashCode() {
+            return (account.hashCode() * 31 + path.hashCode()) * 31 + flags;
+        }
+    }
+
+    private static final class CachedEntry {
+
+        final String pathLower;
+
+        final String metadata;
+
+        final long expiresAt;
+
+        CachedEntry(String pathLower, String metadata, long expiresAt) {
+            this.pathLower = pathLower;
+            this.metadata = metadata;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
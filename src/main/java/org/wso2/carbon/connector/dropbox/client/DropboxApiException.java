@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.client;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.wso2.carbon.connector.dropbox.util.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Signals a non successful HTTP response returned by the Dropbox API.
+ */
+public class DropboxApiException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    private final String responseBody;
+
+    public DropboxApiException(String endpoint, int statusCode, String responseBody) {
+        super("Dropbox API call to " + endpoint + " failed with HTTP " + statusCode + ": " + responseBody);
+        this.statusCode = statusCode;
+        this.responseBody = responseBody;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getResponseBody() {
+        return responseBody;
+    }
+
+    /**
+     * Returns the tag of an endpoint specific error, e.g. reset for an expired list_folder cursor.
+     *
+     * @return the error tag, or null when the response is not a tagged error.
+     */
+    public String getErrorTag() {
+        if (statusCode != 409 || responseBody == null) {
+            return null;
+        }
+        try {
+            JSONObject error = new JSONObject(responseBody).optJSONObject("error");
+            return error == null ? null : error.optString(".tag", null);
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the tag of an endpoint specific error together with the tag of its detail, e.g. path/not_found, for
+     * reporting.
+     *
+     * @param responseBody the error response.
+     * @return the error tag path, or null when the response is not a tagged error.
+     */
+    public static String getErrorTagPath(String responseBody) {
+        try {
+            JSONObject error = new JSONObject(responseBody).optJSONObject("error");
+            if (error == null) {
+                return null;
+            }
+            String tag = error.optString(".tag", null);
+            JSONObject detail = tag == null ? null : error.optJSONObject(tag);
+            String detailTag = detail == null ? null : detail.optString(".tag", null);
+            return detailTag == null ? tag : tag + "/" + detailTag;
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Dropbox returns JSON for endpoint specific errors but plain text for others, such as bad input or server
+     * errors. This returns the response as a JSON document in both cases.
+     *
+     * @return the error as a JSON document.
+     */
+    public String getErrorDocument() {
+        if (responseBody != null && responseBody.trim().startsWith("{")) {
+            return responseBody;
+        }
+        JsonWriter writer = JsonWriter.reusable();
+        writer.beginObject().name("error_summary").value(responseBody).name("status").value(statusCode).endObject();
+        return writer.toString();
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.client;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.apache.synapse.MessageContext;
+import org.wso2.carbon.connector.core.ConnectException;
+import org.wso2.carbon.connector.dropbox.DropboxConstants;
+import org.wso2.carbon.connector.dropbox.metrics.CallSample;
+import org.wso2.carbon.connector.dropbox.metrics.ConnectorMetrics;
+import org.wso2.carbon.connector.dropbox.util.DropboxUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Issues Dropbox API calls on behalf of one account, identified by the API URL and access token set by the init
+ * operation.
+ * <p>
+ * Requests wait for the {@link RateLimiter} of the account before they are sent, and rate limited or failed requests
+ * are retried according to the {@link RetryPolicy}, as long as their content can be sent again.
+ */
+public class DropboxClient {
+
+    private static final Log log = LogFactory.getLog(DropboxClient.class);
+
+    private static final String LONGPOLL_ENDPOINT = "/files/list_folder/longpoll";
+
+    private static final int LONGPOLL_JITTER = 120;
+
+    private static final String SERVER_RESPONSE_TIME_HEADER = "x-server-response-time";
+
+    private static final String REQUEST_ID_HEADER = "x-dropbox-request-id";
+
+    private static final String RANGE_HEADER = "Range";
+
+    private static final String TEMPORARY_LINK_ENDPOINT = "/temporary_link";
+
+    private final DropboxHttpClient httpClient;
+
+    private final String apiUrl;
+
+    private final String authorization;
+
+    private final RetryPolicy retryPolicy;
+
+    private final RateLimiter rateLimiter;
+
+    private final RequestStatistics statistics = RequestStatistics.getInstance();
+
+    public DropboxClient(DropboxHttpClient httpClient, String apiUrl, String accessToken) {
+        this(httpClient, apiUrl, accessToken, RetryPolicy.DEFAULT,
+                RateLimiter.forAccount(DropboxUtils.digestKey(accessToken)));
+    }
+
+    public DropboxClient(DropboxHttpClient httpClient, String apiUrl, String accessToken, RetryPolicy retryPolicy,
+                         RateLimiter rateLimiter) {
+        this.httpClient = httpClient;
+        this.apiUrl = apiUrl;
+        this.authorization = "Bearer " + accessToken;
+        this.retryPolicy = retryPolicy;
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Creates a client for the account configured on the message by the init operation. Messages initialized with a
+     * named connection use the pool, retry policy and rate limiter of that connection.
+     *
+     * @param messageContext the message context.
+     * @return the client.
+     * @throws ConnectException if the init operation has not been called.
+     */
+    public static DropboxClient forMessage(MessageContext messageContext) throws ConnectException {
+        String apiUrl = DropboxUtils.getTrimmedText(messageContext, DropboxConstants.API_URL);
+        String accessToken = DropboxUtils.getTrimmedText(messageContext, DropboxConstants.ACCESS_TOKEN);
+        if (apiUrl == null || accessToken == null) {
+            throw new ConnectException("The Dropbox API URL and access token must be set using the init operation");
+        }
+        DropboxConnection connection = DropboxConnection.forMessage(messageContext);
+        if (connection != null) {
+            return new DropboxClient(connection.getHttpClient(), apiUrl, accessToken, connection.getRetryPolicy(),
+                    connection.getRateLimiter());
+        }
+        return new DropboxClient(DropboxHttpClient.forMessage(messageContext), apiUrl, accessToken,
+                getRetryPolicy(messageContext), getRateLimiter(messageContext, DropboxUtils.getAccount(messageContext)));
+    }
+
+    /**
+     * Returns the retry policy for the maxRetries init parameter, or that of the named connection the message was
+     * initialized with.
+     *
+     * @param messageContext the message context.
+     * @return the retry policy.
+     * @throws ConnectException if maxRetries is not a valid integer.
+     */
+    public static RetryPolicy getRetryPolicy(MessageContext messageContext) throws ConnectException {
+        DropboxConnection connection = DropboxConnection.forMessage(messageContext);
+        if (connection != null) {
+            return connection.getRetryPolicy();
+        }
+        return getRetryPolicy(DropboxUtils.getInt(messageContext, DropboxConstants.MAX_RETRIES,
+                RetryPolicy.DEFAULT_MAX_RETRIES));
+    }
+
+    /**
+     * Returns the rate limiter of the account configured on the message. The rateLimit and rateLimitBurst init
+     * parameters set the rate of the account, while messages that do not set them use the rate already in place.
+     *
+     * @param messageContext the message context.
+     * @param account        the account credential, see {@link DropboxUtils#getAccount(MessageContext)}.
+     * @return the rate limiter.
+     * @throws ConnectException if the rate parameters are not valid numbers.
+     */
+    public static RateLimiter getRateLimiter(MessageContext messageContext, String account)
+            throws ConnectException {
+        DropboxConnection connection = DropboxConnection.forMessage(messageContext);
+        if (connection != null) {
+            return connection.getRateLimiter();
+        }
+        return getRateLimiter(account, DropboxUtils.getTrimmedText(messageContext, DropboxConstants.RATE_LIMIT),
+                DropboxUtils.getTrimmedText(messageContext, DropboxConstants.RATE_LIMIT_BURST));
+    }
+
+    static RetryPolicy getRetryPolicy(int maxRetries) {
+        return maxRetries == RetryPolicy.DEFAULT_MAX_RETRIES ? RetryPolicy.DEFAULT
+                : new RetryPolicy(maxRetries, RetryPolicy.DEFAULT_BASE_DELAY, RetryPolicy.DEFAULT_MAX_DELAY);
+    }
+
+    static RateLimiter getRateLimiter(String account, String rate, String burst) throws ConnectException {
+        String key = DropboxUtils.digestKey(account);
+        if (rate == null) {
+            return RateLimiter.forAccount(key);
+        }
+        try {
+            double permitsPerSecond = Double.parseDouble(rate);
+            return RateLimiter.forAccount(key, permitsPerSecond,
+                    burst == null ? Math.max(1, permitsPerSecond) : Double.parseDouble(burst));
+        } catch (NumberFormatException e) {
+            throw new ConnectException(e, "Invalid Dropbox rate limit: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Calls an RPC endpoint, which takes its argument as the JSON request body.
+     *
+     * @param endpoint the endpoint path, e.g. /files/get_metadata.
+     * @param argument the JSON argument.
+     * @return the JSON response.
+     * @throws IOException if the call fails or Dropbox returns an error.
+     */
+    public String rpc(String endpoint, String argument) throws IOException {
+        HttpPost post = newPost(endpoint);
+        post.setEntity(new StringEntity(argument, ContentType.APPLICATION_JSON));
+        return execute(endpoint, post);
+    }
+
+    /**
+     * Waits for changes under a list_folder cursor. The longpoll endpoint is served by the notify host and takes no
+     * authorization, so the access token is not sent.
+     *
+     * @param notifyUrl the notify API URL, including the API version.
+     * @param argument  the JSON argument, with the cursor and the timeout.
+     * @param timeout   the longpoll timeout given in the argument, in seconds.
+     * @return the JSON response.
+     * @throws IOException if the call fails or Dropbox returns an error.
+     */
+    public String longpoll(String notifyUrl, String argument, int timeout) throws IOException {
+        HttpPost post = new HttpPost(notifyUrl + LONGPOLL_ENDPOINT);
+        // Dropbox adds up to 90 seconds of jitter to the requested timeout, so leave room for it.
+        post.setConfig(httpClient.withSocketTimeout((timeout + LONGPOLL_JITTER) * 1000));
+        post.setEntity(new StringEntity(argument, ContentType.APPLICATION_JSON));
+        return execute(LONGPOLL_ENDPOINT, post, false);
+    }
+
+    /**
+     * Calls a content upload endpoint, which takes its argument in the Dropbox-API-Arg header and the file content
+     * as the request body.
+     *
+     * @param endpoint the endpoint path, e.g. /files/upload.
+     * @param argument the JSON argument, which must only contain ASCII characters.
+     * @param content  the content to upload, or null to send an empty body.
+     * @return the JSON response.
+     * @throws IOException if the call fails or Dropbox returns an error.
+     */
+    public String upload(String endpoint, String argument, HttpEntity content) throws IOException {
+        HttpPost post = newPost(endpoint);
+        if (argument != null) {
+            post.setHeader(DropboxConstants.API_ARG_HEADER, argument);
+        }
+        post.setHeader("Content-Type", ContentType.APPLICATION_OCTET_STREAM.getMimeType());
+        if (content != null) {
+            post.setEntity(content);
+        }
+        return execute(endpoint, post);
+    }
+
+    /**
+     * Calls a content download endpoint. The caller must consume or close the returned response, which releases the
+     * connection back to the pool.
+     *
+     * @param endpoint the endpoint path, e.g. /files/download.
+     * @param argument the JSON argument, which must only contain ASCII characters.
+     * @return the successful response, with the file metadata in the Dropbox-API-Result header.
+     * @throws IOException if the call fails or Dropbox returns an error.
+     */
+    public CloseableHttpResponse download(String endpoint, String argument) throws IOException {
+        return download(endpoint, argument, null);
+    }
+
+    /**
+     * Calls a content download endpoint for a part of the content. The caller must consume or close the returned
+     * response.
+     *
+     * @param endpoint the endpoint path, e.g. /files/download.
+     * @param argument the JSON argument, which must only contain ASCII characters.
+     * @param range    the value of the Range header, e.g. bytes=0-1023, or null for the whole content.
+     * @return the successful response, with status 206 when the range was applied.
+     * @throws IOException if the call fails or Dropbox returns an error.
+     */
+    public CloseableHttpResponse download(String endpoint, String argument, String range) throws IOException {
+        HttpPost post = newPost(endpoint);
+        post.setHeader(DropboxConstants.API_ARG_HEADER, argument);
+        if (range != null) {
+            post.setHeader(RANGE_HEADER, range);
+        }
+        return send(endpoint, post, true);
+    }
+
+    /**
+     * Fetches a part of a temporary link, as returned by /files/get_temporary_link. The link carries its own
+     * authorization and is served by a host that does not count towards the request rate of the account, so the
+     * request is sent without the access token and without waiting for the rate limiter.
+     *
+     * @param link  the temporary link.
+     * @param range the value of the Range header, or null for the whole content.
+     * @return the successful response, which the caller must consume or close.
+     * @throws IOException if the call fails or Dropbox returns an error.
+     */
+    public CloseableHttpResponse fetchTemporaryLink(String link, String range) throws IOException {
+        HttpGet get = new HttpGet(link);
+        if (range != null) {
+            get.setHeader(RANGE_HEADER, range);
+        }
+        return send(TEMPORARY_LINK_ENDPOINT, get, false);
+    }
+
+    private HttpPost newPost(String endpoint) {
+        HttpPost post = new HttpPost(apiUrl + endpoint);
+        post.setHeader("Authorization", authorization);
+        return post;
+    }
+
+    private String execute(String endpoint, HttpPost post) throws IOException {
+        return execute(endpoint, post, true);
+    }
+
+    private String execute(String endpoint, HttpPost post, boolean throttled) throws IOException {
+        CloseableHttpResponse response = send(endpoint, post, throttled);
+        try {
+            HttpEntity entity = response.getEntity();
+            return entity == null ? "" : EntityUtils.toString(entity, "UTF-8");
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Sends a request, retrying it while the retry policy allows.
+     *
+     * @return the successful response, which the caller must close.
+     * @throws DropboxApiException if Dropbox returns an error that is not retried.
+     */
+    private CloseableHttpResponse send(String endpoint, HttpRequestBase request, boolean throttled) throws IOException {
+        HttpEntity requestEntity = request instanceof HttpEntityEnclosingRequest
+                ? ((HttpEntityEnclosingRequest) request).getEntity() : null;
+        boolean repeatable = requestEntity == null || requestEntity.isRepeatable();
+        int retries = 0;
+        while (true) {
+            if (throttled) {
+                statistics.throttled(rateLimiter.acquire());
+            }
+            statistics.attempt();
+            long start = System.nanoTime();
+            CloseableHttpResponse response;
+            try {
+                response = httpClient.execute(request);
+            } catch (IOException e) {
+                statistics.connectionFailure();
+                record(endpoint, requestEntity, null, start, null);
+                if (!repeatable || !RetryPolicy.isRetryable(e) || retries >= retryPolicy.getMaxRetries()) {
+                    throw e;
+                }
+                retries++;
+                long delay = retryPolicy.getDelay(retries, null);
+                logRetry(endpoint, retries, delay, e.toString());
+                sleep(delay);
+                continue;
+            }
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode / 100 == 2) {
+                record(endpoint, requestEntity, response, start, null);
+                return response;
+            }
+            statistics.failedResponse(statusCode);
+            if (repeatable && RetryPolicy.isRetryable(statusCode) && retries < retryPolicy.getMaxRetries()) {
+                retries++;
+                long delay = retryPolicy.getDelay(retries, response);
+                boolean retryAfter = RetryPolicy.getRetryAfter(response) >= 0;
+                record(endpoint, requestEntity, response, start, null);
+                EntityUtils.consumeQuietly(response.getEntity());
+                response.close();
+                logRetry(endpoint, retries, delay, "HTTP " + statusCode);
+                if (retryAfter) {
+                    // Hold back the other requests of the account too, they would be rate limited as well.
+                    rateLimiter.pause(delay);
+                }
+                if (!throttled || !retryAfter) {
+                    sleep(delay);
+                }
+                continue;
+            }
+            try {
+                HttpEntity entity = response.getEntity();
+                String body = entity == null ? "" : EntityUtils.toString(entity, "UTF-8");
+                record(endpoint, requestEntity, response, start,
+                        statusCode == 409 ? DropboxApiException.getErrorTagPath(body) : null);
+                throw new DropboxApiException(endpoint, statusCode, body);
+            } finally {
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * Records an attempt in the metrics of its endpoint. The latency runs until the response headers are received.
+     */
+    private static void record(String endpoint, HttpEntity requestEntity, CloseableHttpResponse response, long start,
+                               String errorTag) {
+        long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long bytesSent = requestEntity == null ? 0 : requestEntity.getContentLength();
+        if (response == null) {
+            ConnectorMetrics.record(new CallSample(endpoint, 0, null, latency, -1, bytesSent, -1, null));
+            return;
+        }
+        Header serverTime = response.getFirstHeader(SERVER_RESPONSE_TIME_HEADER);
+        Header requestId = response.getFirstHeader(REQUEST_ID_HEADER);
+        long parsedServerTime = -1;
+        if (serverTime != null) {
+            try {
+                parsedServerTime = Long.parseLong(serverTime.getValue().trim());
+            } catch (NumberFormatException ignored) {
+                // Not reported.
+            }
+        }
+        ConnectorMetrics.record(new CallSample(endpoint, response.getStatusLine().getStatusCode(), errorTag, latency,
+                parsedServerTime, bytesSent, response.getEntity() == null ? 0 : response.getEntity().getContentLength(),
+                requestId == null ? null : requestId.getValue()));
+    }
+
+    private void logRetry(String endpoint, int retry, long delay, String reason) {
+        statistics.retry();
+        if (log.isDebugEnabled()) {
+            log.debug("Retrying " + endpoint + " after " + reason + ", retry " + retry + " of "
+                    + retryPolicy.getMaxRetries() + " in " + delay + " ms");
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry a Dropbox request");
+        }
+    }
+}
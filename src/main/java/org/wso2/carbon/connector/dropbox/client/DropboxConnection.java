@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.client;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.MessageContext;
+import org.wso2.carbon.connector.core.ConnectException;
+import org.wso2.carbon.connector.dropbox.DropboxConstants;
+import org.wso2.carbon.connector.dropbox.auth.AccessTokenManager;
+import org.wso2.carbon.connector.dropbox.util.ConnectorExecutors;
+import org.wso2.carbon.connector.dropbox.util.DropboxUtils;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Dropbox account connection that is configured once and shared by every message initialized with its name. It
+ * holds the versioned API URL, the credential, a connection pool of its own, the retry policy and the rate limiter of
+ * the account.
+ * <p>
+ * The init operation resolves a connection by its connectionName parameter. The first message with a name creates
+ * the connection from the other init parameters. Later messages with the same settings only look it up, so the cost
+ * of init does not grow with the number of connections. As each connection has its own pool, a busy account cannot
+ * take the connections of the others. This holds for the requests made by the connector classes and for template
+ * calls in blocking mode. In non-blocking mode the template calls are sent by the call mediator through the Synapse
+ * HTTP transport, whose connections are shared by all connections and messages.
+ * <p>
+ * When a message gives different settings for a name, e.g. after its access token was changed, the connection is
+ * replaced and the pool of the old one is closed once its requests had time to finish. A connection with a fixed
+ * access token is dropped once Dropbox rejects the token, and is not created again until the token changes.
+ */
+public final class DropboxConnection {
+
+    private static final Log log = LogFactory.getLog(DropboxConnection.class);
+
+    private static final ConcurrentMap<String, DropboxConnection> CONNECTIONS =
+            new ConcurrentHashMap<String, DropboxConnection>();
+
+    /**
+     * Digests of the settings whose access token Dropbox rejected, by connection name.
+     */
+    private static final ConcurrentMap<String, String> REJECTED = new ConcurrentHashMap<String, String>();
+
+    private final String settings;
+
+    private final String name;
+
+    private final String apiUrl;
+
+    private final String apiVersion;
+
+    private final String account;
+
+    private final String accessToken;
+
+    private final String authorization;
+
+    private final AccessTokenManager tokenManager;
+
+    private final long refreshMargin;
+
+    private final DropboxHttpClient httpClient;
+
+    private final RetryPolicy retryPolicy;
+
+    private final RateLimiter rateLimiter;
+
+    private DropboxConnection(String name, String settings, MessageContext messageContext) throws ConnectException {
+        String baseUrl = DropboxUtils.getTrimmedText(messageContext, DropboxConstants.API_URL);
+        if (baseUrl == null) {
+            throw new ConnectException("The apiUrl parameter of init is required for the Dropbox connection " + name);
+        }
+        this.name = name;
+        this.settings = settings;
+        this.apiVersion = DropboxUtils.getTrimmedText(messageContext, DropboxConstants.API_VERSION);
+        this.apiUrl = apiVersion == null ? baseUrl : baseUrl + "/" + apiVersion;
+        this.httpClient = DropboxHttpClient.create(
+                DropboxUtils.getInt(messageContext, DropboxConstants.MAX_CONNECTIONS,
+                        DropboxHttpClient.DEFAULT_MAX_CONNECTIONS),
+                DropboxUtils.getInt(messageContext, DropboxConstants.MAX_CONNECTIONS_PER_HOST,
+                        DropboxHttpClient.DEFAULT_MAX_CONNECTIONS_PER_HOST),
+                DropboxUtils.getInt(messageContext, DropboxConstants.CONNECT_TIMEOUT,
+                        DropboxHttpClient.DEFAULT_CONNECT_TIMEOUT),
+                DropboxUtils.getInt(messageContext, DropboxConstants.SOCKET_TIMEOUT,
+                        DropboxHttpClient.DEFAULT_SOCKET_TIMEOUT));
+        this.retryPolicy = DropboxClient.getRetryPolicy(DropboxUtils.getInt(messageContext,
+                DropboxConstants.MAX_RETRIES, RetryPolicy.DEFAULT_MAX_RETRIES));
+        String refreshToken = DropboxUtils.getTrimmedText(messageContext, DropboxConstants.REFRESH_TOKEN);
+        if (refreshToken != null) {
+            this.account = refreshToken;
+            this.accessToken = null;
+            this.authorization = null;
+            this.tokenManager = AccessTokenManager.forMessage(messageContext, httpClient);
+            this.refreshMargin = AccessTokenManager.getRefreshMargin(messageContext);
+        } else {
+            this.accessToken = DropboxUtils.getTrimmedText(messageContext, DropboxConstants.ACCESS_TOKEN);
+            if (accessToken == null) {
+                throw new ConnectException("The accessToken or refreshToken parameter of init is required for the "
+                        + "Dropbox connection " + name);
+            }
+            this.account = accessToken;
+            this.authorization = "Bearer " + accessToken;
+            this.tokenManager = null;
+            this.refreshMargin = 0;
+        }
+        this.rateLimiter = DropboxClient.getRateLimiter(account,
+                DropboxUtils.getTrimmedText(messageContext, DropboxConstants.RATE_LIMIT),
+                DropboxUtils.getTrimmedText(messageContext, DropboxConstants.RATE_LIMIT_BURST));
+    }
+
+    /**
+     * Returns a connection by name.
+     *
+     * @param name the connection name.
+     * @return the connection, or null if no message has created it yet.
+     */
+    public static DropboxConnection get(String name) {
+        return name == null ? null : CONNECTIONS.get(name);
+    }
+
+    /**
+     * Returns a connection by name, creating it from the init parameters set on the message when it does not exist or
+     * was created with other settings. Only one message creates a connection, while concurrent messages with the same
+     * name wait for it.
+     *
+     * @param name           the connection name.
+     * @param settings       the init parameters of the message, in a fixed order, as compared to those of the
+     *                       existing connection.
+     * @param messageContext a message carrying the init parameters, used only to create the connection.
+     * @return the connection.
+     * @throws ConnectException if the connection has to be created and the init parameters are not valid, or hold an
+     *                          access token Dropbox rejected.
+     */
+    public static DropboxConnection resolve(String name, String settings, MessageContext messageContext)
+            throws ConnectException {
+        DropboxConnection connection = CONNECTIONS.get(name);
+        if (connection != null && connection.hasSettings(settings)) {
+            return connection;
+        }
+        synchronized (CONNECTIONS) {
+            DropboxConnection existing = CONNECTIONS.get(name);
+            if (existing != null && existing.hasSettings(settings)) {
+                return existing;
+            }
+            String digest = DropboxUtils.digestKey(settings);
+            if (digest.equals(REJECTED.get(name))) {
+                throw new ConnectException("Dropbox rejected the access token of the connection " + name
+                        + ", it is not used again until the accessToken parameter changes");
+            }
+            connection = new DropboxConnection(name, settings, messageContext);
+            CONNECTIONS.put(name, connection);
+            REJECTED.remove(name);
+            if (existing == null) {
+                log.info("Created the Dropbox connection " + name + " to " + connection.apiUrl);
+            } else {
+                log.info("Replaced the Dropbox connection " + name + " as its settings changed");
+                existing.retire();
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * @param settings the init parameters of a message, see {@link #resolve(String, String, MessageContext)}.
+     * @return true if the connection was created with those settings.
+     */
+    public boolean hasSettings(String settings) {
+        return this.settings.equals(settings);
+    }
+
+    /**
+     * Returns the connection the message was initialized with.
+     *
+     * @param messageContext the message context.
+     * @return the connection, or null when init was not given a connection name.
+     */
+    public static DropboxConnection forMessage(MessageContext messageContext) {
+        return get(DropboxUtils.getTrimmedText(messageContext, DropboxConstants.CONNECTION_NAME));
+    }
+
+    /**
+     * Returns the access token to use for a request: the fixed access token of the connection, or the token cached
+     * for its refresh token.
+     *
+     * @return the access token.
+     * @throws IOException if the refresh token cannot be exchanged for an access token.
+     */
+    public String getAccessToken() throws IOException {
+        return tokenManager == null ? accessToken : tokenManager.getAccessToken(refreshMargin);
+    }
+
+    /**
+     * @param accessToken an access token returned by {@link #getAccessToken()}.
+     * @return the Authorization header value for the token.
+     */
+    public String getAuthorization(String accessToken) {
+        return accessToken.equals(this.accessToken) ? authorization : "Bearer " + accessToken;
+    }
+
+    /**
+     * Drops an access token Dropbox rejected. A token of the refresh token is dropped from the token cache, while a
+     * fixed access token drops the whole connection and closes its pool.
+     *
+     * @param rejectedToken the rejected access token.
+     */
+    public void invalidate(String rejectedToken) {
+        if (tokenManager != null) {
+            tokenManager.invalidate(rejectedToken);
+        } else if (rejectedToken.equals(accessToken) && CONNECTIONS.remove(name, this)) {
+            REJECTED.put(name, DropboxUtils.digestKey(settings));
+            retire();
+            log.warn("Dropbox rejected the access token of the connection " + name + ", the connection is not "
+                    + "created again until its accessToken parameter changes");
+        }
+    }
+
+    /**
+     * Closes the pool of a connection that is no longer registered, after the socket timeout of the pool, so that the
+     * requests still running on it can finish.
+     */
+    private void retire() {
+        ConnectorExecutors.scheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                httpClient.close();
+            }
+        }, httpClient.getSocketTimeout(), TimeUnit.MILLISECONDS);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the API URL including the API version.
+     */
+    public String getApiUrl() {
+        return apiUrl;
+    }
+
+    /**
+     * @return the API version, or null when init was not given one.
+     */
+    public String getApiVersion() {
+        return apiVersion;
+    }
+
+    /**
+     * @return the account credential, see {@link DropboxUtils#getAccount(MessageContext)}.
+     */
+    public String getAccount() {
+        return account;
+    }
+
+    public DropboxHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+}
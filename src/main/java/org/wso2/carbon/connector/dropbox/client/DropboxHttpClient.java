@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.client;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.synapse.MessageContext;
+import org.wso2.carbon.connector.core.ConnectException;
+import org.wso2.carbon.connector.dropbox.DropboxConstants;
+import org.wso2.carbon.connector.dropbox.util.ConnectorExecutors;
+import org.wso2.carbon.connector.dropbox.util.DropboxUtils;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP client used for the calls the connector issues itself, backed by a pool of keep-alive connections shared by
+ * all messages. Connections to api.dropboxapi.com and content.dropboxapi.com stay open between messages, so blocking
+ * flows do not pay for a TCP and TLS handshake on every operation.
+ * <p>
+ * The default pool is used unless the init operation sets the maxConnections, maxConnectionsPerHost, connectTimeout
+ * or socketTimeout parameters, in which case one pool is kept per distinct combination of settings. Messages
+ * initialized with a named connection use the pool of that connection, see {@link DropboxConnection}.
+ * <p>
+ * Pooled connections are not checked for staleness before every request, which costs a blocking socket read per
+ * request. Instead connections idle for longer than {@link #MAX_IDLE_TIME} are closed in the background, and a request
+ * sent over a connection the server closed in the meantime fails with a NoHttpResponseException, which
+ * {@link RetryPolicy} retries.
+ */
+public final class DropboxHttpClient {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 200;
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 50;
+
+    public static final int DEFAULT_CONNECT_TIMEOUT = 30000;
+
+    public static final int DEFAULT_SOCKET_TIMEOUT = 120000;
+
+    /**
+     * The time in milliseconds after which an idle pooled connection is closed.
+     */
+    public static final long MAX_IDLE_TIME = 30000;
+
+    private static final long IDLE_CHECK_INTERVAL = 5000;
+
+    private static final DropboxHttpClient DEFAULT = new DropboxHttpClient(DEFAULT_MAX_CONNECTIONS,
+            DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_CONNECT_TIMEOUT, DEFAULT_SOCKET_TIMEOUT);
+
+    private static final ConcurrentMap<String, DropboxHttpClient> CONFIGURED =
+            new ConcurrentHashMap<String, DropboxHttpClient>();
+
+    private final CloseableHttpClient httpClient;
+
+    private final RequestConfig requestConfig;
+
+    private final ScheduledFuture<?> idleConnectionCheck;
+
+    private DropboxHttpClient(int maxConnections, int maxConnectionsPerHost, int connectTimeout, int socketTimeout) {
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+        requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setConnectionRequestTimeout(connectTimeout)
+                .setSocketTimeout(socketTimeout)
+                .setStaleConnectionCheckEnabled(false)
+                .build();
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .disableContentCompression()
+                .build();
+        idleConnectionCheck = ConnectorExecutors.scheduler().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                connectionManager.closeExpiredConnections();
+                connectionManager.closeIdleConnections(MAX_IDLE_TIME, TimeUnit.MILLISECONDS);
+            }
+        }, IDLE_CHECK_INTERVAL, IDLE_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    public static DropboxHttpClient getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Creates a client with a pool of its own, not shared with other messages or connections.
+     *
+     * @param maxConnections        the maximum number of pooled connections.
+     * @param maxConnectionsPerHost the maximum number of pooled connections to each host.
+     * @param connectTimeout        the connection timeout, in milliseconds.
+     * @param socketTimeout         the socket read timeout, in milliseconds.
+     * @return the client.
+     */
+    public static DropboxHttpClient create(int maxConnections, int maxConnectionsPerHost, int connectTimeout,
+                                           int socketTimeout) {
+        return new DropboxHttpClient(maxConnections, maxConnectionsPerHost, connectTimeout, socketTimeout);
+    }
+
+    /**
+     * Returns the client for the connection settings given to the init operation, or the client of the named
+     * connection the message was initialized with.
+     *
+     * @param messageContext the message context.
+     * @return the client.
+     * @throws ConnectException if a setting is not a valid integer.
+     */
+    public static DropboxHttpClient forMessage(MessageContext messageContext) throws ConnectException {
+        DropboxConnection connection = DropboxConnection.forMessage(messageContext);
+        if (connection != null) {
+            return connection.getHttpClient();
+        }
+        int maxConnections = DropboxUtils.getInt(messageContext, DropboxConstants.MAX_CONNECTIONS,
+                DEFAULT_MAX_CONNECTIONS);
+        int maxConnectionsPerHost = DropboxUtils.getInt(messageContext, DropboxConstants.MAX_CONNECTIONS_PER_HOST,
+                DEFAULT_MAX_CONNECTIONS_PER_HOST);
+        int connectTimeout = DropboxUtils.getInt(messageContext, DropboxConstants.CONNECT_TIMEOUT,
+                DEFAULT_CONNECT_TIMEOUT);
+        int socketTimeout = DropboxUtils.getInt(messageContext, DropboxConstants.SOCKET_TIMEOUT,
+                DEFAULT_SOCKET_TIMEOUT);
+        if (maxConnections == DEFAULT_MAX_CONNECTIONS && maxConnectionsPerHost == DEFAULT_MAX_CONNECTIONS_PER_HOST
+                && connectTimeout == DEFAULT_CONNECT_TIMEOUT && socketTimeout == DEFAULT_SOCKET_TIMEOUT) {
+            return DEFAULT;
+        }
+        String key = maxConnections + "/" + maxConnectionsPerHost + "/" + connectTimeout + "/" + socketTimeout;
+        DropboxHttpClient client = CONFIGURED.get(key);
+        if (client == null) {
+            DropboxHttpClient created = new DropboxHttpClient(maxConnections, maxConnectionsPerHost, connectTimeout,
+                    socketTimeout);
+            client = CONFIGURED.putIfAbsent(key, created);
+            if (client == null) {
+                client = created;
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Returns the default request settings with a different socket timeout, for requests that are expected to wait
+     * on the server longer than usual.
+     *
+     * @param socketTimeout the socket timeout, in milliseconds.
+     * @return the request settings.
+     */
+    public RequestConfig withSocketTimeout(int socketTimeout) {
+        return RequestConfig.copy(requestConfig).setSocketTimeout(socketTimeout).build();
+    }
+
+    /**
+     * @return the socket read timeout of the pooled connections, in milliseconds.
+     */
+    int getSocketTimeout() {
+        return requestConfig.getSocketTimeout();
+    }
+
+    /**
+     * Closes the pooled connections of a client created with
+     * {@link #create(int, int, int, int)}. Requests still running on the client fail.
+     */
+    public void close() {
+        idleConnectionCheck.cancel(false);
+        DropboxUtils.closeQuietly(httpClient);
+    }
+
+    /**
+     * Executes a request. The caller must close the returned response to release the connection to the pool.
+     *
+     * @param request the request to execute.
+     * @return the response.
+     * @throws IOException if the request could not be executed.
+     */
+    public CloseableHttpResponse execute(HttpUriRequest request) throws IOException {
+        return httpClient.execute(request);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.client;
+
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket shared by every request made with one access token, so that concurrent flows using the same Dropbox
+ * account stay under a request rate instead of all running into the Dropbox limit. When Dropbox answers with a
+ * Retry-After, the whole account is paused for that long rather than only the request that was rate limited.
+ * <p>
+ * A limiter without a rate does not throttle, but still applies pauses. Limiters of accounts that made no request
+ * for {@link #IDLE_TIMEOUT} milliseconds are dropped, at most once a minute when a limiter is looked up, so that
+ * rotated or refreshed access tokens do not accumulate. A dropped limiter had a full bucket and no pause, so the
+ * limiter created in its place for a later request behaves the same.
+ */
+public class RateLimiter {
+
+    public static final long IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+
+    private static final long SWEEP_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+
+    private static final Map<String, RateLimiter> LIMITERS = new ConcurrentHashMap<String, RateLimiter>();
+
+    private static final AtomicLong NEXT_SWEEP = new AtomicLong(System.nanoTime() + SWEEP_INTERVAL);
+
+    private double permitsPerNano;
+
+    private double burst;
+
+    private double tokens;
+
+    private long lastRefill;
+
+    private long pausedUntil;
+
+    private long lastUsed;
+
+    RateLimiter(double permitsPerSecond, double burst) {
+        this.lastRefill = System.nanoTime();
+        this.pausedUntil = lastRefill;
+        this.lastUsed = lastRefill;
+        configure(permitsPerSecond, burst);
+        this.tokens = this.burst;
+    }
+
+    /**
+     * Returns the limiter of an account, updating its rate when it differs from the given one.
+     *
+     * @param account          the account key.
+     * @param permitsPerSecond the request rate, or 0 for no throttling.
+     * @param burst            the number of requests allowed at once, at least 1.
+     * @return the limiter.
+     */
+    public static RateLimiter forAccount(String account, double permitsPerSecond, double burst) {
+        evictIdle();
+        RateLimiter limiter = LIMITERS.get(account);
+        if (limiter == null) {
+            RateLimiter created = new RateLimiter(permitsPerSecond, burst);
+            limiter = LIMITERS.putIfAbsent(account, created);
+            if (limiter == null) {
+                return created;
+            }
+        }
+        limiter.configure(permitsPerSecond, burst);
+        return limiter;
+    }
+
+    /**
+     * Returns the limiter of an account as it is currently configured, creating one that does not throttle if the
+     * account has none.
+     *
+     * @param account the account key.
+     * @return the limiter.
+     */
+    public static RateLimiter forAccount(String account) {
+        evictIdle();
+        RateLimiter limiter = LIMITERS.get(account);
+        if (limiter == null) {
+            RateLimiter created = new RateLimiter(0, 1);
+            limiter = LIMITERS.putIfAbsent(account, created);
+            if (limiter == null) {
+                return created;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * @return the number of limiters currently kept.
+     */
+    static int size() {
+        return LIMITERS.size();
+    }
+
+    /**
+     * Drops the limiters that have been idle for {@link #IDLE_TIMEOUT}, unless another thread did so within the last
+     * minute.
+     */
+    static void evictIdle() {
+        evictIdle(System.nanoTime());
+    }
+
+    /**
+     * @param now the current {@link System#nanoTime()}.
+     */
+    static void evictIdle(long now) {
+        long next = NEXT_SWEEP.get();
+        if (now - next < 0 || !NEXT_SWEEP.compareAndSet(next, now + SWEEP_INTERVAL)) {
+            return;
+        }
+        long idleSince = now - TimeUnit.MILLISECONDS.toNanos(IDLE_TIMEOUT);
+        for (Map.Entry<String, RateLimiter> entry : LIMITERS.entrySet()) {
+            if (entry.getValue().isIdle(idleSince, now)) {
+                LIMITERS.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private synchronized boolean isIdle(long idleSince, long now) {
+        if (lastUsed - idleSince >= 0 || pausedUntil - now > 0) {
+            return false;
+        }
+        return permitsPerNano == 0 || tokens + (now - lastRefill) * permitsPerNano >= burst;
+    }
+
+    private synchronized void configure(double permitsPerSecond, double burst) {
+        double rate = permitsPerSecond > 0 ? permitsPerSecond / TimeUnit.SECONDS.toNanos(1) : 0;
+        double size = Math.max(1, burst);
+        if (rate != permitsPerNano || size != this.burst) {
+            refill(System.nanoTime());
+            permitsPerNano = rate;
+            this.burst = size;
+            tokens = Math.min(tokens, size);
+        }
+    }
+
+    /**
+     * Takes a permit, waiting until one is available.
+     *
+     * @return the time spent waiting, in milliseconds.
+     * @throws InterruptedIOException if the thread is interrupted while waiting.
+     */
+    public long acquire() throws InterruptedIOException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            lastUsed = now;
+            waitNanos = Math.max(0, pausedUntil - now);
+            if (permitsPerNano > 0) {
+                refill(now);
+                tokens -= 1;
+                if (tokens < 0) {
+                    // The permit is reserved now and becomes usable once the bucket refills.
+                    waitNanos = Math.max(waitNanos, (long) (-tokens / permitsPerNano));
+                }
+            }
+        }
+        if (waitNanos <= 0) {
+            return 0;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the Dropbox request rate limit");
+        }
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos);
+    }
+
+    /**
+     * Holds back every request of the account for a while, as asked by a Retry-After response.
+     *
+     * @param millis the pause, in milliseconds.
+     */
+    public synchronized void pause(long millis) {
+        pausedUntil = Math.max(pausedUntil, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private void refill(long now) {
+        if (permitsPerNano > 0) {
+            tokens = Math.min(burst, tokens + (now - lastRefill) * permitsPerNano);
+        }
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.client;
+
+import org.apache.synapse.commons.jmx.MBeanRegistrar;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts request attempts, retries and throttle waits across all Dropbox requests, exposed as the
+ * DropboxConnector/Requests MBean.
+ */
+public final class RequestStatistics implements RequestStatisticsMBean {
+
+    private static final RequestStatistics INSTANCE = new RequestStatistics();
+
+    static {
+        MBeanRegistrar.getInstance().registerMBean(INSTANCE, "DropboxConnector", "Requests");
+    }
+
+    private final AtomicLong attempts = new AtomicLong();
+
+    private final AtomicLong retries = new AtomicLong();
+
+    private final AtomicLong rateLimited = new AtomicLong();
+
+    private final AtomicLong serverErrors = new AtomicLong();
+
+    private final AtomicLong connectionFailures = new AtomicLong();
+
+    private final AtomicLong throttled = new AtomicLong();
+
+    private final AtomicLong throttleWaitMillis = new AtomicLong();
+
+    private RequestStatistics() {
+    }
+
+    public static RequestStatistics getInstance() {
+        return INSTANCE;
+    }
+
+    public void attempt() {
+        attempts.incrementAndGet();
+    }
+
+    public void retry() {
+        retries.incrementAndGet();
+    }
+
+    public void failedResponse(int statusCode) {
+        if (statusCode == 429) {
+            rateLimited.incrementAndGet();
+        } else if (statusCode >= 500) {
+            serverErrors.incrementAndGet();
+        }
+    }
+
+    public void connectionFailure() {
+        connectionFailures.incrementAndGet();
+    }
+
+    /**
+     * Records the wait of a request held back by its rate limiter.
+     *
+     * @param millis the time waited, in milliseconds.
+     */
+    public void throttled(long millis) {
+        if (millis > 0) {
+            throttled.incrementAndGet();
+            throttleWaitMillis.addAndGet(millis);
+        }
+    }
+
+    @Override
+    public long getAttempts() {
+        return attempts.get();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.get();
+    }
+
+    @Override
+    public long getRateLimitedResponses() {
+        return rateLimited.get();
+    }
+
+    @Override
+    public long getServerErrorResponses() {
+        return serverErrors.get();
+    }
+
+    @Override
+    public long getConnectionFailures() {
+        return connectionFailures.get();
+    }
+
+    @Override
+    public long getThrottledRequests() {
+        return throttled.get();
+    }
+
+    @Override
+    public long getThrottleWaitMillis() {
+        return throttleWaitMillis.get();
+    }
+
+    @Override
+    public void resetStatistics() {
+        attempts.set(0);
+        retries.set(0);
+        rateLimited.set(0);
+        serverErrors.set(0);
+        connectionFailures.set(0);
+        throttled.set(0);
+        throttleWaitMillis.set(0);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.client;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.HttpHostConnectException;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether a failed Dropbox request is retried and how long to wait before the next attempt.
+ * <p>
+ * Rate limited (429) and server error (500, 502, 503 and 504) responses are retried, as are connection failures
+ * that happen before the request reaches Dropbox. The wait is the Retry-After value when Dropbox sends one, and
+ * otherwise an exponential backoff with full jitter, so that clients that failed together do not retry together.
+ */
+public class RetryPolicy {
+
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    public static final long DEFAULT_BASE_DELAY = 500;
+
+    public static final long DEFAULT_MAX_DELAY = 30000;
+
+    public static final RetryPolicy DEFAULT = new RetryPolicy(DEFAULT_MAX_RETRIES, DEFAULT_BASE_DELAY,
+            DEFAULT_MAX_DELAY);
+
+    public static final RetryPolicy NONE = new RetryPolicy(0, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+
+    private static final String RETRY_AFTER_HEADER = "Retry-After";
+
+    private final int maxRetries;
+
+    private final long baseDelay;
+
+    private final long maxDelay;
+
+    /**
+     * @param maxRetries the number of retries after the first attempt.
+     * @param baseDelay  the backoff delay before the first retry, in milliseconds.
+     * @param maxDelay   the upper bound of the backoff delay, in milliseconds.
+     */
+    public RetryPolicy(int maxRetries, long baseDelay, long maxDelay) {
+        this.maxRetries = maxRetries;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @param statusCode the HTTP status code of the response.
+     * @return whether the response is worth retrying.
+     */
+    public static boolean isRetryable(int statusCode) {
+        return statusCode == 429 || statusCode == 500 || statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    /**
+     * Only failures where the request is known not to have been processed are retried, since most Dropbox calls are
+     * not idempotent.
+     *
+     * @param e the failure.
+     * @return whether the request is worth retrying.
+     */
+    public static boolean isRetryable(IOException e) {
+        return e instanceof ConnectTimeoutException || e instanceof HttpHostConnectException
+                || e instanceof NoHttpResponseException;
+    }
+
+    /**
+     * Returns the delay before a retry.
+     *
+     * @param retry    the one based number of the retry.
+     * @param response the failed response, or null when no response was received.
+     * @return the delay, in milliseconds.
+     */
+    public long getDelay(int retry, HttpResponse response) {
+        long retryAfter = response == null ? -1 : getRetryAfter(response);
+        if (retryAfter >= 0) {
+            return retryAfter;
+        }
+        long ceiling = Math.min(maxDelay, baseDelay << Math.min(retry - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * @param response the response.
+     * @return the Retry-After value in milliseconds, or -1 when the response does not carry one in seconds.
+     */
+    public static long getRetryAfter(HttpResponse response) {
+        Header header = response.getFirstHeader(RETRY_AFTER_HEADER);
+        if (header != null) {
+            try {
+                return Math.max(0, Long.parseLong(header.getValue().trim())) * 1000;
+            } catch (NumberFormatException ignored) {
+                // Dropbox sends seconds. Other forms fall back to the backoff delay.
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.download;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a download response to a local file through NIO channels, without buffering the content in the heap.
+ * <p>
+ * The content is first written to a uniquely named temporary file next to the destination, which is then moved into
+ * place, so a failed download never leaves a truncated file at the destination path, and concurrent downloads to the
+ * same destination do not write to the same temporary file.
+ */
+public final class FileDownloader {
+
+    /**
+     * Upper bound of a single transfer call. The channel copies at most this many bytes at a time.
+     */
+    private static final long TRANSFER_SIZE = 1024 * 1024;
+
+    private FileDownloader() {
+    }
+
+    /**
+     * Writes the response body to the destination file and closes the response.
+     *
+     * @param response    the download response.
+     * @param destination the file to write.
+     * @return the number of bytes written.
+     * @throws IOException if reading the response or writing the file fails.
+     */
+    public static long write(CloseableHttpResponse response, Path destination) throws IOException {
+        Path target = destination.toAbsolutePath();
+        Path temporary = null;
+        boolean completed = false;
+        try {
+            temporary = createTemporaryFile(target);
+            HttpEntity entity = response.getEntity();
+            long written = 0;
+            if (entity != null) {
+                InputStream content = entity.getContent();
+                ReadableByteChannel source = Channels.newChannel(content);
+                FileChannel file = FileChannel.open(temporary, StandardOpenOption.WRITE);
+                try {
+                    long transferred;
+                    while ((transferred = file.transferFrom(source, written, TRANSFER_SIZE)) > 0) {
+                        written += transferred;
+                    }
+                    file.force(false);
+                } finally {
+                    file.close();
+                    source.close();
+                }
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            completed = true;
+            return written;
+        } finally {
+            response.close();
+            if (!completed && temporary != null) {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    /**
+     * Creates an empty temporary file in the directory of a download destination, creating the directory if needed.
+     *
+     * @param target the absolute destination path.
+     * @return the temporary file.
+     * @throws IOException if the directory or the file cannot be created.
+     */
+    static Path createTemporaryFile(Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        return Files.createTempFile(target.getParent(), target.getFileName() + ".", ".part");
+    }
+}
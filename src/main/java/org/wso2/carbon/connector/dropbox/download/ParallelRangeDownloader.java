@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.download;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.wso2.carbon.connector.dropbox.DropboxConstants;
+import org.wso2.carbon.connector.dropbox.client.DropboxApiException;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+import org.wso2.carbon.connector.dropbox.util.ConnectorExecutors;
+import org.wso2.carbon.connector.dropbox.util.JsonWriter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads a file to a local path in parts of a fixed size that are fetched concurrently with HTTP Range requests,
+ * so that a large file is not limited to the throughput of a single connection.
+ * <p>
+ * The first part also tells the size of the file, which is then preallocated in a uniquely named temporary file next to
+ * the destination. Each part is
+ * written at its own position in the file as it arrives, and the complete file is moved into place at the end, so a
+ * failed download never leaves a partial file at the destination path. The remaining parts are requested for the
+ * revision returned with the first part, so all parts come from the same version of the file.
+ * <p>
+ * The parts are fetched either from /files/download, or from a temporary link, which does not count towards the
+ * request rate of the account.
+ */
+public class ParallelRangeDownloader {
+
+    public static final int DEFAULT_PART_SIZE = 16 * 1024 * 1024;
+
+    private static final int MIN_PART_SIZE = 64 * 1024;
+
+    private static final int MAX_PARALLELISM = 32;
+
+    private static final long TRANSFER_SIZE = 1024 * 1024;
+
+    private static final String DOWNLOAD_ENDPOINT = "/files/download";
+
+    private static final String TEMPORARY_LINK_ENDPOINT = "/files/get_temporary_link";
+
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes\\s+(\\d+)-(\\d+)/(\\d+)");
+
+    private final DropboxClient client;
+
+    private final long partSize;
+
+    private final int parallelism;
+
+    private final boolean useTemporaryLink;
+
+    /**
+     * @param client           the client of the account to download from.
+     * @param partSize         the size of each part in bytes.
+     * @param parallelism      the maximum number of parts fetched at the same time.
+     * @param useTemporaryLink true to fetch the parts from a temporary link instead of /files/download.
+     */
+    public ParallelRangeDownloader(DropboxClient client, long partSize, int parallelism, boolean useTemporaryLink) {
+        this.client = client;
+        this.partSize = Math.max(MIN_PART_SIZE, partSize);
+        this.parallelism = Math.min(MAX_PARALLELISM, Math.max(1, parallelism));
+        this.useTemporaryLink = useTemporaryLink;
+    }
+
+    /**
+     * Downloads a file to the destination.
+     *
+     * @param path        the Dropbox path, id or revision of the file.
+     * @param destination the local file to write.
+     * @return the metadata of the downloaded file, as returned by Dropbox.
+     * @throws IOException if a request or writing the file fails.
+     */
+    public String download(String path, Path destination) throws IOException {
+        Path target = destination.toAbsolutePath();
+        Path temporary = FileDownloader.createTemporaryFile(target);
+        boolean completed = false;
+        try {
+            String metadata = null;
+            String link = null;
+            if (useTemporaryLink) {
+                JSONObject response = parse(client.rpc(TEMPORARY_LINK_ENDPOINT, pathArgument(path)));
+                link = response.optString("link", null);
+                JSONObject linkMetadata = response.optJSONObject("metadata");
+                metadata = linkMetadata == null ? "{}" : linkMetadata.toString();
+            }
+            CloseableHttpResponse first;
+            try {
+                first = fetch(path, link, 0, partSize - 1);
+            } catch (DropboxApiException e) {
+                if (e.getStatusCode() != 416) {
+                    throw e;
+                }
+                // Empty files have no satisfiable range.
+                first = fetch(path, link, -1, -1);
+            }
+            long size;
+            try {
+                if (metadata == null) {
+                    Header result = first.getFirstHeader(DropboxConstants.API_RESULT_HEADER);
+                    metadata = result == null ? "{}" : result.getValue();
+                }
+                if (first.getStatusLine().getStatusCode() != 206) {
+                    // The range was not applied, the response is the whole file, written through a temporary file of
+                    // its own.
+                    FileDownloader.write(first, target);
+                    return metadata;
+                }
+                size = getTotalSize(first);
+                preallocate(temporary, size);
+                if (link == null) {
+                    String rev = parse(metadata).optString("rev", null);
+                    if (rev != null) {
+                        path = "rev:" + rev;
+                    }
+                }
+            } catch (IOException e) {
+                first.close();
+                throw e;
+            }
+            FileChannel file;
+            try {
+                file = FileChannel.open(temporary, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                first.close();
+                throw e;
+            }
+            try {
+                downloadParts(first, path, link, file, size);
+                file.force(false);
+            } finally {
+                file.close();
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            completed = true;
+            return metadata;
+        } finally {
+            if (!completed) {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    /**
+     * Writes the first part, which has already been requested, and fetches the others with at most parallelism parts
+     * in flight. The first response is closed here if its part is cancelled before it is written.
+     */
+    private void downloadParts(final CloseableHttpResponse first, final String path, final String link,
+                               final FileChannel file, long size) throws IOException {
+        final Semaphore permits = new Semaphore(parallelism);
+        final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+        final AtomicBoolean firstTaken = new AtomicBoolean();
+        List<Future<?>> parts = new ArrayList<Future<?>>();
+        try {
+            for (long start = 0; start < size; start += partSize) {
+                acquire(permits);
+                rethrow(failure);
+                final long position = start;
+                final long length = Math.min(partSize, size - start);
+                parts.add(ConnectorExecutors.transfers().submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (position == 0) {
+                                if (firstTaken.compareAndSet(false, true)) {
+                                    writePart(first, file, position, length);
+                                }
+                            } else if (failure.get() == null) {
+                                writePart(fetch(path, link, position, position + length - 1), file, position, length);
+                            }
+                        } catch (IOException e) {
+                            failure.compareAndSet(null, e);
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> part : parts) {
+                part.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelAll(parts);
+            throw new InterruptedIOException("Interrupted while waiting for download parts");
+        } catch (ExecutionException e) {
+            cancelAll(parts);
+            throw new IOException("Download part failed", e.getCause());
+        } catch (IOException e) {
+            cancelAll(parts);
+            throw e;
+        } finally {
+            if (firstTaken.compareAndSet(false, true)) {
+                first.close();
+            }
+        }
+        rethrow(failure);
+    }
+
+    /**
+     * Requests the bytes from first to last, both included, or the whole file when first is negative.
+     */
+    private CloseableHttpResponse fetch(String path, String link, long first, long last) throws IOException {
+        String range = first < 0 ? null : "bytes=" + first + "-" + last;
+        if (link != null) {
+            return client.fetchTemporaryLink(link, range);
+        }
+        return client.download(DOWNLOAD_ENDPOINT, pathArgument(path), range);
+    }
+
+    /**
+     * Writes a part response at its position in the file and closes the response.
+     */
+    private static void writePart(CloseableHttpResponse response, FileChannel file, long position, long length)
+            throws IOException {
+        try {
+            HttpEntity entity = response.getEntity();
+            if (response.getStatusLine().getStatusCode() != 206 || entity == null) {
+                throw new IOException("Dropbox did not return the requested range at " + position + ", HTTP "
+                        + response.getStatusLine().getStatusCode());
+            }
+            ReadableByteChannel source = Channels.newChannel(entity.getContent());
+            try {
+                long written = 0;
+                long transferred;
+                while (written < length
+                        && (transferred = file.transferFrom(source, position + written,
+                        Math.min(TRANSFER_SIZE, length - written))) > 0) {
+                    written += transferred;
+                }
+                if (written != length) {
+                    throw new IOException("Received " + written + " of " + length + " bytes of the part at "
+                            + position);
+                }
+            } finally {
+                source.close();
+            }
+        } finally {
+            EntityUtils.consumeQuietly(response.getEntity());
+            response.close();
+        }
+    }
+
+    private static long getTotalSize(CloseableHttpResponse response) throws IOException {
+        Header contentRange = response.getFirstHeader("Content-Range");
+        Matcher matcher = contentRange == null ? null : CONTENT_RANGE.matcher(contentRange.getValue());
+        if (matcher == null || !matcher.find()) {
+            throw new IOException("Dropbox returned a partial response without a valid Content-Range header");
+        }
+        return Long.parseLong(matcher.group(3));
+    }
+
+    private static void preallocate(Path file, long size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw");
+        try {
+            raf.setLength(size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static String pathArgument(String path) {
+        JsonWriter writer = JsonWriter.reusable().asciiOnly(true);
+        writer.beginObject().name("path").value(path).endObject();
+        return writer.toString();
+    }
+
+    private static JSONObject parse(String json) throws IOException {
+        try {
+            return new JSONObject(json);
+        } catch (JSONException e) {
+            throw new IOException("Unexpected response from Dropbox: " + json, e);
+        }
+    }
+
+    private static void acquire(Semaphore permits) throws IOException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to fetch a download part");
+        }
+    }
+
+    private static void rethrow(AtomicReference<IOException> failure) throws IOException {
+        IOException e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    private static void cancelAll(List<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.download;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.wso2.carbon.connector.dropbox.client.DropboxHttpClient;
+import org.wso2.carbon.connector.dropbox.util.ConnectorExecutors;
+import org.wso2.carbon.connector.dropbox.util.DropboxUtils;
+
+import javax.activation.DataSource;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exposes the body of an HTTP response as a data source that can be read exactly once. The content is streamed from
+ * the connection through a {@link #BUFFER_SIZE} byte buffer while the message is written to the client, so it is never
+ * held in memory or on disk as a whole. Reading the content to the end, or closing the stream, closes the response.
+ * <p>
+ * The data source owns the response. If the stream is not opened within {@link #UNREAD_TIMEOUT} milliseconds, e.g.
+ * because the message was faulted or dropped, the response is closed so that its pooled connection is not held.
+ */
+public class ResponseDataSource implements DataSource {
+
+    private static final Log log = LogFactory.getLog(ResponseDataSource.class);
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The time in milliseconds after which a response whose content was never read is closed.
+     */
+    public static final long UNREAD_TIMEOUT = DropboxHttpClient.DEFAULT_SOCKET_TIMEOUT;
+
+    private final CloseableHttpResponse response;
+
+    private final String contentType;
+
+    private final ScheduledFuture<?> unreadCheck;
+
+    private boolean consumed;
+
+    public ResponseDataSource(final CloseableHttpResponse response, String contentType) {
+        this.response = response;
+        this.contentType = contentType;
+        this.unreadCheck = ConnectorExecutors.scheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (claim()) {
+                    log.warn("Closing a Dropbox download that was not read within " + UNREAD_TIMEOUT + " ms");
+                    DropboxUtils.closeQuietly(response);
+                }
+            }
+        }, UNREAD_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (!claim()) {
+            throw new IOException("The Dropbox download stream has already been consumed");
+        }
+        unreadCheck.cancel(false);
+        HttpEntity entity = response.getEntity();
+        InputStream content;
+        try {
+            content = entity == null ? new ByteArrayInputStream(new byte[0]) : entity.getContent();
+        } catch (IOException e) {
+            DropboxUtils.closeQuietly(response);
+            throw e;
+        }
+        return new ResponseStream(new BufferedInputStream(content, BUFFER_SIZE));
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        throw new IOException("A Dropbox download stream is read only");
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public String getName() {
+        return "dropbox-download";
+    }
+
+    /**
+     * @return the length of the content in bytes, or -1 when the response does not state it.
+     */
+    public long getLength() {
+        HttpEntity entity = response.getEntity();
+        return entity == null ? 0 : entity.getContentLength();
+    }
+
+    /**
+     * @return true for the one caller that may read or close the response.
+     */
+    private synchronized boolean claim() {
+        if (consumed) {
+            return false;
+        }
+        consumed = true;
+        return true;
+    }
+
+    /**
+     * Closes the response once the content has been read to the end or the stream is closed.
+     */
+    private final class ResponseStream extends FilterInputStream {
+
+        private boolean closed;
+
+        ResponseStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (closed) {
+                return -1;
+            }
+            int read = in.read();
+            if (read < 0) {
+                close();
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (closed) {
+                return -1;
+            }
+            int read = in.read(buffer, offset, length);
+            if (read < 0) {
+                close();
+            }
+            return read;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                DropboxUtils.closeQuietly(response);
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.listing;
+
+import org.wso2.carbon.connector.dropbox.util.JsonReader;
+import org.wso2.carbon.connector.dropbox.util.JsonWriter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reduces a Dropbox metadata response to selected fields, e.g. path_display, id, rev and size, so that the mediators
+ * processing the response handle a fraction of it.
+ * <p>
+ * The response is streamed through a {@link JsonReader} and the projection is written as it is read; only the selected
+ * values of the current item are held in memory. A metadata object, as returned by get_metadata, is reduced to its
+ * .tag and the selected fields. The items of a listing, the entries of list_folder and list_revisions or the matches
+ * of search and search_v2, are reduced the same way, search matches being replaced by the metadata they wrap, and the
+ * paging members of the listing such as has_more and cursor are kept. Fields missing from an item are left out.
+ */
+public class FieldProjection {
+
+    private static final String TAG = ".tag";
+
+    private static final String METADATA = "metadata";
+
+    private static final Set<String> ITEM_LISTS = new HashSet<String>(Arrays.asList("entries", "matches"));
+
+    private static final Set<String> PAGE_MEMBERS = new HashSet<String>(Arrays.asList("has_more", "cursor", "more",
+            "start", "is_deleted", "server_deleted"));
+
+    private final List<String> fields;
+
+    private FieldProjection(List<String> fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * @param fields comma separated field names.
+     * @return the projection, or null when no field is given.
+     */
+    public static FieldProjection parse(String fields) {
+        if (fields == null) {
+            return null;
+        }
+        List<String> names = new ArrayList<String>();
+        for (String field : fields.split(",")) {
+            String name = field.trim();
+            if (!name.isEmpty() && !TAG.equals(name) && !names.contains(name)) {
+                names.add(name);
+            }
+        }
+        return names.isEmpty() ? null : new FieldProjection(names);
+    }
+
+    /**
+     * Projects a response held in memory.
+     *
+     * @param response the Dropbox response.
+     * @return the projected response.
+     * @throws IOException if the response is not valid JSON.
+     */
+    public String project(String response) throws IOException {
+        JsonWriter writer = JsonWriter.reusable();
+        project(new StringReader(response), writer);
+        return writer.toString();
+    }
+
+    /**
+     * Projects a response while it is read.
+     *
+     * @param response the Dropbox response.
+     * @param writer   the writer to write the projected response to.
+     * @throws IOException if the response cannot be read or is not valid JSON.
+     */
+    public void project(Reader response, JsonWriter writer) throws IOException {
+        JsonReader reader = new JsonReader(response);
+        if (reader.peek() != JsonReader.Token.BEGIN_OBJECT) {
+            reader.copyValue(writer);
+            return;
+        }
+        String[] values = new String[fields.size()];
+        JsonWriter valueWriter = new JsonWriter();
+        reader.beginObject();
+        writer.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            JsonReader.Token token = reader.peek();
+            if (ITEM_LISTS.contains(name) && token == JsonReader.Token.BEGIN_ARRAY) {
+                writer.name(name).beginArray();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (reader.peek() == JsonReader.Token.BEGIN_OBJECT) {
+                        writeItem(reader, writer, values, valueWriter);
+                    } else {
+                        reader.copyValue(writer);
+                    }
+                }
+                reader.endArray();
+                writer.endArray();
+            } else if (TAG.equals(name) || fields.contains(name)
+                    || (PAGE_MEMBERS.contains(name) && isScalar(token))) {
+                writer.name(name);
+                reader.copyValue(writer);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        writer.endObject();
+    }
+
+    private void writeItem(JsonReader reader, JsonWriter writer, String[] values, JsonWriter valueWriter)
+            throws IOException {
+        Arrays.fill(values, null);
+        String tag = collect(reader, values, valueWriter);
+        writer.beginObject();
+        if (tag != null) {
+            writer.name(TAG).value(tag);
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                writer.name(fields.get(i)).rawValue(values[i]);
+            }
+        }
+        writer.endObject();
+    }
+
+    /**
+     * Reads an item, collecting the selected fields of the item and of the metadata it wraps, if any. A search_v2
+     * match wraps its metadata twice: {"metadata": {".tag": "metadata", "metadata": {...}}}.
+     *
+     * @return the tag of the innermost metadata.
+     */
+    private String collect(JsonReader reader, String[] values, JsonWriter valueWriter) throws IOException {
+        String tag = null;
+        String wrappedTag = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            int index = fields.indexOf(name);
+            JsonReader.Token token = reader.peek();
+            if (TAG.equals(name) && token == JsonReader.Token.STRING) {
+                tag = reader.nextString();
+            } else if (index >= 0 && token != JsonReader.Token.NULL) {
+                valueWriter.reset();
+                reader.copyValue(valueWriter);
+                values[index] = valueWriter.toString();
+            } else if (METADATA.equals(name) && token == JsonReader.Token.BEGIN_OBJECT) {
+                wrappedTag = collect(reader, values, valueWriter);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return wrappedTag != null ? wrappedTag : tag;
+    }
+
+    private static boolean isScalar(JsonReader.Token token) {
+        return token != JsonReader.Token.BEGIN_OBJECT && token != JsonReader.Token.BEGIN_ARRAY;
+    }
+}
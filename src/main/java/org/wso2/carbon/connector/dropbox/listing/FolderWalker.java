@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.listing;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.wso2.carbon.connector.core.ConnectException;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+import org.wso2.carbon.connector.dropbox.util.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Follows a list_folder cursor page by page, handing every page to a {@link PageHandler} before the next one is
+ * requested, so that only one page is held in memory at a time. {@link #forSearch(DropboxClient)} returns a walker
+ * that follows search_v2 cursors the same way.
+ */
+public class FolderWalker {
+
+    public static final String LIST_FOLDER_ENDPOINT = "/files/list_folder";
+
+    public static final String CONTINUE_ENDPOINT = "/files/list_folder/continue";
+
+    public static final String GET_LATEST_CURSOR_ENDPOINT = "/files/list_folder/get_latest_cursor";
+
+    public static final String SEARCH_V2_ENDPOINT = "/files/search_v2";
+
+    public static final String SEARCH_CONTINUE_ENDPOINT = "/files/search/continue_v2";
+
+    private final DropboxClient client;
+
+    private final String continueEndpoint;
+
+    private final String itemsField;
+
+    public FolderWalker(DropboxClient client) {
+        this(client, CONTINUE_ENDPOINT, "entries");
+    }
+
+    private FolderWalker(DropboxClient client, String continueEndpoint, String itemsField) {
+        this.client = client;
+        this.continueEndpoint = continueEndpoint;
+        this.itemsField = itemsField;
+    }
+
+    /**
+     * Returns a walker over the pages of a search_v2 result, whose matches are counted as the entries of the walk.
+     *
+     * @param client the client.
+     * @return the walker.
+     */
+    public static FolderWalker forSearch(DropboxClient client) {
+        return new FolderWalker(client, SEARCH_CONTINUE_ENDPOINT, "matches");
+    }
+
+    /**
+     * Receives the pages of a listing.
+     */
+    public interface PageHandler {
+
+        /**
+         * @param page     the list_folder response.
+         * @param index    the zero based index of the page within this walk.
+         * @param cursor   the cursor that follows the page.
+         * @param hasMore  whether more pages are available after this one.
+         * @return false to stop the walk before the page, which is then not counted, e.g. when the sequence
+         * mediating it stopped.
+         * @throws ConnectException to stop the walk.
+         */
+        boolean onPage(String page, int index, String cursor, boolean hasMore) throws ConnectException;
+    }
+
+    /**
+     * Walks a listing from its first request.
+     *
+     * @param endpoint the endpoint of the first request, either the listing endpoint or its continue endpoint.
+     * @param argument the argument of the first request.
+     * @param maxPages the maximum number of pages to walk.
+     * @param handler  the page handler.
+     * @return the outcome of the walk.
+     * @throws IOException      if a page cannot be read. Pages handled before the failure are not rolled back.
+     * @throws ConnectException if the handler fails.
+     */
+    public Result walk(String endpoint, String argument, int maxPages, PageHandler handler)
+            throws IOException, ConnectException {
+        Result result = new Result();
+        boolean hasMore = true;
+        while (hasMore && result.pages < maxPages) {
+            String page = client.rpc(endpoint, argument);
+            String cursor;
+            int entries;
+            try {
+                JSONObject listing = new JSONObject(page);
+                // search_v2 leaves the cursor out of its last page.
+                cursor = listing.optString("cursor", null);
+                hasMore = listing.optBoolean("has_more");
+                entries = listing.getJSONArray(itemsField).length();
+            } catch (JSONException e) {
+                throw new IOException("Unexpected response from " + endpoint + ": " + e.getMessage(), e);
+            }
+            if (hasMore && cursor == null) {
+                throw new IOException("Dropbox reported more results from " + endpoint + " without a cursor");
+            }
+            if (!handler.onPage(page, result.pages, cursor, hasMore)) {
+                result.stopped = true;
+                result.hasMore = true;
+                return result;
+            }
+            result.cursor = cursor;
+            result.entries += entries;
+            result.pages++;
+            endpoint = continueEndpoint;
+            argument = cursorArgument(cursor);
+        }
+        result.hasMore = hasMore;
+        return result;
+    }
+
+    /**
+     * Walks a listing onward from a cursor.
+     *
+     * @param cursor   the cursor to continue from.
+     * @param maxPages the maximum number of pages to walk.
+     * @param handler  the page handler.
+     * @return the outcome of the walk.
+     * @throws IOException      if a page cannot be read.
+     * @throws ConnectException if the handler fails.
+     */
+    public Result walkFrom(String cursor, int maxPages, PageHandler handler) throws IOException, ConnectException {
+        return walk(continueEndpoint, cursorArgument(cursor), maxPages, handler);
+    }
+
+    /**
+     * Returns a cursor for the current state of a folder, without listing it.
+     *
+     * @param argument the list_folder argument describing the folder.
+     * @return the cursor.
+     * @throws IOException if the call fails.
+     */
+    public String latestCursor(String argument) throws IOException {
+        String response = client.rpc(GET_LATEST_CURSOR_ENDPOINT, argument);
+        try {
+            return new JSONObject(response).getString("cursor");
+        } catch (JSONException e) {
+            throw new IOException("Unexpected response from " + GET_LATEST_CURSOR_ENDPOINT + ": " + response, e);
+        }
+    }
+
+    private static String cursorArgument(String cursor) {
+        JsonWriter writer = JsonWriter.reusable();
+        writer.beginObject().name("cursor").value(cursor).endObject();
+        return writer.toString();
+    }
+
+    /**
+     * The outcome of a walk.
+     */
+    public static final class Result {
+
+        private int pages;
+
+        private long entries;
+
+        private String cursor;
+
+        private boolean hasMore;
+
+        private boolean stopped;
+
+        public int getPages() {
+            return pages;
+        }
+
+        public long getEntries() {
+            return entries;
+        }
+
+        /**
+         * @return the cursor after the last page walked, or null when no page was read.
+         */
+        public String getCursor() {
+            return cursor;
+        }
+
+        public boolean hasMore() {
+            return hasMore;
+        }
+
+        /**
+         * @return whether the page handler stopped the walk, before the page following {@link #getCursor()}.
+         */
+        public boolean isStopped() {
+            return stopped;
+        }
+
+        /**
+         * Writes the members of the result into an open JSON object.
+         *
+         * @param writer the writer.
+         */
+        public void writeTo(JsonWriter writer) {
+            writer.name("pages").value(pages).name("entries").value(entries)
+                    .name("cursor").value(cursor).name("has_more").value(hasMore).name("stopped").value(stopped);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.metrics;
+
+/**
+ * The outcome of one Dropbox call, as passed to the metrics and to the {@link MetricsReporter}.
+ */
+public final class CallSample {
+
+    private final String operation;
+
+    private final int statusCode;
+
+    private final String errorTag;
+
+    private final long latency;
+
+    private final long serverTime;
+
+    private final long bytesSent;
+
+    private final long bytesReceived;
+
+    private final String requestId;
+
+    /**
+     * @param operation     the operation name or endpoint path.
+     * @param statusCode    the HTTP status code, or 0 when no response was received.
+     * @param errorTag      the Dropbox error tag of a failed call, or null to derive one from the status code.
+     * @param latency       the time waited for the response, in milliseconds.
+     * @param serverTime    the processing time reported by Dropbox, in milliseconds, or -1 when not reported.
+     * @param bytesSent     the size of the request content, or -1 when unknown.
+     * @param bytesReceived the size of the response content, or -1 when unknown.
+     * @param requestId     the Dropbox request id, or null when not reported.
+     */
+    public CallSample(String operation, int statusCode, String errorTag, long latency, long serverTime,
+                      long bytesSent, long bytesReceived, String requestId) {
+        this.operation = operation;
+        this.statusCode = statusCode;
+        if (errorTag != null) {
+            this.errorTag = errorTag;
+        } else if (statusCode == 0) {
+            this.errorTag = "connection_failure";
+        } else if (statusCode == 429) {
+            this.errorTag = "too_many_requests";
+        } else {
+            this.errorTag = "http_" + statusCode;
+        }
+        this.latency = latency;
+        this.serverTime = serverTime;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.requestId = requestId;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public boolean isSuccess() {
+        return statusCode / 100 == 2;
+    }
+
+    /**
+     * @return the error tag of a failed call, e.g. path/not_found, too_many_requests or http_500.
+     */
+    public String getErrorTag() {
+        return isSuccess() ? null : errorTag;
+    }
+
+    public long getLatency() {
+        return latency;
+    }
+
+    public long getServerTime() {
+        return serverTime;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    @Override
+    public String toString() {
+        return "operation=" + operation + ", status=" + statusCode + (isSuccess() ? "" : ", error=" + errorTag)
+                + ", latency=" + latency + "ms, serverTime=" + serverTime + "ms, sent=" + bytesSent
+                + ", received=" + bytesReceived + ", requestId=" + requestId;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.metrics;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.commons.jmx.MBeanRegistrar;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Entry point for recording Dropbox calls. Template operations are recorded under their operation name and the
+ * requests issued by the connector classes under their endpoint path, each exposed as a DropboxConnectorMetrics MBean.
+ */
+public final class ConnectorMetrics {
+
+    private static final Log log = LogFactory.getLog(ConnectorMetrics.class);
+
+    private static final String REPORTER_PROPERTY = "dropbox.metrics.reporter";
+
+    private static final String MBEAN_CATEGORY = "DropboxConnectorMetrics";
+
+    private static final ConcurrentMap<String, OperationMetrics> METRICS =
+            new ConcurrentHashMap<String, OperationMetrics>();
+
+    private static volatile MetricsReporter reporter = createReporter();
+
+    private ConnectorMetrics() {
+    }
+
+    /**
+     * Records a call.
+     *
+     * @param sample the call.
+     */
+    public static void record(CallSample sample) {
+        get(sample.getOperation()).record(sample);
+        MetricsReporter current = reporter;
+        if (current != null) {
+            try {
+                current.report(sample);
+            } catch (RuntimeException e) {
+                log.warn("Dropbox metrics reporter failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @param operation the operation name or endpoint path.
+     * @return the metrics of the operation, registered as an MBean when first used.
+     */
+    public static OperationMetrics get(String operation) {
+        OperationMetrics metrics = METRICS.get(operation);
+        if (metrics == null) {
+            OperationMetrics created = new OperationMetrics(operation);
+            metrics = METRICS.putIfAbsent(operation, created);
+            if (metrics == null) {
+                metrics = created;
+                MBeanRegistrar.getInstance().registerMBean(created, MBEAN_CATEGORY, operation.replace(':', '_'));
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Replaces the reporter, e.g. with one that forwards to a metrics library.
+     *
+     * @param metricsReporter the reporter, or null to report to JMX only.
+     */
+    public static void setReporter(MetricsReporter metricsReporter) {
+        reporter = metricsReporter;
+    }
+
+    private static MetricsReporter createReporter() {
+        String className = System.getProperty(REPORTER_PROPERTY);
+        if (className == null || className.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return (MetricsReporter) Class.forName(className.trim(), true, ConnectorMetrics.class.getClassLoader())
+                    .getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            log.error("Could not create the Dropbox metrics reporter " + className, e);
+            return null;
+        }
+    }
+}
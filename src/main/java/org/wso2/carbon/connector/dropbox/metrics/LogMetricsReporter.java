@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.metrics;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Writes every call to the org.wso2.carbon.connector.dropbox.metrics log at info level, for collection by a log
+ * shipper.
+ */
+public class LogMetricsReporter implements MetricsReporter {
+
+    private static final Log log = LogFactory.getLog("org.wso2.carbon.connector.dropbox.metrics");
+
+    @Override
+    public void report(CallSample sample) {
+        if (log.isInfoEnabled()) {
+            log.info(sample);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of one connector operation or Dropbox endpoint. The latency is the time the connector waited for the
+ * response, while the server time is the processing time reported by Dropbox in the x-server-response-time header,
+ * so the difference between the two is spent on the network and in the ESB.
+ */
+public class OperationMetrics implements OperationMetricsMBean {
+
+    private final String name;
+
+    private final AtomicLong calls = new AtomicLong();
+
+    private final AtomicLong errors = new AtomicLong();
+
+    private final ConcurrentMap<String, AtomicLong> errorsByTag = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final LatencyHistogram serverTime = new LatencyHistogram();
+
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    void record(CallSample sample) {
+        calls.incrementAndGet();
+        latency.record(sample.getLatency());
+        if (sample.getServerTime() >= 0) {
+            serverTime.record(sample.getServerTime());
+        }
+        if (sample.getBytesSent() > 0) {
+            bytesSent.addAndGet(sample.getBytesSent());
+        }
+        if (sample.getBytesReceived() > 0) {
+            bytesReceived.addAndGet(sample.getBytesReceived());
+        }
+        if (!sample.isSuccess()) {
+            errors.incrementAndGet();
+            String tag = sample.getErrorTag();
+            AtomicLong counter = errorsByTag.get(tag);
+            if (counter == null) {
+                AtomicLong created = new AtomicLong();
+                counter = errorsByTag.putIfAbsent(tag, created);
+                if (counter == null) {
+                    counter = created;
+                }
+            }
+            counter.incrementAndGet();
+        }
+    }
+
+    @Override
+    public long getCalls() {
+        return calls.get();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public String getErrorsByTag() {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : errorsByTag.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts.toString();
+    }
+
+    @Override
+    public double getMeanLatency() {
+        return latency.getMean();
+    }
+
+    @Override
+    public long getP50Latency() {
+        return latency.getPercentile(0.5);
+    }
+
+    @Override
+    public long getP95Latency() {
+        return latency.getPercentile(0.95);
+    }
+
+    @Override
+    public long getP99Latency() {
+        return latency.getPercentile(0.99);
+    }
+
+    @Override
+    public long getMaxLatency() {
+        return latency.getMax();
+    }
+
+    @Override
+    public double getMeanServerTime() {
+        return serverTime.getMean();
+    }
+
+    @Override
+    public long getP95ServerTime() {
+        return serverTime.getPercentile(0.95);
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    @Override
+    public void resetStatistics() {
+        calls.set(0);
+        errors.set(0);
+        errorsByTag.clear();
+        latency.reset();
+        serverTime.reset();
+        bytesSent.set(0);
+        bytesReceived.set(0);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.metrics;
+
+/**
+ * JMX view of the metrics of one connector operation or Dropbox endpoint. Latencies are in milliseconds.
+ */
+public interface OperationMetricsMBean {
+
+    long getCalls();
+
+    long getErrors();
+
+    String getErrorsByTag();
+
+    double getMeanLatency();
+
+    long getP50Latency();
+
+    long getP95Latency();
+
+    long getP99Latency();
+
+    long getMaxLatency();
+
+    double getMeanServerTime();
+
+    long getP95ServerTime();
+
+    long getBytesSent();
+
+    long getBytesReceived();
+
+    void resetStatistics();
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.sync;
+
+import java.io.IOException;
+
+/**
+ * Keeps list_folder cursors between runs of a sync, so that a run only reads the changes made since the last one.
+ * <p>
+ * Stores hold any short text under a key, and are also used for the state of resumable uploads.
+ */
+public interface CursorStore {
+
+    /**
+     * @param key the sync key.
+     * @return the stored cursor, or null when the sync has not run yet.
+     * @throws IOException if the store cannot be read.
+     */
+    String load(String key) throws IOException;
+
+    /**
+     * @param key    the sync key.
+     * @param cursor the cursor to keep.
+     * @throws IOException if the store cannot be written.
+     */
+    void save(String key, String cursor) throws IOException;
+
+    /**
+     * @param key the sync key.
+     * @throws IOException if the store cannot be written.
+     */
+    void delete(String key) throws IOException;
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.sync;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Stores each cursor in its own file under a local directory. Files are replaced atomically, so a crash while saving
+ * leaves the previous cursor in place.
+ */
+public class FileCursorStore implements CursorStore {
+
+    private static final String CURSOR_EXTENSION = ".cursor";
+
+    private final Path directory;
+
+    private final String extension;
+
+    public FileCursorStore(Path directory) {
+        this(directory, CURSOR_EXTENSION);
+    }
+
+    /**
+     * @param directory the directory to keep the files in.
+     * @param extension the file name extension, for stores that keep other state than cursors.
+     */
+    public FileCursorStore(Path directory, String extension) {
+        this.directory = directory;
+        this.extension = extension;
+    }
+
+    @Override
+    public String load(String key) throws IOException {
+        try {
+            String cursor = new String(Files.readAllBytes(file(key)), StandardCharsets.UTF_8).trim();
+            return cursor.isEmpty() ? null : cursor;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void save(String key, String cursor) throws IOException {
+        Files.createDirectories(directory);
+        Path file = file(key);
+        Path temp = Files.createTempFile(directory, key, ".tmp");
+        try {
+            Files.write(temp, cursor.getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(file(key));
+    }
+
+    private Path file(String key) {
+        return directory.resolve(key + extension);
+    }
+}
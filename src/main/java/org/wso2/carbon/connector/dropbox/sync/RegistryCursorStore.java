@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.sync;
+
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMNode;
+import org.apache.axiom.om.OMText;
+import org.apache.synapse.registry.Registry;
+
+/**
+ * Stores cursors as text resources in the Synapse registry, e.g. under conf:/dropbox/cursors, so that every node of a
+ * cluster sharing the registry continues from the same cursor.
+ */
+public class RegistryCursorStore implements CursorStore {
+
+    private final Registry registry;
+
+    private final String collection;
+
+    public RegistryCursorStore(Registry registry, String collection) {
+        this.registry = registry;
+        this.collection = collection.endsWith("/") ? collection : collection + "/";
+    }
+
+    @Override
+    public String load(String key) {
+        OMNode node = registry.lookup(collection + key);
+        String cursor = null;
+        if (node instanceof OMText) {
+            cursor = ((OMText) node).getText();
+        } else if (node instanceof OMElement) {
+            cursor = ((OMElement) node).getText();
+        }
+        if (cursor == null) {
+            return null;
+        }
+        cursor = cursor.trim();
+        return cursor.isEmpty() ? null : cursor;
+    }
+
+    @Override
+    public void save(String key, String cursor) {
+        String resource = collection + key;
+        if (registry.lookup(resource) == null) {
+            registry.newResource(resource, false);
+        }
+        registry.updateResource(resource, cursor);
+    }
+
+    @Override
+    public void delete(String key) {
+        registry.delete(collection + key);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.upload;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.wso2.carbon.connector.dropbox.client.DropboxApiException;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+import org.wso2.carbon.connector.dropbox.util.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Compares the content hash of an upload with the file stored in Dropbox, either before the upload to find out whether
+ * it is needed at all, or after it to make sure the committed file matches the local content.
+ */
+public class ContentHashVerifier {
+
+    private static final String GET_METADATA_ENDPOINT = "/files/get_metadata";
+
+    private static final String CONTENT_HASH = "content_hash";
+
+    private static final String NOT_FOUND_ERROR = "path/not_found";
+
+    private final DropboxClient client;
+
+    private final String path;
+
+    /**
+     * @param client the client of the account uploaded to.
+     * @param path   the Dropbox path of the uploaded file.
+     */
+    public ContentHashVerifier(DropboxClient client, String path) {
+        this.client = client;
+        this.path = path;
+    }
+
+    /**
+     * Looks up the file at the upload path.
+     *
+     * @param contentHash the content hash of the local content.
+     * @return the metadata of the file when it exists and has the given content hash, or null when it has to be
+     * uploaded.
+     * @throws IOException if the metadata lookup fails.
+     */
+    public String findUnchanged(String contentHash) throws IOException {
+        String metadata = getMetadata();
+        return contentHash.equals(getContentHash(metadata)) ? metadata : null;
+    }
+
+    /**
+     * Looks up the metadata of the file at the upload path.
+     *
+     * @return the metadata, or null when nothing is stored at the path.
+     * @throws IOException if the metadata lookup fails.
+     */
+    public String getMetadata() throws IOException {
+        JsonWriter writer = JsonWriter.reusable();
+        writer.beginObject().name("path").value(path).endObject();
+        try {
+            return client.rpc(GET_METADATA_ENDPOINT, writer.toString());
+        } catch (DropboxApiException e) {
+            // Other path errors, e.g. malformed_path or restricted_content, are failures rather than a missing file.
+            if (e.getStatusCode() == 409 && NOT_FOUND_ERROR.equals(DropboxApiException.getErrorTagPath(
+                    e.getResponseBody()))) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Checks the metadata Dropbox returned for a committed upload.
+     *
+     * @param metadata    the metadata of the committed file.
+     * @param contentHash the content hash of the local content.
+     * @throws ContentHashMismatchException if Dropbox reports a different content hash.
+     */
+    public void verify(String metadata, String contentHash) throws IOException {
+        String committed = getContentHash(metadata);
+        if (!contentHash.equals(committed)) {
+            throw new ContentHashMismatchException(path, contentHash, committed);
+        }
+    }
+
+    /**
+     * @param metadata the metadata of a file, or null.
+     * @return the content hash of the file, or null for folders or missing metadata.
+     * @throws IOException if the metadata is not valid JSON.
+     */
+    public static String getContentHash(String metadata) throws IOException {
+        if (metadata == null) {
+            return null;
+        }
+        try {
+            return new JSONObject(metadata).optString(CONTENT_HASH, null);
+        } catch (JSONException e) {
+            throw new IOException("Unexpected file metadata from Dropbox: " + metadata, e);
+        }
+    }
+
+    /**
+     * Signals that a committed file does not have the content hash of the uploaded content.
+     */
+    public static class ContentHashMismatchException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public ContentHashMismatchException(String path, String expected, String actual) {
+            super("Content hash mismatch after uploading " + path + ": expected " + expected + " but Dropbox "
+                    + "reported " + actual);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the Dropbox content hash of a file as its content is read. The content is split into 4 MB blocks, each
+ * block is hashed with SHA-256, and the content hash is the SHA-256 of the concatenated block hashes, in hexadecimal.
+ * <p>
+ * Content is fed in order with {@link #update(byte[], int, int)}. Instances are not thread safe.
+ *
+ * @see <a href="https://www.dropbox.com/developers/reference/content-hash">Content hash</a>
+ */
+public class ContentHasher {
+
+    public static final int BLOCK_SIZE = 4 * 1024 * 1024;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final MessageDigest overall = newDigest();
+
+    private final MessageDigest block = newDigest();
+
+    private int blockLength;
+
+    private String contentHash;
+
+    /**
+     * Hashes the next part of the content.
+     *
+     * @param buffer the content.
+     * @param offset the offset of the part in the buffer.
+     * @param length the length of the part.
+     */
+    public void update(byte[] buffer, int offset, int length) {
+        if (contentHash != null) {
+            throw new IllegalStateException("The content hash has already been computed");
+        }
+        while (length > 0) {
+            int count = Math.min(length, BLOCK_SIZE - blockLength);
+            block.update(buffer, offset, count);
+            blockLength += count;
+            offset += count;
+            length -= count;
+            if (blockLength == BLOCK_SIZE) {
+                overall.update(block.digest());
+                blockLength = 0;
+            }
+        }
+    }
+
+    /**
+     * Completes the hash. Further calls return the same value.
+     *
+     * @return the content hash, as 64 lower case hexadecimal characters.
+     */
+    public String getContentHash() {
+        if (contentHash == null) {
+            if (blockLength > 0) {
+                overall.update(block.digest());
+                blockLength = 0;
+            }
+            byte[] digest = overall.digest();
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte value : digest) {
+                hex.append(Character.forDigit((value >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(value & 0xf, 16));
+            }
+            contentHash = hex.toString();
+        }
+        return contentHash;
+    }
+
+    /**
+     * Computes the content hash of a local file.
+     *
+     * @param file the file.
+     * @return the content hash.
+     * @throws IOException if the file cannot be read.
+     */
+    public static String hash(Path file) throws IOException {
+        ContentHasher hasher = new ContentHasher();
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        InputStream in = Files.newInputStream(file);
+        try {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                hasher.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return hasher.getContentHash();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by the JVM", e);
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.upload;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+import org.wso2.carbon.connector.dropbox.util.ConnectorExecutors;
+import org.wso2.carbon.connector.dropbox.util.JsonWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Uploads a stream of unknown length or a local file using a concurrent Dropbox upload session.
+ * <p>
+ * A stream is read sequentially into fixed size chunks which are appended with at most {@code parallelism}
+ * requests in flight. Offsets are tracked here, and the session is committed once every chunk has been appended.
+ * Heap use is bounded by {@code (parallelism + 1) * chunkSize} regardless of the size of the stream. Content that
+ * fits in a single chunk is sent with one /files/upload call instead.
+ */
+public class ParallelChunkUploader {
+
+    /**
+     * Every append to a concurrent session, except the last, must be a multiple of this size.
+     */
+    public static final int BLOCK_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Largest multiple of {@link #BLOCK_SIZE} below the 150 MB limit of a single upload request.
+     */
+    public static final int MAX_CHUNK_SIZE = 37 * BLOCK_SIZE;
+
+    public static final int DEFAULT_CHUNK_SIZE = 2 * BLOCK_SIZE;
+
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    private static final int MAX_PARALLELISM = 32;
+
+    private static final ContentType OCTET_STREAM = ContentType.APPLICATION_OCTET_STREAM;
+
+    private final DropboxClient client;
+
+    private final int chunkSize;
+
+    private final int parallelism;
+
+    /**
+     * @param client      the client of the account to upload to.
+     * @param chunkSize   the chunk size in bytes, rounded down to a multiple of 4 MB and capped at 148 MB.
+     * @param parallelism the maximum number of chunks uploaded at the same time.
+     */
+    public ParallelChunkUploader(DropboxClient client, int chunkSize, int parallelism) {
+        this.client = client;
+        this.chunkSize = Math.min(MAX_CHUNK_SIZE, Math.max(BLOCK_SIZE, chunkSize - chunkSize % BLOCK_SIZE));
+        this.parallelism = Math.min(MAX_PARALLELISM, Math.max(1, parallelism));
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Uploads the stream and commits it.
+     *
+     * @param source the content to upload. The stream is read to the end but not closed.
+     * @param commit the commit info argument ({"path": ..., "mode": ...}), as sent to /files/upload.
+     * @return the metadata of the committed file, as returned by Dropbox.
+     * @throws IOException if reading the source or any Dropbox call fails.
+     */
+    public String upload(InputStream source, String commit) throws IOException {
+        return upload(source, commit, null, null);
+    }
+
+    /**
+     * Uploads the stream and commits it, computing its content hash as it is read.
+     *
+     * @param source        the content to upload. The stream is read to the end but not closed.
+     * @param commit        the commit info argument ({"path": ..., "mode": ...}), as sent to /files/upload.
+     * @param hasher        the hasher to feed the content to, or null.
+     * @param unchangedHash the content hash of the file already stored at the path, or null. Content that fits in a
+     *                      single chunk is not uploaded when it has this hash.
+     * @return the metadata of the committed file, as returned by Dropbox, or null when the upload was skipped.
+     * @throws IOException if reading the source or any Dropbox call fails.
+     */
+    public String upload(InputStream source, String commit, ContentHasher hasher, String unchangedHash)
+            throws IOException {
+        ChunkBuffers buffers = new ChunkBuffers(parallelism + 1, chunkSize);
+        byte[] pending = buffers.take();
+        int pendingLength = read(source, pending, hasher);
+        if (pendingLength < chunkSize) {
+            if (hasher != null && hasher.getContentHash().equals(unchangedHash)) {
+                return null;
+            }
+            return client.upload("/files/upload", commit,
+                    new ByteArrayEntity(pending, 0, pendingLength, OCTET_STREAM));
+        }
+        String sessionId = startSession();
+        AtomicReference<IOException> failure = new AtomicReference<IOException>();
+        List<Future<?>> appends = new ArrayList<Future<?>>();
+        long offset = 0;
+        try {
+            while (true) {
+                byte[] next = buffers.take();
+                rethrow(failure);
+                int nextLength = read(source, next, hasher);
+                boolean pendingIsLast = nextLength == 0;
+                appends.add(submitAppend(sessionId, offset, buffers.entity(pending, pendingLength), pendingIsLast,
+                        buffers.releaser(pending), failure));
+                offset += pendingLength;
+                if (pendingIsLast) {
+                    buffers.release(next);
+                    break;
+                }
+                if (nextLength < chunkSize) {
+                    appends.add(submitAppend(sessionId, offset, buffers.entity(next, nextLength), true,
+                            buffers.releaser(next), failure));
+                    offset += nextLength;
+                    break;
+                }
+                pending = next;
+                pendingLength = nextLength;
+            }
+            awaitAll(appends);
+        } catch (IOException e) {
+            cancelAll(appends);
+            throw e;
+        }
+        rethrow(failure);
+        return finishSession(sessionId, offset, commit);
+    }
+
+    /**
+     * Uploads a local file and commits it. Chunks are sent straight from the file channel, so no chunk buffers are
+     * allocated and heap use does not depend on the file or chunk size.
+     *
+     * @param file   the file to upload.
+     * @param commit the commit info argument ({"path": ..., "mode": ...}), as sent to /files/upload.
+     * @return the metadata of the committed file, as returned by Dropbox.
+     * @throws IOException if reading the file or any Dropbox call fails.
+     */
+    public String upload(Path file, String commit) throws IOException {
+        long size = Files.size(file);
+        if (size <= chunkSize) {
+            return client.upload("/files/upload", commit, new FileRegionEntity(file, 0, size));
+        }
+        String sessionId = startSession();
+        final Semaphore permits = new Semaphore(parallelism);
+        Runnable releasePermit = new Runnable() {
+            @Override
+            public void run() {
+                permits.release();
+            }
+        };
+        AtomicReference<IOException> failure = new AtomicReference<IOException>();
+        List<Future<?>> appends = new ArrayList<Future<?>>();
+        try {
+            for (long offset = 0; offset < size; offset += chunkSize) {
+                long length = Math.min(chunkSize, size - offset);
+                acquire(permits);
+                rethrow(failure);
+                appends.add(submitAppend(sessionId, offset, new FileRegionEntity(file, offset, length),
+                        offset + length == size, releasePermit, failure));
+            }
+            awaitAll(appends);
+        } catch (IOException e) {
+            cancelAll(appends);
+            throw e;
+        }
+        rethrow(failure);
+        return finishSession(sessionId, size, commit);
+    }
+
+    private String startSession() throws IOException {
+        String response = client.upload("/files/upload_session/start", "{\"session_type\":\"concurrent\"}", null);
+        try {
+            return new JSONObject(response).getString("session_id");
+        } catch (JSONException e) {
+            throw new IOException("Unexpected response from /files/upload_session/start: " + response, e);
+        }
+    }
+
+    private String finishSession(String sessionId, long offset, String commit) throws IOException {
+        JsonWriter writer = JsonWriter.reusable().asciiOnly(true);
+        writer.beginObject();
+        writer.name("cursor").beginObject().name("session_id").value(sessionId).name("offset").value(offset).endObject();
+        writer.name("commit").rawValue(commit);
+        writer.endObject();
+        return client.upload("/files/upload_session/finish", writer.toString(), null);
+    }
+
+    private Future<?> submitAppend(String sessionId, long offset, final HttpEntity content, boolean close,
+                                   final Runnable onCompletion, final AtomicReference<IOException> failure) {
+        JsonWriter writer = JsonWriter.reusable().asciiOnly(true);
+        writer.beginObject();
+        writer.name("cursor").beginObject().name("session_id").value(sessionId).name("offset").value(offset).endObject();
+        writer.name("close").value(close);
+        writer.endObject();
+        final String argument = writer.toString();
+        return ConnectorExecutors.transfers().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (failure.get() == null) {
+                        client.upload("/files/upload_session/append_v2", argument, content);
+                    }
+                } catch (IOException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    onCompletion.run();
+                }
+            }
+        });
+    }
+
+    private static void awaitAll(List<Future<?>> futures) throws IOException {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for upload session appends");
+            } catch (ExecutionException e) {
+                throw new IOException("Upload session append failed", e.getCause());
+            }
+        }
+    }
+
+    private static void cancelAll(List<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    private static void acquire(Semaphore permits) throws IOException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to append a chunk");
+        }
+    }
+
+    private static void rethrow(AtomicReference<IOException> failure) throws IOException {
+        IOException e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    private static int read(InputStream in, byte[] buffer, ContentHasher hasher) throws IOException {
+        int length = readFully(in, buffer);
+        if (hasher != null) {
+            hasher.update(buffer, 0, length);
+        }
+        return length;
+    }
+
+    /**
+     * Reads until the buffer is full or the stream ends.
+     *
+     * @return the number of bytes read, which is less than the buffer size only at the end of the stream.
+     */
+    static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = in.read(buffer, total, buffer.length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * A bounded set of chunk buffers. Taking a buffer blocks while all of them are in use, which is what limits the
+     * number of appends in flight.
+     */
+    static final class ChunkBuffers {
+
+        private final BlockingQueue<byte[]> free;
+
+        private final int chunkSize;
+
+        private int remaining;
+
+        ChunkBuffers(int capacity, int chunkSize) {
+            this.free = new ArrayBlockingQueue<byte[]>(capacity);
+            this.chunkSize = chunkSize;
+            this.remaining = capacity;
+        }
+
+        byte[] take() throws IOException {
+            byte[] buffer = free.poll();
+            if (buffer != null) {
+                return buffer;
+            }
+            synchronized (this) {
+                if (remaining > 0) {
+                    remaining--;
+                    return new byte[chunkSize];
+                }
+            }
+            try {
+                return free.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for an upload buffer");
+            }
+        }
+
+        void release(byte[] buffer) {
+            free.offer(buffer);
+        }
+
+        HttpEntity entity(byte[] buffer, int length) {
+            return new ByteArrayEntity(buffer, 0, length, OCTET_STREAM);
+        }
+
+        Runnable releaser(final byte[] buffer) {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    release(buffer);
+                }
+            };
+        }
+    }
+}
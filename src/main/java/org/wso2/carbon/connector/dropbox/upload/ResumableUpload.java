@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.upload;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.wso2.carbon.connector.dropbox.client.DropboxApiException;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+import org.wso2.carbon.connector.dropbox.sync.CursorStore;
+import org.wso2.carbon.connector.dropbox.util.JsonWriter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Uploads a local file through a Dropbox upload session whose progress is kept in a {@link CursorStore}, so that an
+ * upload interrupted by a restart or a failover continues from the last appended chunk instead of starting over.
+ * <p>
+ * Chunks are appended one at a time and the state (session id, committed offset and the size and modification time
+ * of the source) is saved after each of them. When an upload is resumed, the stored offset is confirmed with an empty
+ * append, and Dropbox answers with the offset it actually holds when they differ. The same correction applies to any
+ * append or finish call rejected with incorrect_offset, e.g. when a retried append had already been received. A
+ * session that expired, or a source that changed since the state was saved, starts a new session.
+ */
+public class ResumableUpload {
+
+    private static final Log log = LogFactory.getLog(ResumableUpload.class);
+
+    private static final String START_ENDPOINT = "/files/upload_session/start";
+
+    private static final String APPEND_ENDPOINT = "/files/upload_session/append_v2";
+
+    private static final String FINISH_ENDPOINT = "/files/upload_session/finish";
+
+    private static final String INCORRECT_OFFSET = "incorrect_offset";
+
+    private static final String NOT_FOUND = "not_found";
+
+    private final DropboxClient client;
+
+    private final CursorStore store;
+
+    private final String key;
+
+    private final int chunkSize;
+
+    private long resumedFrom = -1;
+
+    /**
+     * @param client    the client of the account to upload to.
+     * @param store     the store to keep the upload state in.
+     * @param key       the key of the upload in the store.
+     * @param chunkSize the size of each append, capped at 148 MB.
+     */
+    public ResumableUpload(DropboxClient client, CursorStore store, String key, int chunkSize) {
+        this.client = client;
+        this.store = store;
+        this.key = key;
+        this.chunkSize = Math.max(1, Math.min(ParallelChunkUploader.MAX_CHUNK_SIZE, chunkSize));
+    }
+
+    /**
+     * @return the offset an earlier attempt had reached, or -1 when the last upload started from the beginning.
+     */
+    public long getResumedFrom() {
+        return resumedFrom;
+    }
+
+    /**
+     * Uploads the file, continuing a stored session when there is one, and commits it. The stored state is removed
+     * once the file is committed.
+     *
+     * @param file   the file to upload.
+     * @param commit the commit info argument ({"path": ..., "mode": ...}), as sent to /files/upload.
+     * @return the metadata of the committed file, as returned by Dropbox.
+     * @throws IOException if reading the file, the store or any Dropbox call fails. The state is kept, so the upload
+     *                     can be resumed.
+     */
+    public String upload(Path file, String commit) throws IOException {
+        long size = Files.size(file);
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        String source = file.toAbsolutePath().toString();
+        State state = resume(State.parse(store.load(key)), source, size, modified);
+        if (state == null) {
+            resumedFrom = -1;
+            state = new State(startSession(), 0, source, size, modified);
+            store.save(key, state.toJson());
+        } else {
+            resumedFrom = state.offset;
+            log.info("Resuming the upload of " + source + " at offset " + state.offset + " of " + size);
+        }
+        while (true) {
+            while (state.offset < size) {
+                long length = Math.min(chunkSize, size - state.offset);
+                try {
+                    client.upload(APPEND_ENDPOINT, cursor(state.sessionId, state.offset, null),
+                            new FileRegionEntity(file, state.offset, length));
+                    state.offset += length;
+                } catch (DropboxApiException e) {
+                    state.offset = getCorrectOffset(e, size);
+                }
+                store.save(key, state.toJson());
+            }
+            try {
+                String metadata = client.upload(FINISH_ENDPOINT, cursor(state.sessionId, state.offset, commit), null);
+                store.delete(key);
+                return metadata;
+            } catch (DropboxApiException e) {
+                long offset = getCorrectOffset(e, size);
+                if (offset == state.offset) {
+                    throw e;
+                }
+                state.offset = offset;
+                store.save(key, state.toJson());
+            }
+        }
+    }
+
+    /**
+     * Checks that a stored state can be continued and confirms its offset with Dropbox.
+     *
+     * @return the state to continue, or null to start a new session.
+     */
+    private State resume(State state, String source, long size, long modified) throws IOException {
+        if (state == null) {
+            return null;
+        }
+        if (!state.source.equals(source) || state.size != size || state.modified != modified) {
+            log.info("The source " + source + " changed since its upload was interrupted, starting over");
+            return null;
+        }
+        try {
+            client.upload(APPEND_ENDPOINT, cursor(state.sessionId, state.offset, null),
+                    new ByteArrayEntity(new byte[0], ContentType.APPLICATION_OCTET_STREAM));
+            return state;
+        } catch (DropboxApiException e) {
+            JSONObject error = getLookupError(e);
+            if (error != null && NOT_FOUND.equals(error.optString(".tag"))) {
+                log.info("The upload session of " + source + " has expired, starting over");
+                return null;
+            }
+            state.offset = getCorrectOffset(e, size);
+            return state;
+        }
+    }
+
+    private String startSession() throws IOException {
+        String response = client.upload(START_ENDPOINT, null, null);
+        try {
+            return new JSONObject(response).getString("session_id");
+        } catch (JSONException e) {
+            throw new IOException("Unexpected response from " + START_ENDPOINT + ": " + response, e);
+        }
+    }
+
+    private static String cursor(String sessionId, long offset, String commit) {
+        JsonWriter writer = JsonWriter.reusable().asciiOnly(true);
+        writer.beginObject();
+        writer.name("cursor").beginObject().name("session_id").value(sessionId).name("offset").value(offset);
+        writer.endObject();
+        if (commit != null) {
+            writer.name("commit").rawValue(commit);
+        }
+        writer.endObject();
+        return writer.toString();
+    }
+
+    /**
+     * Reads the offset Dropbox holds for the session from an incorrect_offset error.
+     *
+     * @throws DropboxApiException the given error, when it is not an incorrect_offset error.
+     */
+    private static long getCorrectOffset(DropboxApiException e, long size) throws IOException {
+        JSONObject error = getLookupError(e);
+        if (error == null || !INCORRECT_OFFSET.equals(error.optString(".tag"))) {
+            throw e;
+        }
+        long offset = error.optLong("correct_offset", -1);
+        if (offset < 0 || offset > size) {
+            throw new IOException("Dropbox reported an offset of " + offset + " for a " + size + " byte upload", e);
+        }
+        return offset;
+    }
+
+    /**
+     * Returns the session lookup error of an append or finish call. Append errors are lookup errors themselves, while
+     * finish errors wrap them in lookup_failed.
+     */
+    private static JSONObject getLookupError(DropboxApiException e) {
+        if (e.getStatusCode() != 409) {
+            return null;
+        }
+        try {
+            JSONObject error = new JSONObject(e.getResponseBody()).optJSONObject("error");
+            if (error != null && "lookup_failed".equals(error.optString(".tag"))) {
+                return error.optJSONObject("lookup_failed");
+            }
+            return error;
+        } catch (JSONException ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * Progress of an upload, as kept in the store.
+     */
+    static final class State {
+
+        final String sessionId;
+
+        long offset;
+
+        final String source;
+
+        final long size;
+
+        final long modified;
+
+        State(String sessionId, long offset, String source, long size, long modified) {
+            this.sessionId = sessionId;
+            this.offset = offset;
+            this.source = source;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        static State parse(String json) {
+            if (json == null) {
+                return null;
+            }
+            try {
+                JSONObject state = new JSONObject(json);
+                return new State(state.getString("session_id"), state.getLong("offset"), state.getString("source"),
+                        state.getLong("size"), state.getLong("modified"));
+            } catch (JSONException e) {
+                log.warn("Ignoring an unreadable upload state: " + e.getMessage());
+                return null;
+            }
+        }
+
+        String toJson() {
+            JsonWriter writer = JsonWriter.reusable();
+            writer.beginObject().name("session_id").value(sessionId).name("offset").value(offset)
+                    .name("source").value(source).name("size").value(size).name("modified").value(modified)
+                    .endObject();
+            return writer.toString();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread pools owned by the connector.
+ * <p>
+ * The number of transfer threads is read from the dropbox.transfer.maxThreads system property, 64 by default.
+ */
+public final class ConnectorExecutors {
+
+    private static final Log log = LogFactory.getLog(ConnectorExecutors.class);
+
+    public static final int DEFAULT_MAX_TRANSFER_THREADS = 64;
+
+    private static final String MAX_TRANSFER_THREADS_PROPERTY = "dropbox.transfer.maxThreads";
+
+    private static final long TRANSFER_KEEP_ALIVE = 60;
+
+    private static final ExecutorService TRANSFER_EXECUTOR = createTransferExecutor();
+
+    private static final ScheduledThreadPoolExecutor SCHEDULER = new ScheduledThreadPoolExecutor(2,
+            new DaemonThreadFactory("dropbox-scheduler"));
+
+    static {
+        SCHEDULER.setRemoveOnCancelPolicy(true);
+    }
+
+    private ConnectorExecutors() {
+    }
+
+    private static ExecutorService createTransferExecutor() {
+        int maxThreads = DEFAULT_MAX_TRANSFER_THREADS;
+        String value = System.getProperty(MAX_TRANSFER_THREADS_PROPERTY);
+        if (value != null) {
+            try {
+                maxThreads = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Invalid " + MAX_TRANSFER_THREADS_PROPERTY + " value '" + value + "', using "
+                        + DEFAULT_MAX_TRANSFER_THREADS);
+            }
+        }
+        if (maxThreads <= 0) {
+            maxThreads = DEFAULT_MAX_TRANSFER_THREADS;
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, TRANSFER_KEEP_ALIVE,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("dropbox-transfer"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Returns the pool running concurrent upload and download requests. Each operation limits how many tasks it has
+     * in flight, and the pool runs at most dropbox.transfer.maxThreads tasks at a time across all messages. Further
+     * tasks wait in its queue, so transfer tasks must not wait for other transfer tasks. Threads idle for a minute
+     * are released.
+     *
+     * @return the transfer executor.
+     */
+    public static ExecutorService transfers() {
+        return TRANSFER_EXECUTOR;
+    }
+
+    /**
+     * Returns the scheduler timing delayed connector work, such as the status checks of asynchronous Dropbox jobs.
+     * Scheduled tasks only hand the work over to the transfer executor, so that the two scheduler threads are never
+     * blocked on a Dropbox call.
+     *
+     * @return the shared scheduler.
+     */
+    public static ScheduledExecutorService scheduler() {
+        return SCHEDULER;
+    }
+
+    static final class DaemonThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.util;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMFactory;
+import org.apache.axiom.om.OMNode;
+import org.apache.axiom.om.OMText;
+import org.apache.axiom.soap.SOAPBody;
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.Constants;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.commons.json.JsonUtil;
+import org.apache.synapse.core.axis2.Axis2MessageContext;
+import org.wso2.carbon.connector.core.ConnectException;
+import org.wso2.carbon.connector.dropbox.DropboxConstants;
+import org.wso2.carbon.connector.dropbox.client.DropboxConnection;
+
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Helper methods for reading and writing message context state from the connector mediators.
+ */
+public final class DropboxUtils {
+
+    private static final String BINARY_PAYLOAD_NAMESPACE = "http://ws.apache.org/commons/ns/payload";
+
+    private static final String BINARY_PAYLOAD_ELEMENT = "binary";
+
+    private DropboxUtils() {
+    }
+
+    /**
+     * Reads a message context property as text. The value is returned as is, so that surrounding spaces of values
+     * passed on to Dropbox, such as paths and search queries, are kept.
+     *
+     * @param messageContext the message context.
+     * @param name           the property name.
+     * @return the property value, or null when the property is not set or is empty.
+     */
+    public static String getText(MessageContext messageContext, String name) {
+        Object value = messageContext.getProperty(name);
+        if (value == null) {
+            return null;
+        }
+        String text = value.toString();
+        return text.isEmpty() ? null : text;
+    }
+
+    /**
+     * Reads a message context property holding a setting, such as a number, a flag or a name, ignoring surrounding
+     * spaces.
+     *
+     * @param messageContext the message context.
+     * @param name           the property name.
+     * @return the trimmed property value, or null when the property is not set or is blank.
+     */
+    public static String getTrimmedText(MessageContext messageContext, String name) {
+        String text = getText(messageContext, name);
+        if (text == null) {
+            return null;
+        }
+        text = text.trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    /**
+     * Reads a numeric message context property.
+     *
+     * @param messageContext the message context.
+     * @param name           the property name.
+     * @param defaultValue   the value to use when the property is not set.
+     * @return the property value.
+     * @throws ConnectException if the property is not a valid integer.
+     */
+    public static int getInt(MessageContext messageContext, String name, int defaultValue) throws ConnectException {
+        String value = getTrimmedText(messageContext, name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new ConnectException(e, "Invalid integer value '" + value + "' for " + name);
+        }
+    }
+
+    /**
+     * Opens the binary content of the message, as built by the binary relay builder for application/octet-stream
+     * requests. The content is streamed from the underlying data handler and is not buffered by this method.
+     *
+     * @param messageContext the message context.
+     * @return the content stream.
+     * @throws ConnectException if the message does not carry binary content.
+     */
+    public static InputStream getBinaryPayload(MessageContext messageContext) throws ConnectException {
+        OMElement element = messageContext.getEnvelope().getBody().getFirstElement();
+        if (element != null) {
+            OMNode node = element.getFirstOMChild();
+            if (node instanceof OMText && ((OMText) node).isBinary()) {
+                try {
+                    return ((DataHandler) ((OMText) node).getDataHandler()).getInputStream();
+                } catch (IOException e) {
+                    throw new ConnectException(e, "Error while reading the binary message content");
+                }
+            }
+        }
+        throw new ConnectException("The message does not carry binary content. Send the content as " +
+                "application/octet-stream with the binary relay builder enabled");
+    }
+
+    /**
+     * Replaces the message payload with a JSON document, the way a response from a call mediator would. The transport
+     * headers of the request, which carry the access token, are dropped so that they are not sent back to the client.
+     *
+     * @param messageContext the message context.
+     * @param json           the JSON document.
+     * @param statusCode     the HTTP status code to respond with.
+     * @throws ConnectException if the payload cannot be set.
+     */
+    public static void setJsonResponse(MessageContext messageContext, String json, int statusCode)
+            throws ConnectException {
+        org.apache.axis2.context.MessageContext axis2MessageContext =
+                ((Axis2MessageContext) messageContext).getAxis2MessageContext();
+        try {
+            JsonUtil.getNewJsonPayload(axis2MessageContext, json, true, true);
+        } catch (AxisFault e) {
+            throw new ConnectException(e, "Error while setting the JSON payload");
+        }
+        axis2MessageContext.setProperty(Constants.Configuration.MESSAGE_TYPE, "application/json");
+        axis2MessageContext.setProperty(Constants.Configuration.CONTENT_TYPE, "application/json");
+        axis2MessageContext.setProperty(DropboxConstants.HTTP_SC, statusCode);
+        axis2MessageContext.removeProperty(DropboxConstants.NO_ENTITY_BODY);
+        resetTransportHeaders(messageContext);
+    }
+
+    /**
+     * Replaces the message payload with binary content, in the form produced by the binary relay builder. The content
+     * is read from the data source only when the message is written out. The transport headers of the request are
+     * dropped as for {@link #setJsonResponse(MessageContext, String, int)}.
+     *
+     * @param messageContext the message context.
+     * @param content        the content.
+     */
+    public static void setBinaryResponse(MessageContext messageContext, DataSource content) {
+        org.apache.axis2.context.MessageContext axis2MessageContext =
+                ((Axis2MessageContext) messageContext).getAxis2MessageContext();
+        JsonUtil.removeJsonPayload(axis2MessageContext);
+        SOAPBody body = messageContext.getEnvelope().getBody();
+        OMNode child;
+        while ((child = body.getFirstOMChild()) != null) {
+            child.detach();
+        }
+        OMFactory factory = OMAbstractFactory.getOMFactory();
+        OMElement binary = factory.createOMElement(BINARY_PAYLOAD_ELEMENT, BINARY_PAYLOAD_NAMESPACE, "ns");
+        binary.addChild(factory.createOMText(new DataHandler(content), true));
+        body.addChild(binary);
+        axis2MessageContext.setProperty(Constants.Configuration.MESSAGE_TYPE, content.getContentType());
+        axis2MessageContext.setProperty(Constants.Configuration.CONTENT_TYPE, content.getContentType());
+        axis2MessageContext.setProperty(DropboxConstants.HTTP_SC, 200);
+        axis2MessageContext.removeProperty(DropboxConstants.NO_ENTITY_BODY);
+        resetTransportHeaders(messageContext);
+    }
+
+    /**
+     * Replaces the transport headers of the message with an empty header map, for a response that does not pass on
+     * any of the request headers.
+     *
+     * @param messageContext the message context.
+     * @return the new, mutable header map.
+     */
+    public static Map<String, Object> resetTransportHeaders(MessageContext messageContext) {
+        Map<String, Object> headerMap = new TreeMap<String, Object>(String.CASE_INSENSITIVE_ORDER);
+        ((Axis2MessageContext) messageContext).getAxis2MessageContext()
+                .setProperty(org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS, headerMap);
+        return headerMap;
+    }
+
+    /**
+     * Returns the transport headers of the message, creating the header map if it is not present.
+     *
+     * @param messageContext the message context.
+     * @return the mutable transport header map.
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> getTransportHeaders(MessageContext messageContext) {
+        org.apache.axis2.context.MessageContext axis2MessageContext =
+                ((Axis2MessageContext) messageContext).getAxis2MessageContext();
+        Object headers = axis2MessageContext.getProperty(org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS);
+        if (headers instanceof Map) {
+            return (Map<String, Object>) headers;
+        }
+        Map<String, Object> headerMap = new TreeMap<String, Object>(String.CASE_INSENSITIVE_ORDER);
+        axis2MessageContext.setProperty(org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS, headerMap);
+        return headerMap;
+    }
+
+    /**
+     * Returns the credential that identifies the account of the message across access tokens: the refresh token when
+     * init was given one, since its access tokens change every few hours, and the access token otherwise. Only
+     * digests of it should be kept. Messages initialized with a named connection use the credential of the
+     * connection.
+     *
+     * @param messageContext the message context.
+     * @return the account credential, or null when init has not been called.
+     */
+    public static String getAccount(MessageContext messageContext) {
+        DropboxConnection connection = DropboxConnection.forMessage(messageContext);
+        if (connection != null) {
+            return connection.getAccount();
+        }
+        String refreshToken = getText(messageContext, DropboxConstants.REFRESH_TOKEN);
+        return refreshToken != null ? refreshToken : getText(messageContext, DropboxConstants.ACCESS_TOKEN);
+    }
+
+    /**
+     * Derives a fixed length key from a secret or arbitrary text, for use as a cache key or file name without keeping
+     * the original value.
+     *
+     * @param text the text to derive the key from.
+     * @return 32 lower case hexadecimal characters.
+     */
+    public static String digestKey(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder(32);
+            for (int i = 0; i < 16; i++) {
+                key.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+                key.append(Character.forDigit(digest[i] & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by the JVM", e);
+        }
+    }
+
+    /**
+     * Closes a resource, ignoring any error.
+     *
+     * @param closeable the resource to close, may be null.
+     */
+    public static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                // Nothing to do, the resource is no longer used.
+            }
+        }
+    }
+}
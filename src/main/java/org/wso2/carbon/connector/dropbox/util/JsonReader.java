@@ -0,0 +1,489 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Minimal streaming JSON reader, the pull parser counterpart of {@link JsonWriter}, used to read Dropbox responses
+ * without building them into an object model.
+ * <p>
+ * Values are read one token at a time with {@link #peek()} and the typed next methods, and whole values the caller is
+ * not interested in are passed over with {@link #skipValue()}. Instances are not thread safe.
+ */
+public final class JsonReader implements Closeable {
+
+    /**
+     * The kinds of tokens of a JSON document.
+     */
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int EMPTY_DOCUMENT = 0;
+
+    private static final int NONEMPTY_DOCUMENT = 1;
+
+    private static final int EMPTY_OBJECT = 2;
+
+    private static final int DANGLING_NAME = 3;
+
+    private static final int NONEMPTY_OBJECT = 4;
+
+    private static final int EMPTY_ARRAY = 5;
+
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private final Reader in;
+
+    private final char[] buffer = new char[1024];
+
+    private int position;
+
+    private int limit;
+
+    private int[] stack = new int[16];
+
+    private int depth = 1;
+
+    private Token peeked;
+
+    /**
+     * The text of a peeked name, string or literal.
+     */
+    private String peekedText;
+
+    private final StringBuilder text = new StringBuilder();
+
+    public JsonReader(Reader in) {
+        this.in = in;
+        stack[0] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * @return the kind of the next token, without consuming it.
+     * @throws IOException if the document cannot be read or is not valid JSON.
+     */
+    public Token peek() throws IOException {
+        if (peeked != null) {
+            return peeked;
+        }
+        int c;
+        switch (stack[depth - 1]) {
+            case EMPTY_DOCUMENT:
+                stack[depth - 1] = NONEMPTY_DOCUMENT;
+                return peekValue(nextNonWhitespace());
+            case NONEMPTY_DOCUMENT:
+                c = nextNonWhitespace();
+                if (c != -1) {
+                    throw syntaxError("Unexpected content after the document");
+                }
+                return peeked = Token.END_DOCUMENT;
+            case EMPTY_ARRAY:
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                return c == ']' ? (peeked = Token.END_ARRAY) : peekValue(c);
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return peeked = Token.END_ARRAY;
+                }
+                if (c != ',') {
+                    throw syntaxError("Expected ',' or ']'");
+                }
+                return peekValue(nextNonWhitespace());
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                boolean empty = stack[depth - 1] == EMPTY_OBJECT;
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return peeked = Token.END_OBJECT;
+                }
+                if (!empty) {
+                    if (c != ',') {
+                        throw syntaxError("Expected ',' or '}'");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("Expected a member name");
+                }
+                stack[depth - 1] = DANGLING_NAME;
+                peekedText = readString();
+                return peeked = Token.NAME;
+            case DANGLING_NAME:
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                return peekValue(nextNonWhitespace());
+            default:
+                throw new IllegalStateException("Unknown scope " + stack[depth - 1]);
+        }
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+
+    /**
+     * @return whether the current object or array has another element.
+     * @throws IOException if the document cannot be read or is not valid JSON.
+     */
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return peekedText;
+    }
+
+    public String nextString() throws IOException {
+        expect(Token.STRING);
+        return peekedText;
+    }
+
+    /**
+     * @return the text of the next number, e.g. 1024 or 1.5e3, as it appears in the document.
+     * @throws IOException if the next token is not a number.
+     */
+    public String nextNumber() throws IOException {
+        expect(Token.NUMBER);
+        return peekedText;
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        return "true".equals(peekedText);
+    }
+
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+    }
+
+    /**
+     * Consumes the next value, including all of its members or elements when it is an object or an array.
+     *
+     * @throws IOException if the document cannot be read or is not valid JSON.
+     */
+    public void skipValue() throws IOException {
+        int level = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    level++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    level++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    level--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    level--;
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("Expected a value");
+                default:
+                    peeked = null;
+                    break;
+            }
+        } while (level > 0);
+    }
+
+    /**
+     * Consumes the next value and writes it to a writer.
+     *
+     * @param writer the writer to copy the value to.
+     * @throws IOException if the document cannot be read or is not valid JSON.
+     */
+    public void copyValue(JsonWriter writer) throws IOException {
+        switch (peek()) {
+            case BEGIN_OBJECT:
+                beginObject();
+                writer.beginObject();
+                while (hasNext()) {
+                    writer.name(nextName());
+                    copyValue(writer);
+                }
+                endObject();
+                writer.endObject();
+                break;
+            case BEGIN_ARRAY:
+                beginArray();
+                writer.beginArray();
+                while (hasNext()) {
+                    copyValue(writer);
+                }
+                endArray();
+                writer.endArray();
+                break;
+            case STRING:
+                writer.value(nextString());
+                break;
+            case NUMBER:
+                writer.rawValue(nextNumber());
+                break;
+            case BOOLEAN:
+                writer.value(nextBoolean());
+                break;
+            case NULL:
+                nextNull();
+                writer.nullValue();
+                break;
+            default:
+                throw syntaxError("Expected a value but found " + peek());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void expect(Token token) throws IOException {
+        if (peek() != token) {
+            throw syntaxError("Expected " + token + " but found " + peeked);
+        }
+        peeked = null;
+    }
+
+    private void push(int scope) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = scope;
+    }
+
+    private Token peekValue(int c) throws IOException {
+        switch (c) {
+            case '{':
+                return peeked = Token.BEGIN_OBJECT;
+            case '[':
+                return peeked = Token.BEGIN_ARRAY;
+            case '"':
+                peekedText = readString();
+                return peeked = Token.STRING;
+            case 't':
+            case 'f':
+            case 'n':
+                String literal = readLiteral(c);
+                if ("null".equals(literal)) {
+                    return peeked = Token.NULL;
+                }
+                if (!"true".equals(literal) && !"false".equals(literal)) {
+                    throw syntaxError("Unexpected literal " + literal);
+                }
+                peekedText = literal;
+                return peeked = Token.BOOLEAN;
+            case -1:
+                throw syntaxError("Unexpected end of the document");
+            default:
+                if (c != '-' && (c < '0' || c > '9')) {
+                    throw syntaxError("Unexpected character '" + (char) c + "'");
+                }
+                String number = readLiteral(c);
+                if (!isNumber(number)) {
+                    // Numbers are copied as is by copyValue, so they must not carry arbitrary text.
+                    throw syntaxError("Malformed number " + number);
+                }
+                peekedText = number;
+                return peeked = Token.NUMBER;
+        }
+    }
+
+    /**
+     * Reads the rest of a true, false or null literal or of a number.
+     */
+    private String readLiteral(int first) throws IOException {
+        text.setLength(0);
+        text.append((char) first);
+        while (position < limit || fill()) {
+            char c = buffer[position];
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '.' || c == '-' || c == '+' || c == 'E') {
+                text.append(c);
+                position++;
+            } else {
+                break;
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Checks a number against the JSON grammar: an optional minus sign, an integer part without leading zeros, and
+     * optional fraction and exponent parts.
+     */
+    private static boolean isNumber(String number) {
+        int length = number.length();
+        int i = 0;
+        if (i < length && number.charAt(i) == '-') {
+            i++;
+        }
+        if (i < length && number.charAt(i) == '0') {
+            i++;
+        } else {
+            int start = i;
+            i = skipDigits(number, i);
+            if (i == start) {
+                return false;
+            }
+        }
+        if (i < length && number.charAt(i) == '.') {
+            int start = ++i;
+            i = skipDigits(number, i);
+            if (i == start) {
+                return false;
+            }
+        }
+        if (i < length && (number.charAt(i) == 'e' || number.charAt(i) == 'E')) {
+            i++;
+            if (i < length && (number.charAt(i) == '+' || number.charAt(i) == '-')) {
+                i++;
+            }
+            int start = i;
+            i = skipDigits(number, i);
+            if (i == start) {
+                return false;
+            }
+        }
+        return i == length;
+    }
+
+    private static int skipDigits(String number, int start) {
+        int i = start;
+        while (i < number.length() && number.charAt(i) >= '0' && number.charAt(i) <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Reads the rest of a string whose opening quote has been consumed.
+     */
+    private String readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            int start = position;
+            while (position < limit) {
+                char c = buffer[position++];
+                if (c == '"') {
+                    text.append(buffer, start, position - start - 1);
+                    return text.toString();
+                }
+                if (c == '\\') {
+                    text.append(buffer, start, position - start - 1);
+                    text.append(readEscape());
+                    start = position;
+                }
+            }
+            text.append(buffer, start, position - start);
+            if (!fill()) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Invalid unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            default:
+                throw syntaxError("Invalid escape sequence");
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (position < limit || fill()) {
+            char c = buffer[position++];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+
+    private boolean fill() throws IOException {
+        position = 0;
+        limit = in.read(buffer, 0, buffer.length);
+        if (limit <= 0) {
+            limit = 0;
+            return false;
+        }
+        return true;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("Invalid JSON: " + message);
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.connector.dropbox.util;
+
+import java.util.Arrays;
+
+/**
+ * Minimal streaming JSON writer used to build Dropbox request arguments without a script context.
+ * <p>
+ * Instances are not thread safe. Use {@link #reusable()} to obtain a writer bound to the calling thread, which keeps
+ * its internal buffer between messages so that argument building does not allocate a new buffer per call.
+ */
+public final class JsonWriter {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+
+    // Valid in JSON but not in JavaScript string literals, so they are always escaped.
+    private static final char LINE_SEPARATOR = (char) 0x2028;
+
+    private static final char PARAGRAPH_SEPARATOR = (char) 0x2029;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<JsonWriter> THREAD_WRITER = new ThreadLocal<JsonWriter>() {
+        @Override
+        protected JsonWriter initialValue() {
+            return new JsonWriter();
+        }
+    };
+
+    private StringBuilder buffer = new StringBuilder(INITIAL_CAPACITY);
+
+    private boolean[] firstInScope = new boolean[8];
+
+    private int depth;
+
+    private boolean afterName;
+
+    private boolean asciiOnly;
+
+    /**
+     * Returns the writer bound to the current thread, cleared and ready to use.
+     *
+     * @return the thread local writer.
+     */
+    public static JsonWriter reusable() {
+        JsonWriter writer = THREAD_WRITER.get();
+        writer.reset();
+        return writer;
+    }
+
+    /**
+     * Clears the writer so that it can be used for a new document.
+     */
+    public void reset() {
+        if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+            buffer = new StringBuilder(INITIAL_CAPACITY);
+        } else {
+            buffer.setLength(0);
+        }
+        depth = 0;
+        afterName = false;
+        asciiOnly = false;
+    }
+
+    /**
+     * When enabled every non ASCII character is written as a unicode escape. This is required for JSON carried in
+     * HTTP headers such as Dropbox-API-Arg.
+     *
+     * @param asciiOnly whether to escape non ASCII characters.
+     * @return this writer.
+     */
+    public JsonWriter asciiOnly(boolean asciiOnly) {
+        this.asciiOnly = asciiOnly;
+        return this;
+    }
+
+    public JsonWriter beginObject() {
+        return open('{');
+    }
+
+    public JsonWriter endObject() {
+        return close('}');
+    }
+
+    public JsonWriter beginArray() {
+        return open('[');
+    }
+
+    public JsonWriter endArray() {
+        return close(']');
+    }
+
+    /**
+     * Writes the name of the next member of the current object.
+     *
+     * @param name the member name.
+     * @return this writer.
+     */
+    public JsonWriter name(String name) {
+        if (depth == 0 || afterName) {
+            throw new IllegalStateException("A name is only allowed inside an object, before a value");
+        }
+        separate();
+        writeString(name);
+        buffer.append(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeString(value);
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        beforeValue();
+        buffer.append(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        beforeValue();
+        buffer.append(value);
+        return this;
+    }
+
+    public JsonWriter nullValue() {
+        beforeValue();
+        buffer.append("null");
+        return this;
+    }
+
+    /**
+     * Writes an already serialized JSON value as is.
+     *
+     * @param json a valid JSON value.
+     * @return this writer.
+     */
+    public JsonWriter rawValue(String json) {
+        beforeValue();
+        buffer.append(json);
+        return this;
+    }
+
+    /**
+     * @return the number of characters written so far.
+     */
+    public int length() {
+        return buffer.length();
+    }
+
+    @Override
+    public String toString() {
+        return buffer.toString();
+    }
+
+    private JsonWriter open(char bracket) {
+        beforeValue();
+        buffer.append(bracket);
+        if (++depth == firstInScope.length) {
+            firstInScope = Arrays.copyOf(firstInScope, depth * 2);
+        }
+        firstInScope[depth] = true;
+        return this;
+    }
+
+    private JsonWriter close(char bracket) {
+        if (depth == 0 || afterName) {
+            throw new IllegalStateException("Nothing to close with '" + bracket + "'");
+        }
+        depth--;
+        buffer.append(bracket);
+        return this;
+    }
+
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+        } else if (depth > 0) {
+            separate();
+        }
+    }
+
+    private void separate() {
+        if (firstInScope[depth]) {
+            firstInScope[depth] = false;
+        } else {
+            buffer.append(',');
+        }
+    }
+
+    private void writeString(String value) {
+        StringBuilder out = buffer;
+        out.append('"');
+        int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && (c < 0x7f || !asciiOnly) && c != LINE_SEPARATOR
+                    && c != PARAGRAPH_SEPARATOR) {
+                continue;
+            }
+            out.append(value, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\b':
+                    out.append("\\b");
+                    break;
+                case '\f':
+                    out.append("\\f");
+                    break;
+                default:
+                    out.append("\\u").append(HEX[(c >> 12) & 0xf]).append(HEX[(c >> 8) & 0xf])
+                            .append(HEX[(c >> 4) & 0xf]).append(HEX[c & 0xf]);
+            }
+        }
+        out.append(value, start, length);
+        out.append('"');
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+import org.wso2.carbon.connector.dropbox.client.DropboxHttpClient;
+import org.wso2.carbon.connector.dropbox.client.RateLimiter;
+import org.wso2.carbon.connector.dropbox.client.RetryPolicy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local stand-in for the Dropbox API used by the unit tests. Each endpoint answers with a handler registered by the
+ * test, every request is recorded, and endpoints without a handler answer 404. Clients returned by
+ * {@link #client()} retry quickly and have a rate limiter of their own.
+ */
+public final class StubDropboxServer implements Closeable {
+
+    static {
+        // Without it the JDK server delays small responses on keep-alive connections by the Nagle timer.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private static final String API_PREFIX = "/2";
+
+    private final HttpServer server;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(16);
+
+    private final Map<String, Handler> handlers = Collections.synchronizedMap(new LinkedHashMap<String, Handler>());
+
+    private final List<Request> requests = Collections.synchronizedList(new ArrayList<Request>());
+
+    public StubDropboxServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                dispatch(exchange);
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Answers the requests of an endpoint.
+     *
+     * @param endpoint the endpoint, e.g. /files/upload_session/start.
+     * @param handler  the handler.
+     */
+    public void handle(String endpoint, Handler handler) {
+        handlers.put(API_PREFIX + endpoint, handler);
+    }
+
+    public String getApiUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + API_PREFIX;
+    }
+
+    /**
+     * @return a client of the stub that retries up to three times with a delay of at most 10 ms.
+     */
+    public DropboxClient client() {
+        return client(new RetryPolicy(3, 1, 10));
+    }
+
+    public DropboxClient client(RetryPolicy retryPolicy) {
+        return new DropboxClient(DropboxHttpClient.getDefault(), getApiUrl(), "stub-token", retryPolicy,
+                RateLimiter.forAccount("stub-" + server.getAddress().getPort() + "-" + System.nanoTime()));
+    }
+
+    /**
+     * @param endpoint the endpoint.
+     * @return the requests received for the endpoint, in order of arrival.
+     */
+    public List<Request> getRequests(String endpoint) {
+        List<Request> matching = new ArrayList<Request>();
+        synchronized (requests) {
+            for (Request request : requests) {
+                if (request.getEndpoint().equals(endpoint)) {
+                    matching.add(request);
+                }
+            }
+        }
+        return matching;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void dispatch(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            Request request = new Request(path.startsWith(API_PREFIX) ? path.substring(API_PREFIX.length()) : path,
+                    exchange.getRequestHeaders(), readAll(exchange.getRequestBody()));
+            requests.add(request);
+            Handler handler = handlers.get(path);
+            Response response;
+            try {
+                response = handler == null ? Response.json(404, "{\"error_summary\":\"not_found/\"}")
+                        : handler.handle(request);
+            } catch (RuntimeException e) {
+                response = Response.json(500, "{\"error_summary\":\"" + e.getClass().getName() + "\"}");
+            }
+            for (Map.Entry<String, String> header : response.headers.entrySet()) {
+                exchange.getResponseHeaders().set(header.getKey(), header.getValue());
+            }
+            exchange.sendResponseHeaders(response.status, response.body.length == 0 ? -1 : response.body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(response.body);
+            out.close();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Answers the requests of an endpoint. Handlers run on the threads of the server, several at a time.
+     */
+    public interface Handler {
+
+        Response handle(Request request) throws IOException;
+    }
+
+    /**
+     * A request received by the stub.
+     */
+    public static final class Request {
+
+        private final String endpoint;
+
+        private final Headers headers;
+
+        private final byte[] body;
+
+        Request(String endpoint, Headers headers, byte[] body) {
+            this.endpoint = endpoint;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        /**
+         * @return the endpoint, without the /2 API version prefix.
+         */
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        public String getHeader(String name) {
+            return headers.getFirst(name);
+        }
+
+        /**
+         * @return the Dropbox-API-Arg header of a content endpoint request.
+         */
+        public String getApiArg() {
+            return getHeader(DropboxConstants.API_ARG_HEADER);
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public String getBodyAsString() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * A response of the stub.
+     */
+    public static final class Response {
+
+        private final int status;
+
+        private final byte[] body;
+
+        private final Map<String, String> headers = new LinkedHashMap<String, String>();
+
+        private Response(int status, byte[] body, String contentType) {
+            this.status = status;
+            this.body = body;
+            headers.put("Content-Type", contentType);
+        }
+
+        public static Response json(int status, String json) {
+            return new Response(status, json.getBytes(StandardCharsets.UTF_8), "application/json");
+        }
+
+        public Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.batch;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.wso2.carbon.connector.dropbox.StubDropboxServer;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests of {@link BatchType} and of the slicing of large batches by {@link BatchRunner}.
+ */
+public class BatchTypeTest {
+
+    private StubDropboxServer server;
+
+    @BeforeClass
+    public void startServer() throws IOException {
+        server = new StubDropboxServer();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void usesTheEntryLimitsOfDropbox() {
+        Assert.assertEquals(BatchType.COPY.getMaxEntries(), 1000);
+        Assert.assertEquals(BatchType.MOVE.getMaxEntries(), 1000);
+        Assert.assertEquals(BatchType.DELETE.getMaxEntries(), 1000);
+        Assert.assertEquals(BatchType.FINISH_UPLOAD_SESSION.getMaxEntries(), 1000);
+        Assert.assertEquals(BatchType.CREATE_FOLDER.getMaxEntries(), 10000);
+        Assert.assertEquals(BatchType.CREATE_FOLDER.getEntriesField(), "paths");
+    }
+
+    @Test
+    public void findsTheTypeOfAnOperation() {
+        for (BatchType type : BatchType.values()) {
+            Assert.assertSame(BatchType.forOperation(type.getOperation()), type);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectsUnknownOperations() {
+        BatchType.forOperation("renameBatch");
+    }
+
+    @Test
+    public void convertsConvenienceEntries() throws JSONException {
+        Assert.assertEquals(((JSONObject) BatchType.DELETE.toEntry("/a")).getString("path"), "/a");
+        Assert.assertEquals(BatchType.CREATE_FOLDER.toEntry(new JSONObject().put("path", "/b")), "/b");
+        JSONObject finish = (JSONObject) BatchType.FINISH_UPLOAD_SESSION.toEntry(new JSONObject()
+                .put("session_id", "s1").put("offset", 42).put("path", "/c").put("mode", "overwrite"));
+        Assert.assertEquals(finish.getJSONObject("cursor").getString("session_id"), "s1");
+        Assert.assertEquals(finish.getJSONObject("cursor").getLong("offset"), 42);
+        Assert.assertEquals(finish.getJSONObject("commit").getString("path"), "/c");
+        Assert.assertEquals(finish.getJSONObject("commit").getString("mode"), "overwrite");
+    }
+
+    @Test(expectedExceptions = JSONException.class)
+    public void rejectsRelocationsWithoutDestination() throws JSONException {
+        BatchType.MOVE.toEntry(new JSONObject().put("from_path", "/a"));
+    }
+
+    @Test
+    public void slicesBatchesAtTheEntryLimit() throws IOException, JSONException {
+        final AtomicInteger checks = new AtomicInteger();
+        server.handle(BatchType.DELETE.getLaunchEndpoint(), new StubDropboxServer.Handler() {
+            @Override
+            public StubDropboxServer.Response handle(StubDropboxServer.Request request) {
+                try {
+                    JSONArray entries = new JSONObject(request.getBodyAsString()).getJSONArray("entries");
+                    if (entries.length() < 1000) {
+                        // The last slice runs as an asynchronous job.
+                        return StubDropboxServer.Response.json(200,
+                                "{\".tag\":\"async_job_id\",\"async_job_id\":\"j1\"}");
+                    }
+                    return StubDropboxServer.Response.json(200, complete(entries.length()));
+                } catch (JSONException e) {
+                    throw new IllegalArgumentException(e);
+                }
+            }
+        });
+        server.handle(BatchType.DELETE.getCheckEndpoint(), new StubDropboxServer.Handler() {
+            @Override
+            public StubDropboxServer.Response handle(StubDropboxServer.Request request) {
+                if (checks.incrementAndGet() == 1) {
+                    return StubDropboxServer.Response.json(200, "{\".tag\":\"in_progress\"}");
+                }
+                return StubDropboxServer.Response.json(200, complete(500));
+            }
+        });
+        JSONArray entries = new JSONArray();
+        for (int i = 0; i < 2500; i++) {
+            entries.put("/file" + i);
+        }
+        Map<String, Boolean> options = new LinkedHashMap<String, Boolean>();
+        BatchRunner runner = new BatchRunner(server.client(), BatchType.DELETE,
+                new AsyncJobPoller(server.client(), 1, 5, 10000));
+
+        JSONObject result = new JSONObject(runner.run(entries, options));
+
+        List<StubDropboxServer.Request> launches = server.getRequests(BatchType.DELETE.getLaunchEndpoint());
+        Assert.assertEquals(launches.size(), 3);
+        int[] sizes = {1000, 1000, 500};
+        for (int i = 0; i < sizes.length; i++) {
+            JSONArray slice = new JSONObject(launches.get(i).getBodyAsString()).getJSONArray("entries");
+            Assert.assertEquals(slice.length(), sizes[i]);
+            Assert.assertEquals(slice.getJSONObject(0).getString("path"), "/file" + (i * 1000));
+        }
+        Assert.assertEquals(checks.get(), 2);
+        Assert.assertEquals(result.getInt("total"), 2500);
+        Assert.assertEquals(result.getInt("succeeded"), 2500);
+        Assert.assertEquals(result.getJSONArray("entries").length(), 2500);
+        Assert.assertEquals(new JSONObject(server.getRequests(BatchType.DELETE.getCheckEndpoint()).get(0)
+                .getBodyAsString()).getString("async_job_id"), "j1");
+    }
+
+    @Test
+    public void keepsFinishedSlicesWhenAJobTimesOut() throws IOException, JSONException {
+        StubDropboxServer timingOut = new StubDropboxServer();
+        try {
+            final AtomicInteger slices = new AtomicInteger();
+            timingOut.handle(BatchType.DELETE.getLaunchEndpoint(), new StubDropboxServer.Handler() {
+                @Override
+                public StubDropboxServer.Response handle(StubDropboxServer.Request request) {
+                    if (slices.incrementAndGet() == 1) {
+                        return StubDropboxServer.Response.json(200, complete(1000));
+                    }
+                    return StubDropboxServer.Response.json(200, "{\".tag\":\"async_job_id\",\"async_job_id\":\"j2\"}");
+                }
+            });
+            timingOut.handle(BatchType.DELETE.getCheckEndpoint(), new StubDropboxServer.Handler() {
+                @Override
+                public StubDropboxServer.Response handle(StubDropboxServer.Request request) {
+                    return StubDropboxServer.Response.json(200, "{\".tag\":\"in_progress\"}");
+                }
+            });
+            JSONArray entries = new JSONArray();
+            for (int i = 0; i < 2500; i++) {
+                entries.put("/file" + i);
+            }
+            BatchRunner runner = new BatchRunner(timingOut.client(), BatchType.DELETE,
+                    new AsyncJobPoller(timingOut.client(), 1, 5, 50));
+
+            JSONObject result = new JSONObject(runner.run(entries, new LinkedHashMap<String, Boolean>()));
+
+            Assert.assertEquals(slices.get(), 2);
+            Assert.assertEquals(result.getInt("total"), 2500);
+            Assert.assertEquals(result.getInt("succeeded"), 1000);
+            Assert.assertEquals(result.getString("async_job_id"), "j2");
+            JSONArray results = result.getJSONArray("entries");
+            Assert.assertEquals(results.length(), 2500);
+            Assert.assertEquals(results.getJSONObject(999).getString(".tag"), "success");
+            Assert.assertEquals(results.getJSONObject(1000).getString(".tag"), "in_progress");
+            Assert.assertEquals(results.getJSONObject(1999).getString("async_job_id"), "j2");
+            Assert.assertEquals(results.getJSONObject(2000).getString(".tag"), "not_started");
+        } finally {
+            timingOut.close();
+        }
+    }
+
+    private static String complete(int count) {
+        StringBuilder json = new StringBuilder("{\".tag\":\"complete\",\"entries\":[");
+        for (int i = 0; i < count; i++) {
+            json.append(i == 0 ? "" : ",").append("{\".tag\":\"success\",\"metadata\":{}}");
+        }
+        return json.append("]}").toString();
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.cache;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.carbon.connector.dropbox.StubDropboxServer;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests of {@link MetadataCache} and of the invalidation of its entries by {@link ChangeTracker}.
+ */
+public class MetadataCacheTest {
+
+    private static final long TTL = 60000;
+
+    @Test
+    public void evictsTheLeastRecentlyUsedEntry() {
+        MetadataCache cache = new MetadataCache(2);
+        put(cache, "acc", "/a");
+        put(cache, "acc", "/b");
+        Assert.assertNotNull(cache.get("acc", "/a", 0));
+        put(cache, "acc", "/c");
+        Assert.assertNotNull(cache.get("acc", "/a", 0));
+        Assert.assertNull(cache.get("acc", "/b", 0));
+        Assert.assertNotNull(cache.get("acc", "/c", 0));
+        Assert.assertEquals(cache.getEvictions(), 1);
+        Assert.assertEquals(cache.getSize(), 2);
+    }
+
+    @Test
+    public void expiresEntriesAfterTheirTtl() throws InterruptedException {
+        MetadataCache cache = new MetadataCache(10);
+        cache.put("acc", "/short", 0, null, "{}", 20, cache.getGeneration());
+        Assert.assertFalse(cache.put("acc", "/none", 0, null, "{}", 0, cache.getGeneration()));
+        Thread.sleep(40);
+        Assert.assertNull(cache.get("acc", "/short", 0));
+        Assert.assertEquals(cache.getExpirations(), 1);
+    }
+
+    @Test
+    public void keysEntriesByCaseInsensitivePathAndFlags() {
+        MetadataCache cache = new MetadataCache(10);
+        put(cache, "acc", "/Docs/Report.txt");
+        Assert.assertNotNull(cache.get("acc", "/docs/REPORT.txt", 0));
+        Assert.assertNull(cache.get("acc", "/docs/report.txt", MetadataCache.flags(true, false, false)));
+        Assert.assertNull(cache.get("other", "/docs/report.txt", 0));
+        cache.put("acc", "id:AbC", 0, "/x", "{}", TTL, cache.getGeneration());
+        Assert.assertNull(cache.get("acc", "id:abc", 0));
+    }
+
+    @Test
+    public void invalidatesChangedPathsAndTheirDescendants() {
+        MetadataCache cache = new MetadataCache(10);
+        for (String path : new String[]{"/a", "/a/b", "/a/b/c", "/ab", "/b"}) {
+            put(cache, "acc", path);
+        }
+        put(cache, "other", "/a");
+        cache.invalidate("acc", Collections.singleton("/a"));
+        Assert.assertNull(cache.get("acc", "/a", 0));
+        Assert.assertNull(cache.get("acc", "/a/b", 0));
+        Assert.assertNull(cache.get("acc", "/a/b/c", 0));
+        Assert.assertNotNull(cache.get("acc", "/ab", 0));
+        Assert.assertNotNull(cache.get("acc", "/b", 0));
+        Assert.assertNotNull(cache.get("other", "/a", 0));
+        Assert.assertEquals(cache.getInvalidations(), 3);
+    }
+
+    @Test
+    public void invalidatesEveryEntryOfOneAccount() {
+        MetadataCache cache = new MetadataCache(10);
+        put(cache, "acc", "/a");
+        put(cache, "acc", "/b");
+        put(cache, "other", "/a");
+        cache.invalidateAll("acc");
+        Assert.assertNull(cache.get("acc", "/a", 0));
+        Assert.assertNull(cache.get("acc", "/b", 0));
+        Assert.assertNotNull(cache.get("other", "/a", 0));
+    }
+
+    @Test
+    public void skipsEntriesFetchedBeforeAnInvalidation() {
+        MetadataCache cache = new MetadataCache(10);
+        long generation = cache.getGeneration();
+        cache.invalidate("acc", Collections.<String>emptySet());
+        Assert.assertEquals(cache.getGeneration(), generation, "an empty invalidation changes nothing");
+        cache.invalidate("acc", Arrays.asList("/elsewhere"));
+        Assert.assertFalse(cache.put("acc", "/a", 0, "/a", "{}", TTL, generation));
+        Assert.assertNull(cache.get("acc", "/a", 0));
+        Assert.assertTrue(cache.put("acc", "/a", 0, "/a", "{}", TTL, cache.getGeneration()));
+    }
+
+    @Test
+    public void followsTheChangesOfTheAccount() throws IOException {
+        StubDropboxServer server = new StubDropboxServer();
+        try {
+            final AtomicInteger latestCursors = new AtomicInteger();
+            final AtomicInteger pages = new AtomicInteger();
+            server.handle("/files/list_folder/get_latest_cursor", new StubDropboxServer.Handler() {
+                @Override
+                public StubDropboxServer.Response handle(StubDropboxServer.Request request) {
+                    return StubDropboxServer.Response.json(200,
+                            "{\"cursor\":\"latest-" + latestCursors.incrementAndGet() + "\"}");
+                }
+            });
+            server.handle("/files/list_folder/continue", new StubDropboxServer.Handler() {
+                @Override
+                public StubDropboxServer.Response handle(StubDropboxServer.Request request) {
+                    switch (pages.incrementAndGet()) {
+                        case 1:
+                            return StubDropboxServer.Response.json(200, "{\"entries\":[{\".tag\":\"file\","
+                                    + "\"path_lower\":\"/a\"}],\"cursor\":\"page-1\",\"has_more\":true}");
+                        case 2:
+                            return StubDropboxServer.Response.json(200, "{\"entries\":[{\".tag\":\"deleted\","
+                                    + "\"path_lower\":\"/b/c\"}],\"cursor\":\"page-2\",\"has_more\":false}");
+                        default:
+                            return StubDropboxServer.Response.json(409,
+                                    "{\"error_summary\":\"reset/\",\"error\":{\".tag\":\"reset\"}}");
+                    }
+                }
+            });
+            DropboxClient client = server.client();
+            MetadataCache cache = new MetadataCache(10);
+            put(cache, "acc", "/stale");
+            ChangeTracker tracker = cache.getChangeTracker("acc");
+            Assert.assertSame(cache.getChangeTracker("acc"), tracker);
+
+            // The first sync cannot know what changed before it, so it drops everything.
+            tracker.sync(client, 0);
+            Assert.assertNull(cache.get("acc", "/stale", 0));
+            Assert.assertEquals(latestCursors.get(), 1);
+
+            put(cache, "acc", "/a");
+            put(cache, "acc", "/b");
+            put(cache, "acc", "/b/c");
+            tracker.sync(client, 0);
+            Assert.assertNull(cache.get("acc", "/a", 0));
+            Assert.assertNotNull(cache.get("acc", "/b", 0));
+            Assert.assertNull(cache.get("acc", "/b/c", 0));
+            Assert.assertEquals(cursorOf(server.getRequests("/files/list_folder/continue").get(0)), "latest-1");
+            Assert.assertEquals(cursorOf(server.getRequests("/files/list_folder/continue").get(1)), "page-1");
+
+            // The cursor is reset, which drops everything and takes a new cursor. The next sync falls within the
+            // interval and does not check the cursor.
+            tracker.sync(client, 60000);
+            tracker.sync(client, 60000);
+            Assert.assertEquals(pages.get(), 3);
+            Assert.assertNull(cache.get("acc", "/b", 0));
+            Assert.assertEquals(latestCursors.get(), 2);
+        } finally {
+            server.close();
+        }
+    }
+
+    private static void put(MetadataCache cache, String account, String path) {
+        Assert.assertTrue(cache.put(account, path, 0, path.toLowerCase(), "{\"path_display\":\"" + path + "\"}", TTL,
+                cache.getGeneration()));
+    }
+
+    private static String cursorOf(StubDropboxServer.Request request) {
+        try {
+            return new JSONObject(request.getBodyAsString()).getString("cursor");
+        } catch (JSONException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
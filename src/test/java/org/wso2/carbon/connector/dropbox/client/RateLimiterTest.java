@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.client;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests of {@link RateLimiter}. Every test uses accounts of its own, since limiters are shared per account.
+ */
+public class RateLimiterTest {
+
+    @Test
+    public void allowsTheBurstWithoutWaiting() throws Exception {
+        RateLimiter limiter = new RateLimiter(1, 5);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(limiter.acquire(), 0);
+        }
+    }
+
+    @Test
+    public void waitsForTheRateOnceTheBurstIsUsed() throws Exception {
+        RateLimiter limiter = new RateLimiter(20, 1);
+        limiter.acquire();
+        long start = System.nanoTime();
+        limiter.acquire();
+        limiter.acquire();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue(elapsed >= 90, "waited " + elapsed + " ms for two permits at 20 per second");
+    }
+
+    @Test
+    public void doesNotThrottleWithoutARate() throws Exception {
+        RateLimiter limiter = new RateLimiter(0, 1);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(limiter.acquire(), 0);
+        }
+    }
+
+    @Test
+    public void holdsBackRequestsWhilePaused() throws Exception {
+        RateLimiter limiter = new RateLimiter(0, 1);
+        limiter.pause(100);
+        long start = System.nanoTime();
+        limiter.acquire();
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 90);
+        Assert.assertEquals(limiter.acquire(), 0);
+    }
+
+    @Test
+    public void sharesTheLimiterOfAnAccount() {
+        String account = "shared-" + System.nanoTime();
+        RateLimiter limiter = RateLimiter.forAccount(account, 10, 2);
+        Assert.assertSame(RateLimiter.forAccount(account), limiter);
+        Assert.assertSame(RateLimiter.forAccount(account, 5, 1), limiter);
+        Assert.assertNotSame(RateLimiter.forAccount(account + "-other"), limiter);
+    }
+
+    @Test
+    public void dropsIdleLimitersOnly() throws Exception {
+        String prefix = "idle-" + System.nanoTime() + "-";
+        RateLimiter idle = RateLimiter.forAccount(prefix + "idle", 10, 2);
+        RateLimiter paused = RateLimiter.forAccount(prefix + "paused");
+        paused.pause(TimeUnit.HOURS.toMillis(1));
+        // One permit every 1000 seconds, so the bucket is still short of two permits by the time of the sweep.
+        RateLimiter draining = RateLimiter.forAccount(prefix + "draining", 0.001, 3);
+        draining.acquire();
+        draining.acquire();
+
+        RateLimiter.evictIdle(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RateLimiter.IDLE_TIMEOUT)
+                + TimeUnit.MINUTES.toNanos(2));
+
+        Assert.assertNotSame(RateLimiter.forAccount(prefix + "idle"), idle);
+        Assert.assertSame(RateLimiter.forAccount(prefix + "paused"), paused);
+        Assert.assertSame(RateLimiter.forAccount(prefix + "draining"), draining);
+    }
+}
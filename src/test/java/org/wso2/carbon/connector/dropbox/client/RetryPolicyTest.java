@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.client;
+
+import org.apache.http.HttpVersion;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.message.BasicHttpResponse;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.wso2.carbon.connector.dropbox.StubDropboxServer;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests of {@link RetryPolicy}, on its own and as applied by {@link DropboxClient} to the responses of a local stub.
+ */
+public class RetryPolicyTest {
+
+    private StubDropboxServer server;
+
+    @BeforeClass
+    public void startServer() throws IOException {
+        server = new StubDropboxServer();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void retriesRateLimitsAndServerErrorsOnly() {
+        for (int statusCode : new int[]{429, 500, 502, 503, 504}) {
+            Assert.assertTrue(RetryPolicy.isRetryable(statusCode), String.valueOf(statusCode));
+        }
+        for (int statusCode : new int[]{200, 400, 401, 403, 409, 501}) {
+            Assert.assertFalse(RetryPolicy.isRetryable(statusCode), String.valueOf(statusCode));
+        }
+    }
+
+    @Test
+    public void retriesFailuresBeforeTheRequestWasSentOnly() {
+        Assert.assertTrue(RetryPolicy.isRetryable(new ConnectTimeoutException()));
+        Assert.assertTrue(RetryPolicy.isRetryable(new NoHttpResponseException("closed")));
+        Assert.assertFalse(RetryPolicy.isRetryable(new SocketTimeoutException()));
+        Assert.assertFalse(RetryPolicy.isRetryable(new IOException()));
+    }
+
+    @Test
+    public void waitsForTheRetryAfterInSeconds() {
+        RetryPolicy policy = new RetryPolicy(3, 500, 30000);
+        Assert.assertEquals(policy.getDelay(1, response("7")), 7000);
+        Assert.assertEquals(policy.getDelay(3, response(" 0 ")), 0);
+        Assert.assertEquals(RetryPolicy.getRetryAfter(response(null)), -1);
+        Assert.assertEquals(RetryPolicy.getRetryAfter(response("Wed, 21 Oct 2015 07:28:00 GMT")), -1);
+    }
+
+    @Test
+    public void backsOffExponentiallyUpToTheMaximum() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+        long[] ceilings = {100, 200, 400, 800, 1000, 1000};
+        for (int retry = 1; retry <= ceilings.length; retry++) {
+            long highest = 0;
+            for (int i = 0; i < 200; i++) {
+                long delay = policy.getDelay(retry, retry % 2 == 0 ? null : response(null));
+                Assert.assertTrue(delay >= 0 && delay <= ceilings[retry - 1], "retry " + retry + ": " + delay);
+                highest = Math.max(highest, delay);
+            }
+            Assert.assertTrue(highest > ceilings[retry - 1] / 2, "retry " + retry + " never waited long");
+        }
+        Assert.assertTrue(policy.getDelay(100, null) <= 1000);
+    }
+
+    @Test
+    public void clientRetriesRateLimitedCalls() throws IOException {
+        final AtomicInteger calls = new AtomicInteger();
+        server.handle("/retry/rate_limited", new StubDropboxServer.Handler() {
+            @Override
+            public StubDropboxServer.Response handle(StubDropboxServer.Request request) {
+                if (calls.incrementAndGet() < 3) {
+                    return StubDropboxServer.Response.json(429, "{\"error_summary\":\"too_many_requests/\"}")
+                            .header("Retry-After", "0");
+                }
+                return StubDropboxServer.Response.json(200, "{\"ok\":true}");
+            }
+        });
+        Assert.assertEquals(server.client().rpc("/retry/rate_limited", "{}"), "{\"ok\":true}");
+        Assert.assertEquals(calls.get(), 3);
+    }
+
+    @Test
+    public void clientDoesNotRetryEndpointErrors() {
+        server.handle("/retry/conflict", new StubDropboxServer.Handler() {
+            @Override
+            public StubDropboxServer.Response handle(StubDropboxServer.Request request) {
+                return StubDropboxServer.Response.json(409,
+                        "{\"error_summary\":\"path/not_found/\",\"error\":{\".tag\":\"path\"}}");
+            }
+        });
+        try {
+            server.client().rpc("/retry/conflict", "{}");
+            Assert.fail("Expected a DropboxApiException");
+        } catch (IOException e) {
+            Assert.assertTrue(e instanceof DropboxApiException, e.toString());
+            Assert.assertEquals(((DropboxApiException) e).getStatusCode(), 409);
+        }
+        Assert.assertEquals(server.getRequests("/retry/conflict").size(), 1);
+    }
+
+    @Test
+    public void clientGivesUpAfterTheLastRetry() {
+        server.handle("/retry/unavailable", new StubDropboxServer.Handler() {
+            @Override
+            public StubDropboxServer.Response handle(StubDropboxServer.Request request) {
+                return StubDropboxServer.Response.json(503, "{\"error_summary\":\"unavailable/\"}");
+            }
+        });
+        try {
+            server.client(new RetryPolicy(2, 1, 5)).rpc("/retry/unavailable", "{}");
+            Assert.fail("Expected a DropboxApiException");
+        } catch (IOException e) {
+            Assert.assertTrue(e instanceof DropboxApiException, e.toString());
+            Assert.assertEquals(((DropboxApiException) e).getStatusCode(), 503);
+        }
+        Assert.assertEquals(server.getRequests("/retry/unavailable").size(), 3);
+    }
+
+    private static BasicHttpResponse response(String retryAfter) {
+        BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 429, "Too Many Requests");
+        if (retryAfter != null) {
+            response.addHeader("Retry-After", retryAfter);
+        }
+        return response;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.download;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.wso2.carbon.connector.dropbox.StubDropboxServer;
+import org.wso2.carbon.connector.dropbox.client.DropboxClient;
+import org.wso2.carbon.connector.dropbox.client.DropboxHttpClient;
+import org.wso2.carbon.connector.dropbox.client.RateLimiter;
+import org.wso2.carbon.connector.dropbox.client.RetryPolicy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Tests of {@link ResponseDataSource} over a pool of a single connection, which a response that is not closed would
+ * hold.
+ */
+public class ResponseDataSourceTest {
+
+    private StubDropboxServer server;
+
+    private DropboxHttpClient httpClient;
+
+    private DropboxClient client;
+
+    @BeforeClass
+    public void startServer() throws IOException {
+        server = new StubDropboxServer();
+        server.handle("/files/download", new StubDropboxServer.Handler() {
+            @Override
+            public StubDropboxServer.Response handle(StubDropboxServer.Request request) {
+                return StubDropboxServer.Response.json(200, "\"content\"");
+            }
+        });
+        httpClient = DropboxHttpClient.create(1, 1, 2000, 2000);
+        client = new DropboxClient(httpClient, server.getApiUrl(), "stub-token", RetryPolicy.NONE,
+                RateLimiter.forAccount("response-data-source-" + System.nanoTime()));
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopServer() {
+        httpClient.close();
+        server.close();
+    }
+
+    @Test
+    public void releasesTheConnectionOnceTheContentIsRead() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            ResponseDataSource dataSource = new ResponseDataSource(download(), "application/octet-stream");
+            Assert.assertEquals(readAll(dataSource.getInputStream()), "\"content\"");
+        }
+    }
+
+    @Test
+    public void releasesTheConnectionWhenTheStreamIsClosedEarly() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            InputStream in = new ResponseDataSource(download(), "application/octet-stream").getInputStream();
+            Assert.assertEquals(in.read(), '"');
+            in.close();
+            Assert.assertEquals(in.read(), -1);
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void canBeReadOnlyOnce() throws IOException {
+        ResponseDataSource dataSource = new ResponseDataSource(download(), "application/octet-stream");
+        dataSource.getInputStream().close();
+        dataSource.getInputStream();
+    }
+
+    private CloseableHttpResponse download() throws IOException {
+        return client.download("/files/download", "{\"path\":\"/a\"}");
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toString("UTF-8");
+    }
+}
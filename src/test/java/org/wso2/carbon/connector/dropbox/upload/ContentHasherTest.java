@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.upload;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests of {@link ContentHasher} against a straightforward computation of the Dropbox content hash.
+ */
+public class ContentHasherTest {
+
+    @Test
+    public void hashesEmptyContent() {
+        // The SHA-256 of no block hashes at all.
+        Assert.assertEquals(new ContentHasher().getContentHash(),
+                "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855");
+    }
+
+    @Test
+    public void hashesContentOfSeveralBlocks() throws NoSuchAlgorithmException {
+        for (int length : new int[]{1, ContentHasher.BLOCK_SIZE - 1, ContentHasher.BLOCK_SIZE,
+                ContentHasher.BLOCK_SIZE + 1, 2 * ContentHasher.BLOCK_SIZE + 12345}) {
+            byte[] content = content(length);
+            ContentHasher hasher = new ContentHasher();
+            hasher.update(content, 0, content.length);
+            Assert.assertEquals(hasher.getContentHash(), expectedHash(content), "length " + length);
+        }
+    }
+
+    @Test
+    public void doesNotDependOnHowTheContentIsFed() throws NoSuchAlgorithmException {
+        byte[] content = content(2 * ContentHasher.BLOCK_SIZE + 777);
+        Random random = new Random(7);
+        ContentHasher hasher = new ContentHasher();
+        int offset = 0;
+        while (offset < content.length) {
+            int length = Math.min(content.length - offset, random.nextInt(3 * 1024 * 1024));
+            hasher.update(content, offset, length);
+            offset += length;
+        }
+        Assert.assertEquals(hasher.getContentHash(), expectedHash(content));
+    }
+
+    @Test
+    public void hashesFiles() throws IOException, NoSuchAlgorithmException {
+        byte[] content = content(ContentHasher.BLOCK_SIZE + 100);
+        Path file = Files.createTempFile("content-hasher", ".bin");
+        try {
+            Files.write(file, content);
+            Assert.assertEquals(ContentHasher.hash(file), expectedHash(content));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void returnsTheSameHashOnceComputed() {
+        ContentHasher hasher = new ContentHasher();
+        hasher.update(new byte[]{1, 2, 3}, 0, 3);
+        Assert.assertEquals(hasher.getContentHash(), hasher.getContentHash());
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void rejectsContentAfterTheHash() {
+        ContentHasher hasher = new ContentHasher();
+        hasher.getContentHash();
+        hasher.update(new byte[1], 0, 1);
+    }
+
+    static byte[] content(int length) {
+        byte[] content = new byte[length];
+        new Random(length).nextBytes(content);
+        return content;
+    }
+
+    /**
+     * Hashes every 4 MB block on its own and then the concatenation of the block hashes.
+     */
+    static String expectedHash(byte[] content) throws NoSuchAlgorithmException {
+        MessageDigest overall = MessageDigest.getInstance("SHA-256");
+        for (int start = 0; start < content.length; start += ContentHasher.BLOCK_SIZE) {
+            int end = Math.min(content.length, start + ContentHasher.BLOCK_SIZE);
+            overall.update(MessageDigest.getInstance("SHA-256").digest(Arrays.copyOfRange(content, start, end)));
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte value : overall.digest()) {
+            hex.append(String.format("%02x", value & 0xff));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.upload;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.connector.dropbox.StubDropboxServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Tests of {@link ParallelChunkUploader} against the upload session endpoints of a local stub.
+ */
+public class ParallelChunkUploaderTest {
+
+    private static final int BLOCK = ParallelChunkUploader.BLOCK_SIZE;
+
+    private StubDropboxServer server;
+
+    private UploadSessionStub sessions;
+
+    @BeforeMethod
+    public void startServer() throws IOException {
+        server = new StubDropboxServer();
+        sessions = new UploadSessionStub(server);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void uploadsSmallContentInOneCall() throws IOException {
+        byte[] content = ContentHasherTest.content(1000);
+        new ParallelChunkUploader(server.client(), BLOCK, 4).upload(new ByteArrayInputStream(content),
+                "{\"path\":\"/small\"}");
+        Assert.assertEquals(sessions.getFile("/small"), content);
+        Assert.assertEquals(server.getRequests("/files/upload").size(), 1);
+        Assert.assertTrue(server.getRequests("/files/upload_session/start").isEmpty());
+    }
+
+    @Test
+    public void uploadsStreamsInConcurrentChunks() throws IOException, JSONException, NoSuchAlgorithmException {
+        byte[] content = ContentHasherTest.content(5 * BLOCK + 1234);
+        ContentHasher hasher = new ContentHasher();
+        String metadata = new ParallelChunkUploader(server.client(), BLOCK, 3).upload(
+                new ByteArrayInputStream(content), "{\"path\":\"/stream\"}", hasher, null);
+
+        Assert.assertEquals(new JSONObject(metadata).getLong("size"), content.length);
+        Assert.assertEquals(sessions.getFile("/stream"), content);
+        Assert.assertEquals(hasher.getContentHash(), ContentHasherTest.expectedHash(content));
+        assertAppends(6, content.length);
+    }
+
+    @Test
+    public void closesTheSessionWithTheLastChunkOfAStreamOfWholeChunks() throws IOException, JSONException {
+        byte[] content = ContentHasherTest.content(3 * BLOCK);
+        new ParallelChunkUploader(server.client(), BLOCK, 2).upload(new ByteArrayInputStream(content),
+                "{\"path\":\"/whole\"}");
+        Assert.assertEquals(sessions.getFile("/whole"), content);
+        assertAppends(3, content.length);
+    }
+
+    @Test
+    public void uploadsFilesInConcurrentChunks() throws IOException, JSONException {
+        byte[] content = ContentHasherTest.content(2 * 2 * BLOCK + 10);
+        Path file = Files.createTempFile("parallel-upload", ".bin");
+        try {
+            Files.write(file, content);
+            new ParallelChunkUploader(server.client(), 2 * BLOCK + 5, 4).upload(file, "{\"path\":\"/file\"}");
+        } finally {
+            Files.delete(file);
+        }
+        Assert.assertEquals(sessions.getFile("/file"), content);
+        assertAppends(3, content.length);
+    }
+
+    @Test
+    public void doesNotFinishAfterAFailedAppend() throws IOException {
+        sessions.failAppendAt(2L * BLOCK);
+        byte[] content = ContentHasherTest.content(4 * BLOCK + 1);
+        try {
+            new ParallelChunkUploader(server.client(), BLOCK, 2).upload(new ByteArrayInputStream(content),
+                    "{\"path\":\"/failed\"}");
+            Assert.fail("Expected the upload to fail");
+        } catch (IOException expected) {
+            // The append at 8 MB was rejected.
+        }
+        Assert.assertTrue(server.getRequests("/files/upload_session/finish").isEmpty());
+        Assert.assertNull(sessions.getFile("/failed"));
+    }
+
+    /**
+     * Checks that every append but the last starts at a multiple of 4 MB, that only the last one closes the session
+     * and that the finish call commits the whole length.
+     */
+    private void assertAppends(int count, long length) throws JSONException {
+        List<StubDropboxServer.Request> starts = server.getRequests("/files/upload_session/start");
+        Assert.assertEquals(starts.size(), 1);
+        Assert.assertEquals(new JSONObject(starts.get(0).getApiArg()).getString("session_type"), "concurrent");
+        List<StubDropboxServer.Request> appends = server.getRequests("/files/upload_session/append_v2");
+        Assert.assertEquals(appends.size(), count);
+        int closing = 0;
+        for (StubDropboxServer.Request append : appends) {
+            JSONObject arg = new JSONObject(append.getApiArg());
+            long offset = arg.getJSONObject("cursor").getLong("offset");
+            Assert.assertEquals(offset % BLOCK, 0, "offset " + offset);
+            if (arg.getBoolean("close")) {
+                closing++;
+                Assert.assertEquals(offset + append.getBody().length, length);
+            } else {
+                Assert.assertEquals(append.getBody().length % BLOCK, 0);
+            }
+        }
+        Assert.assertEquals(closing, 1);
+        List<StubDropboxServer.Request> finishes = server.getRequests("/files/upload_session/finish");
+        Assert.assertEquals(finishes.size(), 1);
+        Assert.assertEquals(new JSONObject(finishes.get(0).getApiArg()).getJSONObject("cursor").getLong("offset"),
+                length);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.upload;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.connector.dropbox.StubDropboxServer;
+import org.wso2.carbon.connector.dropbox.sync.CursorStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tests of {@link ResumableUpload} against the upload session endpoints of a local stub, with the upload state kept
+ * in memory.
+ */
+public class ResumableUploadTest {
+
+    private static final int CHUNK = 64 * 1024;
+
+    private static final String KEY = "upload";
+
+    private StubDropboxServer server;
+
+    private UploadSessionStub sessions;
+
+    private MemoryCursorStore store;
+
+    private Path file;
+
+    private byte[] content;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        server = new StubDropboxServer();
+        sessions = new UploadSessionStub(server);
+        store = new MemoryCursorStore();
+        content = ContentHasherTest.content(5 * CHUNK + 100);
+        file = Files.createTempFile("resumable-upload", ".bin");
+        Files.write(file, content);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() throws IOException {
+        server.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void uploadsFromTheBeginningWithoutState() throws IOException {
+        ResumableUpload upload = new ResumableUpload(server.client(), store, KEY, CHUNK);
+        upload.upload(file, "{\"path\":\"/new\"}");
+        Assert.assertEquals(upload.getResumedFrom(), -1);
+        Assert.assertEquals(sessions.getFile("/new"), content);
+        Assert.assertEquals(server.getRequests("/files/upload_session/append_v2").size(), 6);
+        Assert.assertNull(store.load(KEY), "the state is removed once the file is committed");
+    }
+
+    @Test
+    public void continuesAtTheOffsetDropboxHolds() throws IOException {
+        // The state was saved before the third chunk was acknowledged, but Dropbox received it.
+        String sessionId = sessions.start(false);
+        sessions.append(sessionId, Arrays.copyOf(content, 3 * CHUNK));
+        store.save(KEY, state(sessionId, 2 * CHUNK));
+
+        ResumableUpload upload = new ResumableUpload(server.client(), store, KEY, CHUNK);
+        upload.upload(file, "{\"path\":\"/resumed\"}");
+
+        Assert.assertEquals(upload.getResumedFrom(), 3L * CHUNK);
+        Assert.assertEquals(sessions.getFile("/resumed"), content);
+        Assert.assertTrue(server.getRequests("/files/upload_session/start").isEmpty());
+        // The empty probe at the stored offset, then the last three chunks.
+        List<StubDropboxServer.Request> appends = server.getRequests("/files/upload_session/append_v2");
+        Assert.assertEquals(appends.size(), 4);
+        Assert.assertEquals(appends.get(0).getBody().length, 0);
+        Assert.assertEquals(offset(appends.get(1)), 3L * CHUNK);
+    }
+
+    @Test
+    public void correctsTheOffsetWhenARetriedAppendWasAlreadyReceived() throws IOException {
+        sessions.loseResponseAt(2L * CHUNK);
+        ResumableUpload upload = new ResumableUpload(server.client(), store, KEY, CHUNK);
+        upload.upload(file, "{\"path\":\"/retried\"}");
+
+        Assert.assertEquals(sessions.getFile("/retried"), content);
+        List<StubDropboxServer.Request> appends = server.getRequests("/files/upload_session/append_v2");
+        // The retry of the third chunk is rejected with incorrect_offset and the upload goes on with the fourth.
+        Assert.assertEquals(appends.size(), 7);
+        Assert.assertEquals(offset(appends.get(3)), 2L * CHUNK);
+        Assert.assertEquals(offset(appends.get(4)), 3L * CHUNK);
+    }
+
+    @Test
+    public void startsOverWhenTheSessionExpired() throws IOException {
+        store.save(KEY, state("expired-session", 2 * CHUNK));
+        ResumableUpload upload = new ResumableUpload(server.client(), store, KEY, CHUNK);
+        upload.upload(file, "{\"path\":\"/expired\"}");
+
+        Assert.assertEquals(upload.getResumedFrom(), -1);
+        Assert.assertEquals(sessions.getFile("/expired"), content);
+        Assert.assertEquals(server.getRequests("/files/upload_session/start").size(), 1);
+    }
+
+    @Test
+    public void startsOverWhenTheSourceChanged() throws IOException {
+        String sessionId = sessions.start(false);
+        sessions.append(sessionId, Arrays.copyOf(content, CHUNK));
+        store.save(KEY, state(sessionId, CHUNK));
+        content = ContentHasherTest.content(2 * CHUNK);
+        Files.write(file, content);
+
+        ResumableUpload upload = new ResumableUpload(server.client(), store, KEY, CHUNK);
+        upload.upload(file, "{\"path\":\"/changed\"}");
+
+        Assert.assertEquals(upload.getResumedFrom(), -1);
+        Assert.assertEquals(sessions.getFile("/changed"), content);
+    }
+
+    @Test
+    public void keepsTheStateWhenTheUploadFails() throws IOException {
+        sessions.failAppendAt(3L * CHUNK);
+        try {
+            new ResumableUpload(server.client(), store, KEY, CHUNK).upload(file, "{\"path\":\"/failed\"}");
+            Assert.fail("Expected the upload to fail");
+        } catch (IOException expected) {
+            // The session was closed at the fourth chunk.
+        }
+        ResumableUpload.State state = ResumableUpload.State.parse(store.load(KEY));
+        Assert.assertNotNull(state);
+        Assert.assertEquals(state.offset, 3L * CHUNK);
+    }
+
+    private String state(String sessionId, long offset) throws IOException {
+        return new ResumableUpload.State(sessionId, offset, file.toAbsolutePath().toString(), Files.size(file),
+                Files.getLastModifiedTime(file).toMillis()).toJson();
+    }
+
+    private static long offset(StubDropboxServer.Request append) {
+        try {
+            return new JSONObject(append.getApiArg()).getJSONObject("cursor").getLong("offset");
+        } catch (JSONException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static final class MemoryCursorStore implements CursorStore {
+
+        private final Map<String, String> values = new ConcurrentHashMap<String, String>();
+
+        @Override
+        public String load(String key) {
+            return values.get(key);
+        }
+
+        @Override
+        public void save(String key, String cursor) {
+            values.put(key, cursor);
+        }
+
+        @Override
+        public void delete(String key) {
+            values.remove(key);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.upload;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.wso2.carbon.connector.dropbox.StubDropboxServer;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Upload session endpoints of the stub. Sequential sessions reject appends and finishes at any offset other than the
+ * end of the received content with incorrect_offset, as Dropbox does, and concurrent sessions reassemble their chunks
+ * by offset when they are finished. Committed files are kept by path.
+ */
+final class UploadSessionStub {
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+
+    private final Map<String, byte[]> files = new ConcurrentHashMap<String, byte[]>();
+
+    private final AtomicInteger sessionIds = new AtomicInteger();
+
+    private volatile long failAppendAt = -1;
+
+    private volatile long loseResponseAt = -1;
+
+    UploadSessionStub(StubDropboxServer server) {
+        server.handle("/files/upload", new StubDropboxServer.Handler() {
+            @Override
+            public StubDropboxServer.Response handle(StubDropboxServer.Request request) {
+                String path = parse(request.getApiArg()).optString("path");
+                files.put(path, request.getBody());
+                return metadata(path, request.getBody().length);
+            }
+        });
+        server.handle("/files/upload_session/start", new StubDropboxServer.Handler() {
+            @Override
+            public StubDropboxServer.Response handle(StubDropboxServer.Request request) {
+                String arg = request.getApiArg();
+                boolean concurrent = arg != null && "concurrent".equals(parse(arg).optString("session_type"));
+                String sessionId = start(concurrent);
+                sessions.get(sessionId).append(0, request.getBody());
+                return StubDropboxServer.Response.json(200, "{\"session_id\":\"" + sessionId + "\"}");
+            }
+        });
+        server.handle("/files/upload_session/append_v2", new StubDropboxServer.Handler() {
+            @Override
+            public StubDropboxServer.Response handle(StubDropboxServer.Request request) {
+                JSONObject cursor = parse(request.getApiArg()).optJSONObject("cursor");
+                long offset = cursor.optLong("offset");
+                Session session = sessions.get(cursor.optString("session_id"));
+                if (session == null) {
+                    return error("{\".tag\":\"not_found\"}");
+                }
+                if (offset == failAppendAt) {
+                    return error("{\".tag\":\"closed\"}");
+                }
+                synchronized (session) {
+                    if (!session.concurrent && offset != session.length()) {
+                        return error(incorrectOffset(session.length()));
+                    }
+                    session.append(offset, request.getBody());
+                }
+                if (request.getBody().length > 0 && offset == loseResponseAt) {
+                    // The chunk is kept but the client does not learn about it and retries the append.
+                    loseResponseAt = -1;
+                    return StubDropboxServer.Response.json(503, "{\"error_summary\":\"unavailable/\"}");
+                }
+                return StubDropboxServer.Response.json(200, "null");
+            }
+        });
+        server.handle("/files/upload_session/finish", new StubDropboxServer.Handler() {
+            @Override
+            public StubDropboxServer.Response handle(StubDropboxServer.Request request) {
+                JSONObject arg = parse(request.getApiArg());
+                JSONObject cursor = arg.optJSONObject("cursor");
+                Session session = sessions.get(cursor.optString("session_id"));
+                if (session == null) {
+                    return error("{\".tag\":\"lookup_failed\",\"lookup_failed\":{\".tag\":\"not_found\"}}");
+                }
+                synchronized (session) {
+                    if (cursor.optLong("offset") != session.length()) {
+                        return error("{\".tag\":\"lookup_failed\",\"lookup_failed\":"
+                                + incorrectOffset(session.length()) + "}");
+                    }
+                    sessions.remove(cursor.optString("session_id"));
+                    String path = arg.optJSONObject("commit").optString("path");
+                    byte[] content = session.content();
+                    files.put(path, content);
+                    return metadata(path, content.length);
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts a session, as if an earlier upload had.
+     *
+     * @return the session id.
+     */
+    String start(boolean concurrent) {
+        String sessionId = "session-" + sessionIds.incrementAndGet();
+        sessions.put(sessionId, new Session(concurrent));
+        return sessionId;
+    }
+
+    void append(String sessionId, byte[] content) {
+        Session session = sessions.get(sessionId);
+        synchronized (session) {
+            session.append(session.length(), content);
+        }
+    }
+
+    /**
+     * Makes appends at an offset fail with a closed session error.
+     */
+    void failAppendAt(long offset) {
+        failAppendAt = offset;
+    }
+
+    /**
+     * Makes the first non empty append at an offset succeed but answer 503.
+     */
+    void loseResponseAt(long offset) {
+        loseResponseAt = offset;
+    }
+
+    byte[] getFile(String path) {
+        return files.get(path);
+    }
+
+    private static JSONObject parse(String json) {
+        try {
+            return new JSONObject(json);
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Invalid Dropbox-API-Arg " + json, e);
+        }
+    }
+
+    private static String incorrectOffset(long correctOffset) {
+        return "{\".tag\":\"incorrect_offset\",\"correct_offset\":" + correctOffset + "}";
+    }
+
+    private static StubDropboxServer.Response error(String error) {
+        return StubDropboxServer.Response.json(409, "{\"error_summary\":\"lookup/\",\"error\":" + error + "}");
+    }
+
+    private static StubDropboxServer.Response metadata(String path, long size) {
+        return StubDropboxServer.Response.json(200, "{\"path_display\":\"" + path + "\",\"size\":" + size + "}");
+    }
+
+    private static final class Session {
+
+        private final boolean concurrent;
+
+        private final TreeMap<Long, byte[]> chunks = new TreeMap<Long, byte[]>();
+
+        Session(boolean concurrent) {
+            this.concurrent = concurrent;
+        }
+
+        void append(long offset, byte[] content) {
+            if (content.length > 0) {
+                chunks.put(offset, content);
+            }
+        }
+
+        long length() {
+            return chunks.isEmpty() ? 0 : chunks.lastKey() + chunks.lastEntry().getValue().length;
+        }
+
+        /**
+         * @throws IllegalStateException if the chunks leave a gap, which makes the stub answer 500.
+         */
+        byte[] content() {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            for (Map.Entry<Long, byte[]> chunk : chunks.entrySet()) {
+                if (chunk.getKey() != content.size()) {
+                    throw new IllegalStateException("Gap at offset " + content.size());
+                }
+                content.write(chunk.getValue(), 0, chunk.getValue().length);
+            }
+            return content.toByteArray();
+        }
+    }
+}
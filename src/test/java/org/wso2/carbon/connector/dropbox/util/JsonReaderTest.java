@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.util;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+/**
+ * Tests of {@link JsonReader}, including documents split across reads at every position.
+ */
+public class JsonReaderTest {
+
+    private static final int BUFFER_SIZE = 1024;
+
+    @Test
+    public void readsNestedDocument() throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(
+                "{\"a\": [1, {\"b\": null}], \"c\": true, \"d\": \"x\", \"e\": -1.5e3}"));
+        reader.beginObject();
+        Assert.assertEquals(reader.nextName(), "a");
+        reader.beginArray();
+        Assert.assertEquals(reader.nextNumber(), "1");
+        reader.beginObject();
+        Assert.assertEquals(reader.nextName(), "b");
+        reader.nextNull();
+        reader.endObject();
+        Assert.assertFalse(reader.hasNext());
+        reader.endArray();
+        Assert.assertEquals(reader.nextName(), "c");
+        Assert.assertTrue(reader.nextBoolean());
+        Assert.assertEquals(reader.nextName(), "d");
+        Assert.assertEquals(reader.nextString(), "x");
+        Assert.assertEquals(reader.nextName(), "e");
+        Assert.assertEquals(reader.nextNumber(), "-1.5e3");
+        reader.endObject();
+        Assert.assertEquals(reader.peek(), JsonReader.Token.END_DOCUMENT);
+    }
+
+    @Test
+    public void skipsAndCopiesValues() throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(
+                "{\"skip\": {\"x\": [1, [2, {}]]}, \"keep\": [\"a\\n\", 0, false, null, {\"y\": -0.25}]}"));
+        reader.beginObject();
+        Assert.assertEquals(reader.nextName(), "skip");
+        reader.skipValue();
+        Assert.assertEquals(reader.nextName(), "keep");
+        JsonWriter writer = new JsonWriter();
+        reader.copyValue(writer);
+        reader.endObject();
+        Assert.assertEquals(writer.toString(), "[\"a\\n\",0,false,null,{\"y\":-0.25}]");
+    }
+
+    @Test
+    public void readsDeeplyNestedArrays() throws IOException {
+        int levels = 200;
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < levels; i++) {
+            json.append('[');
+        }
+        json.append("42");
+        for (int i = 0; i < levels; i++) {
+            json.append(']');
+        }
+        JsonReader reader = new JsonReader(new StringReader(json.toString()));
+        JsonWriter writer = new JsonWriter();
+        reader.copyValue(writer);
+        Assert.assertEquals(writer.toString(), json.toString());
+        Assert.assertEquals(reader.peek(), JsonReader.Token.END_DOCUMENT);
+    }
+
+    @Test
+    public void readsEscapesAtEveryBufferPosition() throws IOException {
+        String escapes = "\\u00e9\\n\\\"\\\\\\/\\ud83d\\ude00";
+        String expected = "\u00e9\n\"\\/\ud83d\ude00";
+        for (int offset = BUFFER_SIZE - 40; offset <= BUFFER_SIZE + 2; offset++) {
+            StringBuilder padding = new StringBuilder();
+            for (int i = 0; i < offset; i++) {
+                padding.append('p');
+            }
+            // The string value starts after the opening quote of the document.
+            String json = "\"" + padding + escapes + "\"";
+            Assert.assertEquals(new JsonReader(new StringReader(json)).nextString(), padding + expected,
+                    "offset " + offset);
+        }
+    }
+
+    @Test
+    public void readsDocumentsDeliveredOneCharacterAtATime() throws IOException {
+        String json = "{\"name\": \"caf\\u00e9 \ud83d\ude00\", \"size\": 12345, \"tags\": [true, null, \"\\t\"]}";
+        JsonReader reader = new JsonReader(new ChunkedReader(json, 1));
+        JsonWriter writer = new JsonWriter();
+        reader.copyValue(writer);
+        Assert.assertEquals(writer.toString(),
+                "{\"name\":\"caf\u00e9 \ud83d\ude00\",\"size\":12345,\"tags\":[true,null,\"\\t\"]}");
+    }
+
+    @Test
+    public void combinesEscapedSurrogatePairs() throws IOException {
+        String value = new JsonReader(new StringReader("\"\\ud83d\\ude00\"")).nextString();
+        Assert.assertEquals(value.codePointAt(0), 0x1F600);
+        Assert.assertEquals(value.length(), 2);
+    }
+
+    @DataProvider
+    public Object[][] validNumbers() {
+        return new Object[][]{{"0"}, {"-0"}, {"7"}, {"1024"}, {"-12"}, {"0.5"}, {"1.5e3"}, {"-12.25E-2"}, {"1e+5"},
+                {"2E10"}};
+    }
+
+    @Test(dataProvider = "validNumbers")
+    public void acceptsValidNumbers(String number) throws IOException {
+        JsonReader reader = new JsonReader(new StringReader("[" + number + "]"));
+        reader.beginArray();
+        Assert.assertEquals(reader.nextNumber(), number);
+        reader.endArray();
+    }
+
+    @DataProvider
+    public Object[][] malformedDocuments() {
+        return new Object[][]{
+                {""}, {"-abc"}, {"[-abc]"}, {"01"}, {"-"}, {"1."}, {"1.e5"}, {"1e"}, {"1e+"}, {"--1"}, {"1-2"},
+                {"0x10"}, {".5"}, {"+1"}, {"1true"}, {"tru"}, {"nul"}, {"falsey"}, {"\"abc"}, {"\"\\x\""},
+                {"\"\\u12g4\""}, {"\"\\u12"}, {"[1 2]"}, {"[1,]"}, {"{\"a\" 1}"}, {"{\"a\":1,}"}, {"{a:1}"},
+                {"{\"a\":1]"}, {"[1}"}, {"{} {}"}, {"[[]"}};
+    }
+
+    @Test(dataProvider = "malformedDocuments", expectedExceptions = IOException.class)
+    public void rejectsMalformedDocuments(String json) throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(json));
+        reader.copyValue(new JsonWriter());
+        // Content after a complete value is only detected when the end of the document is read.
+        reader.peek();
+    }
+
+    /**
+     * Hands out a string a few characters per read, so that every token boundary falls on a buffer refill.
+     */
+    private static final class ChunkedReader extends Reader {
+
+        private final String text;
+
+        private final int chunk;
+
+        private int position;
+
+        ChunkedReader(String text, int chunk) {
+            this.text = text;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (position == text.length()) {
+                return -1;
+            }
+            int count = Math.min(Math.min(chunk, length), text.length() - position);
+            text.getChars(position, position + count, buffer, offset);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2016, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.connector.dropbox.util;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Tests of {@link JsonWriter}.
+ */
+public class JsonWriterTest {
+
+    @Test
+    public void writesNestedValuesWithSeparators() {
+        JsonWriter writer = new JsonWriter();
+        writer.beginObject()
+                .name("a").value("x")
+                .name("b").beginArray().value(1).value(true).nullValue().beginObject().endObject().endArray()
+                .name("c").value((String) null)
+                .name("d").rawValue("{\"e\":[]}")
+                .endObject();
+        Assert.assertEquals(writer.toString(), "{\"a\":\"x\",\"b\":[1,true,null,{}],\"c\":null,\"d\":{\"e\":[]}}");
+        Assert.assertEquals(writer.length(), writer.toString().length());
+    }
+
+    @Test
+    public void escapesStrings() {
+        JsonWriter writer = new JsonWriter();
+        writer.value("q\" b\\ n\n r\r t\t b\b f\f c\u0001 s/ \u2028\u2029 \u00e9");
+        Assert.assertEquals(writer.toString(),
+                "\"q\\\" b\\\\ n\\n r\\r t\\t b\\b f\\f c\\u0001 s/ \\u2028\\u2029 \u00e9\"");
+    }
+
+    @Test
+    public void escapesNonAsciiCharactersForHeaders() {
+        JsonWriter writer = new JsonWriter().asciiOnly(true);
+        writer.beginObject().name("p\u00e4th").value("/caf\u00e9/\ud83d\ude00\u007f").endObject();
+        Assert.assertEquals(writer.toString(), "{\"p\\u00e4th\":\"/caf\\u00e9/\\ud83d\\ude00\\u007f\"}");
+    }
+
+    @Test
+    public void writesDocumentsTheReaderReadsBack() throws IOException {
+        String value = "line\nquote\" \u0000 \u00e9 \ud83d\ude00 \u2028";
+        for (boolean asciiOnly : new boolean[]{false, true}) {
+            JsonWriter writer = new JsonWriter().asciiOnly(asciiOnly);
+            writer.beginArray().value(value).value(-42).endArray();
+            JsonReader reader = new JsonReader(new StringReader(writer.toString()));
+            reader.beginArray();
+            Assert.assertEquals(reader.nextString(), value);
+            Assert.assertEquals(reader.nextNumber(), "-42");
+            reader.endArray();
+        }
+    }
+
+    @Test
+    public void writesDeeplyNestedDocuments() {
+        JsonWriter writer = new JsonWriter();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            writer.beginArray().value(i);
+            expected.append('[').append(i).append(',');
+        }
+        writer.nullValue();
+        expected.append("null");
+        for (int i = 0; i < 50; i++) {
+            writer.endArray();
+            expected.append(']');
+        }
+        Assert.assertEquals(writer.toString(), expected.toString());
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void rejectsNameOutsideObject() {
+        new JsonWriter().name("a");
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void rejectsTwoNamesInARow() {
+        new JsonWriter().beginObject().name("a").name("b");
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void rejectsClosingAfterName() {
+        new JsonWriter().beginObject().name("a").endObject();
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void rejectsUnbalancedClose() {
+        new JsonWriter().endArray();
+    }
+
+    @Test
+    public void reusableWriterStartsEmpty() {
+        JsonWriter first = JsonWriter.reusable().asciiOnly(true);
+        first.beginObject().name("a").value("\u00e9");
+        JsonWriter second = JsonWriter.reusable();
+        Assert.assertSame(second, first);
+        second.beginArray().value("\u00e9").endArray();
+        Assert.assertEquals(second.toString(), "[\"\u00e9\"]");
+    }
+
+    @Test
+    public void resetDropsLargeBuffers() {
+        JsonWriter writer = new JsonWriter();
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            large.append('x');
+        }
+        writer.value(large.toString());
+        writer.reset();
+        Assert.assertEquals(writer.length(), 0);
+        writer.value(1);
+        Assert.assertEquals(writer.toString(), "1");
+    }
+}
@@ -18,6 +18,7 @@
 
 package org.wso2.carbon.connector.integration.test.dropbox;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.testng.Assert;
@@ -28,6 +29,7 @@ import org.wso2.connector.integration.test.base.RestResponse;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URLEncoder;
 import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.Map;
@@ -133,6 +135,78 @@ public class DropboxConnectorIntegrationTest extends ConnectorIntegrationTestBas
         Assert.assertTrue(esbRestResponse.getBody().has("id"));
     }
 
+    /**
+     * Positive test case for uploadFile with skipIfUnchanged, uploading the same content again.
+     */
+    @Test(priority = 1, dependsOnMethods = {"testUploadFile"},
+            description = "dropbox {uploadFile} integration test with skipIfUnchanged.")
+    public void testUploadFileSkipIfUnchanged() throws IOException, JSONException {
+        headersMap.put("Action", "urn:uploadFile");
+        headersMap.put("Content-Type", "application/octet-stream");
+        String requestString = proxyUrl + "?apiUrl=" + connectorProperties.getProperty("contentApiUrl")
+                + "&accessToken=" + connectorProperties.getProperty("accessToken")
+                + "&apiVersion=" + connectorProperties.getProperty("apiVersion")
+                + "&path=" + connectorProperties.getProperty("folderName1")
+                + "/" + connectorProperties.getProperty("fileName")
+                + "&mode=overwrite&skipIfUnchanged=true&verifyContentHash=true";
+
+        MultipartFormdataProcessor multipartProcessor = new MultipartFormdataProcessor(requestString, headersMap);
+        File file = new File(pathToResourcesDirectory + connectorProperties.getProperty("uploadSourcePath"));
+        multipartProcessor.addFiletoRequestBody(file);
+        RestResponse<JSONObject> esbRestResponse = multipartProcessor.processAttachmentForJsonResponse();
+        Assert.assertEquals(esbRestResponse.getHttpStatusCode(), 200);
+        Assert.assertTrue(esbRestResponse.getBody().has("content_hash"));
+    }
+
+    /**
+     * Positive test case for uploadLargeFile
+     */
+    @Test(priority = 1, dependsOnMethods = {"testUploadFile"},
+            description = "dropbox {uploadLargeFile} integration test positive case.")
+    public void testUploadLargeFile() throws IOException, JSONException {
+        headersMap.put("Action", "urn:uploadLargeFile");
+        headersMap.put("Content-Type", "application/octet-stream");
+        String requestString = proxyUrl + "?apiUrl=" + connectorProperties.getProperty("contentApiUrl")
+                + "&accessToken=" + connectorProperties.getProperty("accessToken")
+                + "&apiVersion=" + connectorProperties.getProperty("apiVersion")
+                + "&path=" + connectorProperties.getProperty("folderName1")
+                + "/" + connectorProperties.getProperty("largeFileName")
+                + "&mode=" + connectorProperties.getProperty("mode")
+                + "&chunkSize=" + connectorProperties.getProperty("chunkSize")
+                + "&parallelism=" + connectorProperties.getProperty("parallelism");
+
+        MultipartFormdataProcessor multipartProcessor = new MultipartFormdataProcessor(requestString, headersMap);
+        File file = new File(pathToResourcesDirectory + connectorProperties.getProperty("uploadSourcePath"));
+        multipartProcessor.addFiletoRequestBody(file);
+        RestResponse<JSONObject> esbRestResponse = multipartProcessor.processAttachmentForJsonResponse();
+        Assert.assertEquals(esbRestResponse.getHttpStatusCode(), 200);
+        Assert.assertEquals(esbRestResponse.getBody().get("size").toString(), String.valueOf(file.length()));
+    }
+
+    /**
+     * Positive test case for resumeUpload, uploading a local file through a persisted upload session.
+     */
+    @Test(priority = 1, dependsOnMethods = {"testUploadFile"},
+            description = "dropbox {resumeUpload} integration test positive case.")
+    public void testResumeUpload() throws IOException, JSONException {
+        headersMap.put("Action", "urn:resumeUpload");
+        headersMap.put("Content-Type", "application/octet-stream");
+        File file = new File(pathToResourcesDirectory + connectorProperties.getProperty("uploadSourcePath"));
+        String requestString = proxyUrl + "?apiUrl=" + connectorProperties.getProperty("contentApiUrl")
+                + "&accessToken=" + connectorProperties.getProperty("accessToken")
+                + "&apiVersion=" + connectorProperties.getProperty("apiVersion")
+                + "&path=" + connectorProperties.getProperty("folderName1")
+                + "/" + connectorProperties.getProperty("resumableFileName")
+                + "&mode=overwrite"
+                + "&sourcePath=" + URLEncoder.encode(file.toURI().toString(), "UTF-8");
+
+        MultipartFormdataProcessor multipartProcessor = new MultipartFormdataProcessor(requestString, headersMap);
+        multipartProcessor.addFiletoRequestBody(file);
+        RestResponse<JSONObject> esbRestResponse = multipartProcessor.processAttachmentForJsonResponse();
+        Assert.assertEquals(esbRestResponse.getHttpStatusCode(), 200);
+        Assert.assertEquals(esbRestResponse.getBody().get("size").toString(), String.valueOf(file.length()));
+    }
+
     /**
      * Positive test case for getTemporaryLink method with mandatory parameters.
      *
@@ -252,6 +326,152 @@ public class DropboxConnectorIntegrationTest extends ConnectorIntegrationTestBas
         Assert.assertEquals(esbRestResponse.getBody().toString(), apiRestResponse.getBody().toString());
     }
 
+    /**
+     * Positive test case for getMetadata method with an access token obtained from a refresh token.
+     */
+    @Test(priority = 1, dependsOnMethods = {"testGetMetadataWithMandatoryParameters"},
+            description = "dropbox {getMetadata} integration test with a refresh token.")
+    public void testGetMetadataWithRefreshToken() throws IOException, JSONException {
+        esbRequestHeadersMap.put("Action", "urn:getMetadata");
+        String apiEndPoint = connectorProperties.getProperty("dropboxApiUrl") + "/2/files/get_metadata";
+        RestResponse<JSONObject> firstEsbRestResponse = sendJsonRestRequest(proxyUrl, "POST", esbRequestHeadersMap,
+                "esb_getMetadata_refreshToken.json");
+        RestResponse<JSONObject> secondEsbRestResponse = sendJsonRestRequest(proxyUrl, "POST", esbRequestHeadersMap,
+                "esb_getMetadata_refreshToken.json");
+        RestResponse<JSONObject> apiRestResponse = sendJsonRestRequest(apiEndPoint, "POST", apiRequestHeadersMap,
+                "api_getMetadata_mandatory.json");
+        Assert.assertEquals(firstEsbRestResponse.getHttpStatusCode(), 200);
+        Assert.assertEquals(firstEsbRestResponse.getBody().get("id"), apiRestResponse.getBody().get("id"));
+        Assert.assertEquals(secondEsbRestResponse.getBody().get("id"), apiRestResponse.getBody().get("id"));
+    }
+
+    /**
+     * Positive test case for getMetadata method with a named connection, reused by a request that only gives its
+     * name.
+     */
+    @Test(priority = 1, dependsOnMethods = {"testGetMetadataWithMandatoryParameters"},
+            description = "dropbox {getMetadata} integration test with a named connection.")
+    public void testGetMetadataWithConnectionName() throws IOException, JSONException {
+        esbRequestHeadersMap.put("Action", "urn:getMetadata");
+        String apiEndPoint = connectorProperties.getProperty("dropboxApiUrl") + "/2/files/get_metadata";
+        RestResponse<JSONObject> firstEsbRestResponse = sendJsonRestRequest(proxyUrl, "POST", esbRequestHeadersMap,
+                "esb_getMetadata_connection.json");
+        RestResponse<JSONObject> secondEsbRestResponse = sendJsonRestRequest(proxyUrl, "POST", esbRequestHeadersMap,
+                "esb_getMetadata_connectionName.json");
+        RestResponse<JSONObject> apiRestResponse = sendJsonRestRequest(apiEndPoint, "POST", apiRequestHeadersMap,
+                "api_getMetadata_mandatory.json");
+        Assert.assertEquals(firstEsbRestResponse.getHttpStatusCode(), 200);
+        Assert.assertEquals(secondEsbRestResponse.getHttpStatusCode(), 200);
+        Assert.assertEquals(firstEsbRestResponse.getBody().get("id"), apiRestResponse.getBody().get("id"));
+        Assert.assertEquals(secondEsbRestResponse.getBody().get("id"), apiRestResponse.getBody().get("id"));
+    }
+
+    /**
+     * Positive test case for getMetadata method served from the metadata cache.
+     */
+    @Test(priority = 1, dependsOnMethods = {"testGetMetadataWithMandatoryParameters"},
+            description = "dropbox {getMetadata} integration test with the metadata cache.")
+    public void testGetMetadataWithCache() throws IOException, JSONException {
+        esbRequestHeadersMap.put("Action", "urn:getMetadata");
+        RestResponse<JSONObject> firstEsbRestResponse = sendJsonRestRequest(proxyUrl, "POST", esbRequestHeadersMap,
+                "esb_getMetadata_cache.json");
+        RestResponse<JSONObject> secondEsbRestResponse = sendJsonRestRequest(proxyUrl, "POST", esbRequestHeadersMap,
+                "esb_getMetadata_cache.json");
+        Assert.assertEquals(firstEsbRestResponse.getHttpStatusCode(), 200);
+        Assert.assertEquals(secondEsbRestResponse.getBody().toString(), firstEsbRestResponse.getBody().toString());
+    }
+
+    /**
+     * Positive test case for getMetadata method with a field projection.
+     */
+    @Test(priority = 1, dependsOnMethods = {"testUploadFile"},
+            description = "dropbox {getMetadata} integration test with fields.")
+    public void testGetMetadataWithFields() throws IOException, JSONException {
+        esbRequestHeadersMap.put("Action", "urn:getMetadata");
+        RestResponse<JSONObject> esbRestResponse = sendJsonRestRequest(proxyUrl, "POST", esbRequestHeadersMap,
+                "esb_getMetadata_fields.json");
+        Assert.assertEquals(esbRestResponse.getHttpStatusCode(), 200);
+        JSONObject metadata = esbRestResponse.getBody();
+        Assert.assertEquals(metadata.getString(".tag"), "file");
+        Assert.assertEquals(metadata.getString("name"), connectorProperties.getProperty("fileName"));
+        Assert.assertTrue(metadata.has("size") && !metadata.has("id") && !metadata.has("path_lower"));
+    }
+
+    /**
+     * Test case for getMetadataBulk method with an existing and a missing path.
+     */
+    @Test(priority = 1, dependsOnMethods = {"testUploadFile"},
+            description = "dropbox {getMetadataBulk} integration test with mandatory parameters.")
+    public void testGetMetadataBulkWithMandatoryParameters() throws IOException, JSONException {
+        esbRequestHeadersMap.put("Action", "urn:getMetadataBulk");
+        RestResponse<JSONObject> esbRestResponse = sendJsonRestRequest(proxyUrl, "POST", esbRequestHeadersMap,
+                "esb_getMetadataBulk_mandatory.json");
+        Assert.assertEquals(esbRestResponse.getHttpStatusCode(), 200);
+        Assert.assertEquals(esbRestResponse.getBody().getInt("total"), 2);
+        Assert.assertEquals(esbRestResponse.getBody().getInt("succeeded"), 1);
+        JSONArray entries = esbRestResponse.getBody().getJSONArray("entries");
+        Assert.assertEquals(entries.getJSONObject(0).getString(".tag"), "success");
+        Assert.assertEquals(entries.getJSONObject(0).getJSONObject("metadata").getString("name"),
+                connectorProperties.getProperty("fileName"));
+        Assert.assertEquals(entries.getJSONObject(1).getString(".tag"), "failure");
+    }
+
+    /**
+     * Positive test case for saveUrl method with mandatory parameters.
+     */
+    @Test(priority = 1, dependsOnMethods = {"testUploadFile"},
+            description = "dropbox {saveUrl} integration test with mandatory parameters.")
+    public void testSaveUrlWithMandatoryParameters() throws IOException, JSONException {
+        esbRequestHeadersMap.put("Action", "urn:saveUrl");
+        RestResponse<JSONObject> esbRestResponse = sendJsonRestRequest(proxyUrl, "POST", esbRequestHeadersMap,
+                "esb_saveUrl_mandatory.json");
+        Assert.assertEquals(esbRestResponse.getHttpStatusCode(), 200);
+        Assert.assertEquals(esbRestResponse.getBody().getString(".tag"), "complete");
+        Assert.assertEquals(esbRestResponse.getBody().getString("name"),
+                connectorProperties.getProperty("saveUrlFileName"));
+    }
+
+    /**
+     * Positive test case for listFolder method with optional parameters.
+     */
+    @Test(priority = 1, dependsOnMethods = {"testUploadFile"},
+            description = "dropbox {listFolder} integration test with optional parameters.")
+    public void testListFolderWithOptionalParameters() throws IOException, JSONException {
+        esbRequestHeadersMap.put("Action", "urn:listFolder");
+        RestResponse<JSONObject> esbRestResponse = sendJsonRestRequest(proxyUrl, "POST", esbRequestHeadersMap,
+                "esb_listFolder_optional.json");
+        Assert.assertEquals(esbRestResponse.getHttpStatusCode(), 200);
+        Assert.assertEquals(esbRestResponse.getBody().getJSONArray("entries").length(), 1);
+        connectorProperties.setProperty("listFolderCursor", esbRestResponse.getBody().getString("cursor"));
+    }
+
+    /**
+     * Positive test case for listFolderContinue method with mandatory parameters.
+     */
+    @Test(priority = 1, dependsOnMethods = {"testListFolderWithOptionalParameters"},
+            description = "dropbox {listFolderContinue} integration test with mandatory parameters.")
+    public void testListFolderContinueWithMandatoryParameters() throws IOException, JSONException {
+        esbRequestHeadersMap.put("Action", "urn:listFolderContinue");
+        RestResponse<JSONObject> esbRestResponse = sendJsonRestRequest(proxyUrl, "POST", esbRequestHeadersMap,
+                "esb_listFolderContinue_mandatory.json");
+        Assert.assertEquals(esbRestResponse.getHttpStatusCode(), 200);
+        Assert.assertTrue(esbRestResponse.getBody().has("entries"));
+        Assert.assertTrue(esbRestResponse.getBody().has("has_more"));
+    }
+
+    /**
+     * Positive test case for getLatestCursor method with optional parameters.
+     */
+    @Test(priority = 1, dependsOnMethods = {"testUploadFile"},
+            description = "dropbox {getLatestCursor} integration test with optional parameters.")
+    public void testGetLatestCursorWithOptionalParameters() throws IOException, JSONException {
+        esbRequestHeadersMap.put("Action", "urn:getLatestCursor");
+        RestResponse<JSONObject> esbRestResponse = sendJsonRestRequest(proxyUrl, "POST", esbRequestHeadersMap,
+                "esb_getLatestCursor_optional.json");
+        Assert.assertEquals(esbRestResponse.getHttpStatusCode(), 200);
+        Assert.assertTrue(esbRestResponse.getBody().has("cursor"));
+    }
+
     /**
      * Negative test case for getMetadata method.
      */
@@ -432,6 +652,27 @@ public class DropboxConnectorIntegrationTest extends ConnectorIntegrationTestBas
                 apiRestResponse.getBody().getJSONObject("error").toString());
     }
 
+    /**
+     * Positive test case for searchV2 method with mandatory parameters and a field projection.
+     *
+     * @throws JSONException
+     * @throws IOException
+     */
+    @Test(priority = 1, dependsOnMethods = {"testSearchWithNegativeCase"},
+            description = "dropbox {searchV2} integration test with mandatory parameters.")
+    public void testSearchV2WithMandatoryParameters() throws IOException, JSONException {
+        esbRequestHeadersMap.put("Action", "urn:searchV2");
+        RestResponse<JSONObject> esbRestResponse = sendJsonRestRequest(proxyUrl, "POST", esbRequestHeadersMap,
+                "esb_searchV2_mandatory.json");
+        Assert.assertEquals(esbRestResponse.getHttpStatusCode(), 200);
+        JSONArray matches = esbRestResponse.getBody().getJSONArray("matches");
+        Assert.assertTrue(matches.length() > 0);
+        for (int i = 0; i < matches.length(); i++) {
+            JSONObject match = matches.getJSONObject(i);
+            Assert.assertTrue(match.has("path_display") && !match.has("metadata") && !match.has("name"));
+        }
+    }
+
     /**
      * Positive test case for move method with mandatory parameters.
      *
@@ -556,6 +797,61 @@ public class DropboxConnectorIntegrationTest extends ConnectorIntegrationTestBas
                 "api_restoreFile_negative.json");
         Assert.assertEquals(esbRestResponse.getBody().toString(), apiRestResponse.getBody().toString());
     }
+
+    /**
+     * Positive test case for createFolderBatch method with mandatory parameters.
+     */
+    @Test(priority = 1, description = "dropbox {createFolderBatch} integration test with mandatory parameters.")
+    public void testCreateFolderBatchWithMandatoryParameters() throws IOException, JSONException {
+        esbRequestHeadersMap.put("Action", "urn:createFolderBatch");
+        RestResponse<JSONObject> esbRestResponse = sendJsonRestRequest(proxyUrl, "POST", esbRequestHeadersMap,
+                "esb_createFolderBatch_mandatory.json");
+        Assert.assertEquals(esbRestResponse.getHttpStatusCode(), 200);
+        Assert.assertEquals(esbRestResponse.getBody().getInt("total"), 2);
+        Assert.assertEquals(esbRestResponse.getBody().getJSONArray("entries").length(), 2);
+    }
+
+    /**
+     * Positive test case for deleteBatch method with mandatory parameters.
+     */
+    @Test(priority = 1, dependsOnMethods = {"testCreateFolderBatchWithMandatoryParameters"},
+            description = "dropbox {deleteBatch} integration test with mandatory parameters.")
+    public void testDeleteBatchWithMandatoryParameters() throws IOException, JSONException {
+        esbRequestHeadersMap.put("Action", "urn:deleteBatch");
+        RestResponse<JSONObject> esbRestResponse = sendJsonRestRequest(proxyUrl, "POST", esbRequestHeadersMap,
+                "esb_deleteBatch_mandatory.json");
+        Assert.assertEquals(esbRestResponse.getHttpStatusCode(), 200);
+        Assert.assertEquals(esbRestResponse.getBody().getInt("succeeded"), 2);
+    }
+
+    /**
+     * Positive test case for finishUploadSessionBatch, committing a session closed by startUploadSession.
+     */
+    @Test(priority = 1, dependsOnMethods = {"testUploadFile"},
+            description = "dropbox {finishUploadSessionBatch} integration test with mandatory parameters.")
+    public void testFinishUploadSessionBatchWithMandatoryParameters() throws IOException, JSONException {
+        headersMap.put("Action", "urn:startUploadSession");
+        headersMap.put("Content-Type", "application/octet-stream");
+        String requestString = proxyUrl + "?apiUrl=" + connectorProperties.getProperty("contentApiUrl")
+                + "&accessToken=" + connectorProperties.getProperty("accessToken")
+                + "&apiVersion=" + connectorProperties.getProperty("apiVersion")
+                + "&close=true";
+        MultipartFormdataProcessor multipartProcessor = new MultipartFormdataProcessor(requestString, headersMap);
+        File file = new File(pathToResourcesDirectory + connectorProperties.getProperty("uploadSourcePath"));
+        multipartProcessor.addFiletoRequestBody(file);
+        RestResponse<JSONObject> sessionResponse = multipartProcessor.processAttachmentForJsonResponse();
+        Assert.assertEquals(sessionResponse.getHttpStatusCode(), 200);
+        connectorProperties.setProperty("batchSessionId", sessionResponse.getBody().getString("session_id"));
+        connectorProperties.setProperty("batchSessionOffset", String.valueOf(file.length()));
+
+        esbRequestHeadersMap.put("Action", "urn:finishUploadSessionBatch");
+        RestResponse<JSONObject> esbRestResponse = sendJsonRestRequest(proxyUrl, "POST", esbRequestHeadersMap,
+                "esb_finishUploadSessionBatch_mandatory.json");
+        Assert.assertEquals(esbRestResponse.getHttpStatusCode(), 200);
+        Assert.assertEquals(esbRestResponse.getBody().getInt("succeeded"), 1);
+        Assert.assertEquals(esbRestResponse.getBody().getJSONArray("entries").getJSONObject(0).getString("name"),
+                connectorProperties.getProperty("batchUploadFileName"));
+    }
 //
 //    /**
 //     * Positive test case for download method with mandatory parameters.